@@ -1,9 +1,13 @@
 package com.musicstreaming.config;
 
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
@@ -11,15 +15,36 @@ import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
+import javax.cache.CacheManager;
+import javax.cache.Caching;
 import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
+import java.util.OptionalLong;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 @EnableTransactionManagement
 @EnableJpaRepositories(basePackages = "com.musicstreaming.repository")
 public class DatabaseConfig {
 
+    // Регионы кэша второго уровня: имя, максимум записей, TTL в секундах (0 - без истечения).
+    // Переопределяются свойствами cache.<регион>.maxEntries / cache.<регион>.ttlSeconds
+    private static final Object[][] CACHE_REGIONS = {
+            {"catalog.genre", 500L, 3600L},
+            {"catalog.artist", 5_000L, 1800L},
+            {"catalog.album", 10_000L, 1800L},
+            {"catalog.track", 50_000L, 600L},
+            // Результаты справочных запросов (списки жанров, исполнителей, альбомов)
+            {"catalog.queries", 1_000L, 600L},
+            {"default-query-results-region", 1_000L, 600L},
+            // Метки изменения таблиц для кэша запросов не должны вытесняться раньше результатов
+            {"default-update-timestamps-region", 0L, 0L}
+    };
+
+    @Autowired
+    private Environment environment;
+
     @Bean
     public DataSource dataSource() {
         HikariConfig config = new HikariConfig();
@@ -38,7 +63,7 @@ public class DatabaseConfig {
     }
 
     @Bean
-    public LocalContainerEntityManagerFactoryBean entityManagerFactory(DataSource dataSource) {
+    public LocalContainerEntityManagerFactoryBean entityManagerFactory(DataSource dataSource, CacheManager hibernateCacheManager) {
         LocalContainerEntityManagerFactoryBean em = new LocalContainerEntityManagerFactoryBean();
         em.setDataSource(dataSource);
         em.setPackagesToScan("com.musicstreaming.model");
@@ -50,10 +75,36 @@ public class DatabaseConfig {
 
         em.setJpaVendorAdapter(vendorAdapter);
         em.setJpaProperties(hibernateProperties());
+        em.getJpaPropertyMap().put("hibernate.javax.cache.cache_manager", hibernateCacheManager);
 
         return em;
     }
 
+    // Локальный кэш в памяти процесса; регионы создаются заранее, чтобы у каждого были свой размер и TTL
+    @Bean
+    public CacheManager hibernateCacheManager() {
+        CacheManager cacheManager = Caching.getCachingProvider(CaffeineCachingProvider.class.getName()).getCacheManager();
+        for (Object[] region : CACHE_REGIONS) {
+            String name = (String) region[0];
+            long maxEntries = environment.getProperty("cache." + name + ".maxEntries", Long.class, (Long) region[1]);
+            long ttlSeconds = environment.getProperty("cache." + name + ".ttlSeconds", Long.class, (Long) region[2]);
+
+            CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+            if (maxEntries > 0) {
+                configuration.setMaximumSize(OptionalLong.of(maxEntries));
+            }
+            if (ttlSeconds > 0) {
+                configuration.setExpireAfterWrite(OptionalLong.of(TimeUnit.SECONDS.toNanos(ttlSeconds)));
+            }
+            configuration.setStatisticsEnabled(true);
+            if (cacheManager.getCache(name) != null) {
+                cacheManager.destroyCache(name);
+            }
+            cacheManager.createCache(name, configuration);
+        }
+        return cacheManager;
+    }
+
     @Bean
     public PlatformTransactionManager transactionManager(EntityManagerFactory emf) {
         JpaTransactionManager transactionManager = new JpaTransactionManager();
@@ -70,6 +121,19 @@ public class DatabaseConfig {
         properties.setProperty("hibernate.use_sql_comments", "true");
         properties.setProperty("hibernate.jdbc.batch_size", "20");
         properties.setProperty("hibernate.enable_lazy_load_no_trans", "true");
+
+        // Кэш второго уровня только для сущностей с @Cache (справочники каталога) и кэш запросов
+        properties.setProperty("hibernate.cache.use_second_level_cache", "true");
+        properties.setProperty("hibernate.cache.use_query_cache", "true");
+        properties.setProperty("hibernate.cache.region.factory_class", "jcache");
+        properties.setProperty("hibernate.javax.cache.missing_cache_strategy", "create-warn");
+        properties.setProperty("javax.persistence.sharedCache.mode", "ENABLE_SELECTIVE");
+        // Счетчики статистики обновляются на каждом запросе к базе - включаются явно,
+        // когда нужны цифры кэша в /admin/api/metrics/second-level-cache (-Dhibernate.statistics.enabled=true)
+        properties.setProperty("hibernate.generate_statistics",
+                environment.getProperty("hibernate.statistics.enabled", "false"));
+        // Статистика нужна для /admin/api/metrics, а не в логе каждой сессии
+        properties.setProperty("hibernate.session.events.log", "false");
         return properties;
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.musicstreaming.controller;
 
+import com.musicstreaming.dto.SessionUser;
 import com.musicstreaming.dto.UserProfileDTO;
 import com.musicstreaming.model.User;
 import com.musicstreaming.service.AuthService;
@@ -66,15 +67,11 @@ public class AccountController {
         if (userOpt.isPresent()) {
             User user = userOpt.get();
 
-            // Проверяем статус подписки при входе
+            // Проверяем статус подписки при входе - роль в user обновляется
             subscriptionService.checkSubscriptionOnLogin(user);
 
-            // Загружаем обновленного пользователя
-            User refreshedUser = userService.findById(user.getId())
-                    .orElse(user);
-
-            authService.login(request, refreshedUser);
-            logger.info("User {} logged in successfully, role: {}", refreshedUser.getUsername(), refreshedUser.getRole());
+            authService.login(request, user);
+            logger.info("User {} logged in successfully, role: {}", user.getUsername(), user.getRole());
             return "redirect:/";
         } else {
             redirectAttributes.addAttribute("error", true);
@@ -116,34 +113,37 @@ public class AccountController {
 
     @GetMapping("/profile")
     public String profile(Model model, HttpServletRequest request) {
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
 
         if (currentUser == null) {
             return "redirect:/account/login";
         }
 
-        // Проверяем статус подписки
-        subscriptionService.checkSubscriptionOnLogin(currentUser);
+        // В сессии только id, имя и роль - профиль строится по пользователю из базы
+        User user = userService.findById(currentUser.getId()).orElse(null);
+        if (user == null) {
+            authService.logout(request);
+            return "redirect:/account/login";
+        }
 
-        // Загружаем обновленного пользователя
-        User refreshedUser = userService.findById(currentUser.getId())
-                .orElse(currentUser);
+        // Проверяем статус подписки - роль в user обновляется
+        subscriptionService.checkSubscriptionOnLogin(user);
 
         // Обновляем пользователя в сессии, если роль изменилась
-        if (refreshedUser.getRole() != currentUser.getRole()) {
-            authService.login(request, refreshedUser);
+        if (user.getRole() != currentUser.getRole()) {
+            authService.login(request, user);
         }
 
         // Если пользователь музыкант
-        if (refreshedUser.isMusician()) {
+        if (user.isMusician()) {
             return "redirect:/artist/cabinet";
         }
 
         // Для обычных пользователей и админов без статуса музыканта
         UserProfileDTO userProfile = new UserProfileDTO(
-                refreshedUser,
-                playlistService.findByUserId(refreshedUser.getId()),
-                subscriptionService.findByUserId(refreshedUser.getId())
+                user,
+                playlistService.findByUserId(user.getId()),
+                subscriptionService.findByUserId(user.getId())
         );
 
         model.addAttribute("user", userProfile);
@@ -1,8 +1,6 @@
 package com.musicstreaming.controller;
 
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import com.musicstreaming.dto.SessionUser;
 import com.musicstreaming.repository.ModerationRepository;
 import org.springframework.web.multipart.MultipartFile;
 import java.io.File;
@@ -12,7 +10,9 @@ import java.nio.file.Paths;
 import java.util.*;
 
 import com.musicstreaming.dto.AdminUserDTO;
+import com.musicstreaming.dto.KeysetPage;
 import com.musicstreaming.dto.TrackDTO;
+import com.musicstreaming.dto.TrackModerationSummary;
 import com.musicstreaming.model.*;
 import com.musicstreaming.service.*;
 import org.slf4j.Logger;
@@ -41,17 +41,25 @@ public class AdminController {
     private final ArtistService artistService;
     private final AlbumService albumService;
     private final GenreService genreService;
-    private final PlaylistService playlistService;
     private final ModerationRepository moderationRepository;
 
     @Autowired
     private AudioMetadataService audioMetadataService;
 
+    @Autowired
+    private TrackFileIndex trackFileIndex;
+
+    @Autowired
+    private DashboardStatisticsService dashboardStatistics;
+
+    @Autowired
+    private UniqueListenerService uniqueListeners;
+
     @Autowired
     public AdminController(UserService userService, TrackService trackService,
                            AdminService adminService, AuthService authService,
                            ArtistService artistService, AlbumService albumService,
-                           GenreService genreService, PlaylistService playlistService,
+                           GenreService genreService,
                            ModerationRepository moderationRepository,  AudioMetadataService audioMetadataService) {
         this.userService = userService;
         this.trackService = trackService;
@@ -60,7 +68,6 @@ public class AdminController {
         this.artistService = artistService;
         this.albumService = albumService;
         this.genreService = genreService;
-        this.playlistService = playlistService;
         this.moderationRepository = moderationRepository;
         this.audioMetadataService = audioMetadataService;
     }
@@ -74,29 +81,20 @@ public class AdminController {
             return "redirect:/";
         }
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         model.addAttribute("currentUser", currentUser);
         model.addAttribute("pageTitle", "Панель управления");
         model.addAttribute("activePage", "dashboard");
 
-        try {
-            List<User> allUsers = userService.findAll();
-            model.addAttribute("totalUsers", allUsers.size());
-            model.addAttribute("totalAdmins", (int) allUsers.stream().filter(User::isAdmin).count());
-            model.addAttribute("totalMusicians", (int) allUsers.stream().filter(User::isMusician).count());
-
-            int totalTracks = trackService.findAll().size();
-            int pendingTracks = trackService.findPendingModeration().size();
-
-            model.addAttribute("totalTracks", totalTracks);
-            model.addAttribute("pendingCount", pendingTracks);
-            model.addAttribute("totalArtists", artistService.findAll().size());
-            model.addAttribute("totalAlbums", albumService.findAll().size());
-            model.addAttribute("totalGenres", genreService.findAll().size());
-
-        } catch (Exception e) {
-            logger.error("Error loading admin statistics", e);
-        }
+        // Счетчики поддерживаются при записи - таблицы здесь не читаются
+        model.addAttribute("totalUsers", dashboardStatistics.getTotalUsers());
+        model.addAttribute("totalAdmins", dashboardStatistics.getUserCount(User.UserRole.Admin));
+        model.addAttribute("totalMusicians", dashboardStatistics.getUserCount(User.UserRole.Musician));
+        model.addAttribute("totalTracks", dashboardStatistics.getTotalTracks());
+        model.addAttribute("pendingCount", dashboardStatistics.getPendingTracks());
+        model.addAttribute("totalArtists", dashboardStatistics.getTotalArtists());
+        model.addAttribute("totalAlbums", dashboardStatistics.getTotalAlbums());
+        model.addAttribute("totalGenres", dashboardStatistics.getTotalGenres());
 
         return "admin/index";
     }
@@ -105,6 +103,9 @@ public class AdminController {
 
     @GetMapping("/users")
     public String users(@RequestParam(required = false) String search,
+                        @RequestParam(required = false) User.UserRole role,
+                        @RequestParam(required = false) String after,
+                        @RequestParam(required = false) Integer size,
                         Model model, HttpServletRequest request,
                         RedirectAttributes redirectAttributes) {
 
@@ -113,41 +114,33 @@ public class AdminController {
             return "redirect:/";
         }
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         model.addAttribute("currentUser", currentUser);
         model.addAttribute("pageTitle", "Управление пользователями");
         model.addAttribute("activePage", "users");
 
-        List<User> users;
-        if (search != null && !search.isEmpty()) {
-            users = userService.search(search);
-        } else {
-            users = userService.findAll();
-        }
+        // Постраничная выдача по курсору: страница N стоит столько же, сколько первая;
+        // счетчики плейлистов, загрузок и подписки приходят в том же запросе
+        KeysetPage<AdminUserDTO> page = userService.findAdminPage(after, size, role, search);
 
-        // Конвертируем в DTO с количеством плейлистов
-        List<AdminUserDTO> userDTOs = users.stream()
-                .map(user -> {
-                    int playlistCount = playlistService.countByUserId(user.getId());
-                    return new AdminUserDTO(user, playlistCount);
-                })
-                .toList();
-
-        int totalAdmins = 0;
-        int totalMusicians = 0;
-        int totalSubscribers = 0;
-
-        for (AdminUserDTO user : userDTOs) {
-            if (user.isAdmin()) totalAdmins++;
-            else if (user.isMusician()) totalMusicians++;
-            else if (user.isSubscriber()) totalSubscribers++;
-        }
-
-        model.addAttribute("users", userDTOs);
+        model.addAttribute("users", page.getItems());
         model.addAttribute("search", search);
-        model.addAttribute("totalAdmins", totalAdmins);
-        model.addAttribute("totalMusicians", totalMusicians);
-        model.addAttribute("totalSubscribers", totalSubscribers);
+        model.addAttribute("role", role);
+        model.addAttribute("nextCursor", page.getNextCursor());
+        model.addAttribute("pageSize", KeysetPage.clampSize(size));
+        if (role == null && (search == null || search.trim().isEmpty())) {
+            model.addAttribute("totalUsers", dashboardStatistics.getTotalUsers());
+            model.addAttribute("totalAdmins", dashboardStatistics.getUserCount(User.UserRole.Admin));
+            model.addAttribute("totalMusicians", dashboardStatistics.getUserCount(User.UserRole.Musician));
+            model.addAttribute("totalSubscribers", dashboardStatistics.getUserCount(User.UserRole.Subscriber));
+        } else {
+            // С фильтром итоги считаются по отфильтрованной выборке, а не по всем пользователям
+            Map<User.UserRole, Long> counts = userService.countAdminUsersByRole(role, search);
+            model.addAttribute("totalUsers", counts.values().stream().mapToLong(Long::longValue).sum());
+            model.addAttribute("totalAdmins", counts.getOrDefault(User.UserRole.Admin, 0L));
+            model.addAttribute("totalMusicians", counts.getOrDefault(User.UserRole.Musician, 0L));
+            model.addAttribute("totalSubscribers", counts.getOrDefault(User.UserRole.Subscriber, 0L));
+        }
 
         return "admin/users";
     }
@@ -247,6 +240,11 @@ public class AdminController {
 
     @GetMapping("/tracks")
     public String tracks(@RequestParam(required = false) String search,
+                         @RequestParam(required = false) Boolean moderated,
+                         @RequestParam(required = false) Integer genreId,
+                         @RequestParam(required = false) Integer artistId,
+                         @RequestParam(required = false) String after,
+                         @RequestParam(required = false) Integer size,
                          Model model, HttpServletRequest request,
                          RedirectAttributes redirectAttributes) {
 
@@ -255,7 +253,7 @@ public class AdminController {
             return "redirect:/";
         }
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         model.addAttribute("currentUser", currentUser);
         model.addAttribute("pageTitle", "Управление треками");
         model.addAttribute("activePage", "tracks");
@@ -263,22 +261,28 @@ public class AdminController {
         try {
             List<Track> tracks;
             if (search != null && !search.isEmpty()) {
+                // Поиск идет по индексу и уже ограничен по числу результатов
                 tracks = trackService.search(search);
             } else {
-                tracks = trackService.findAll();
+                KeysetPage<Track> page = trackService.findPage(after, size, moderated, genreId, artistId);
+                tracks = page.getItems();
+                model.addAttribute("nextCursor", page.getNextCursor());
             }
 
-            // статусы модерации для каждого трека
-            Map<Integer, String> trackModerationStatuses = new HashMap<>();
-            for (Track track : tracks) {
-                trackModerationStatuses.put(track.getId(), getTrackModerationStatus(track));
-            }
+            // статусы модерации для всей страницы одним запросом
+            Map<Integer, String> trackModerationStatuses = adminService.summarizeModeration(tracks).getStatuses();
 
             model.addAttribute("tracks", tracks);
-            model.addAttribute("totalTracks", tracks.size());
-            model.addAttribute("pendingCount", trackService.findPendingModeration().size());
+            model.addAttribute("totalTracks", dashboardStatistics.getTotalTracks());
+            model.addAttribute("pendingCount", dashboardStatistics.getPendingTracks());
             model.addAttribute("search", search);
+            model.addAttribute("moderated", moderated);
+            model.addAttribute("genreId", genreId);
+            model.addAttribute("artistId", artistId);
+            model.addAttribute("pageSize", KeysetPage.clampSize(size));
             model.addAttribute("trackModerationStatuses", trackModerationStatuses); // ДОБАВЛЕНО
+            model.addAttribute("trackListeners", uniqueListeners.countEach(PlayRollup.Scope.Track,
+                    tracks.stream().map(Track::getId).collect(Collectors.toList()), 30));
 
             model.addAttribute("artists", artistService.findAll());
             model.addAttribute("albums", albumService.findAll());
@@ -303,7 +307,7 @@ public class AdminController {
             return "redirect:/";
         }
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         model.addAttribute("currentUser", currentUser);
         model.addAttribute("track", new Track());
         model.addAttribute("artists", artistService.findAll());
@@ -323,7 +327,7 @@ public class AdminController {
             return "redirect:/";
         }
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         model.addAttribute("currentUser", currentUser);
 
         Track track = trackService.findByIdWithUser(id)
@@ -345,7 +349,7 @@ public class AdminController {
             return "redirect:/";
         }
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         model.addAttribute("currentUser", currentUser);
 
         Track track = trackService.findById(id)
@@ -375,7 +379,7 @@ public class AdminController {
         }
 
         try {
-            User currentUser = authService.getCurrentUser(request);
+            SessionUser currentUser = authService.getCurrentUser(request);
 
             // Если это существующий трек, загружаем его из базы
             if (track.getId() != null) {
@@ -408,6 +412,7 @@ public class AdminController {
             }
 
             // Обработка загрузки нового файла
+            Path uploadedFile = null;
             if (audioFile != null && !audioFile.isEmpty()) {
                 logger.info("Processing uploaded file: {}, size: {} bytes",
                         audioFile.getOriginalFilename(), audioFile.getSize());
@@ -442,6 +447,7 @@ public class AdminController {
 
                 // Сохраняем имя файла в БД
                 track.setFilePath(filename);
+                uploadedFile = destFile;
 
                 // автоопределение длины трека
                 int detectedDuration = audioMetadataService.getDurationInSeconds(destFile.toString());
@@ -465,11 +471,14 @@ public class AdminController {
             }
 
             if (track.getUploadedByUser() == null && currentUser != null) {
-                track.setUploadedByUser(currentUser);
+                track.setUploadedByUser(userService.getReference(currentUser.getId()));
             }
 
             // Сохраняем трек
             trackService.save(track);
+            if (uploadedFile != null) {
+                trackFileIndex.register(track.getId(), uploadedFile);
+            }
 
             String message;
             if (track.getId() != null && audioFile != null && !audioFile.isEmpty()) {
@@ -529,7 +538,7 @@ public class AdminController {
         }
 
         try {
-            User moderator = authService.getCurrentUser(request);
+            SessionUser moderator = authService.getCurrentUser(request);
             trackService.approveTrack(id, moderator.getId(), comment);
             redirectAttributes.addFlashAttribute("success", "Track approved successfully");
         } catch (Exception e) {
@@ -552,7 +561,7 @@ public class AdminController {
         }
 
         try {
-            User moderator = authService.getCurrentUser(request);
+            SessionUser moderator = authService.getCurrentUser(request);
             trackService.rejectTrack(id, moderator.getId(), comment);
             redirectAttributes.addFlashAttribute("success", "Track rejected");
         } catch (Exception e) {
@@ -566,7 +575,10 @@ public class AdminController {
     // ==================== ALBUM MANAGEMENT ====================
 
     @GetMapping("/albums")
-    public String albums(Model model, HttpServletRequest request,
+    public String albums(@RequestParam(required = false) Integer artistId,
+                         @RequestParam(required = false) String after,
+                         @RequestParam(required = false) Integer size,
+                         Model model, HttpServletRequest request,
                          RedirectAttributes redirectAttributes) {
 
         if (!authService.isAdmin(request)) {
@@ -574,9 +586,15 @@ public class AdminController {
             return "redirect:/";
         }
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         model.addAttribute("currentUser", currentUser);
-        model.addAttribute("albums", albumService.findAll());
+        KeysetPage<Album> page = albumService.findPage(after, size, artistId);
+        model.addAttribute("albums", page.getItems());
+        model.addAttribute("albumListeners", uniqueListeners.countEach(PlayRollup.Scope.Album,
+                page.getItems().stream().map(Album::getId).collect(Collectors.toList()), 30));
+        model.addAttribute("nextCursor", page.getNextCursor());
+        model.addAttribute("artistId", artistId);
+        model.addAttribute("pageSize", KeysetPage.clampSize(size));
         model.addAttribute("artists", artistService.findAll());
         model.addAttribute("pageTitle", "Управление альбомами");
         model.addAttribute("activePage", "albums");
@@ -593,7 +611,7 @@ public class AdminController {
             return "redirect:/";
         }
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         model.addAttribute("currentUser", currentUser);
         model.addAttribute("album", new Album());
         model.addAttribute("artists", artistService.findAll());
@@ -656,7 +674,7 @@ public class AdminController {
             return "redirect:/";
         }
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         Album album = albumService.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("Invalid album Id: " + id));
 
@@ -679,7 +697,7 @@ public class AdminController {
             return "redirect:/";
         }
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         Album album = albumService.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("Invalid album Id: " + id));
 
@@ -735,7 +753,7 @@ public class AdminController {
             return "redirect:/";
         }
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         model.addAttribute("currentUser", currentUser);
         model.addAttribute("genres", genreService.findAllDTOs());
         model.addAttribute("pageTitle", "Управление жанрами");
@@ -753,7 +771,7 @@ public class AdminController {
             return "redirect:/";
         }
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         model.addAttribute("currentUser", currentUser);
         model.addAttribute("genre", new Genre());
         model.addAttribute("pageTitle", "Добавление жанра");
@@ -793,7 +811,7 @@ public class AdminController {
             return "redirect:/";
         }
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         Genre genre = genreService.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("Invalid genre Id: " + id));
 
@@ -829,7 +847,8 @@ public class AdminController {
     // ==================== MODERATION ====================
 
     @GetMapping("/moderation")
-    public String moderation(@RequestParam(required = false, defaultValue = "0") int page,
+    public String moderation(@RequestParam(required = false) Moderation.ModerationStatus status,
+                             @RequestParam(required = false) String after,
                              Model model, HttpServletRequest request,
                              RedirectAttributes redirectAttributes) {
 
@@ -838,7 +857,7 @@ public class AdminController {
             return "redirect:/";
         }
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         model.addAttribute("currentUser", currentUser);
         model.addAttribute("pageTitle", "Модерация контента");
         model.addAttribute("activePage", "moderation");
@@ -846,28 +865,22 @@ public class AdminController {
         // Получаем непроверенные треки
         List<Track> pendingTracks = trackService.findPendingModeration();
 
-        // Фильтруем - исключаем отклоненные треки
-        List<Track> filteredPendingTracks = new ArrayList<>();
-        for (Track track : pendingTracks) {
-            Optional<Moderation> latestModeration = moderationRepository.findLatestByTrackId(track.getId());
-
-            if (latestModeration.isEmpty() || latestModeration.get().getStatus() != Moderation.ModerationStatus.Rejected) {
-                filteredPendingTracks.add(track);
-            }
-        }
+        // Фильтруем - исключаем отклоненные треки; последние модерации читаются одним запросом
+        TrackModerationSummary moderation = adminService.summarizePending(pendingTracks);
+        List<Track> filteredPendingTracks = pendingTracks.stream()
+                .filter(track -> !TrackModerationSummary.REJECTED.equals(moderation.getStatus(track.getId())))
+                .toList();
 
         model.addAttribute("pendingTracks", filteredPendingTracks);
         model.addAttribute("pendingCount", filteredPendingTracks.size());
 
-        // История модерации
-        int pageSize = 10;
-        Pageable pageable = PageRequest.of(page, pageSize);
-        Page<Moderation> moderationPage = moderationRepository.findModerationHistory(pageable);
+        // История модерации: по курсору, без OFFSET и COUNT по всей таблице
+        KeysetPage<Moderation> historyPage = moderationRepository.findHistoryPage(after, 10, status);
 
-        model.addAttribute("moderationHistory", moderationPage.getContent());
-        model.addAttribute("currentPage", page);
-        model.addAttribute("totalPages", moderationPage.getTotalPages());
-        model.addAttribute("totalItems", moderationPage.getTotalElements());
+        model.addAttribute("moderationHistory", historyPage.getItems());
+        model.addAttribute("status", status);
+        model.addAttribute("after", after);
+        model.addAttribute("nextCursor", historyPage.getNextCursor());
 
         // Жанры для фильтров
         model.addAttribute("genres", genreService.findAll());
@@ -901,19 +914,4 @@ public class AdminController {
             return "default.jpg";
         }
     }
-    private String getTrackModerationStatus(Track track) {
-        if (track.isModerated()) {
-            return "approved";
-        }
-
-        // Проверяем последнюю запись в Moderations
-        Optional<Moderation> latestModeration = moderationRepository.findLatestByTrackId(track.getId());
-
-        if (latestModeration.isPresent() &&
-                latestModeration.get().getStatus() == Moderation.ModerationStatus.Rejected) {
-            return "rejected";
-        }
-
-        return "pending";
-    }
 }
\ No newline at end of file
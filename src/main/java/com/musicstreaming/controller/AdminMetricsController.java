@@ -0,0 +1,245 @@
+package com.musicstreaming.controller;
+
+import com.musicstreaming.service.AsyncAudioStreamer;
+import com.musicstreaming.service.AudioSegmentCache;
+import com.musicstreaming.service.AudioStreamingService;
+import com.musicstreaming.service.AuthService;
+import com.musicstreaming.service.AuthTokenService;
+import com.musicstreaming.service.AutocompleteService;
+import com.musicstreaming.service.CatalogCacheService;
+import com.musicstreaming.service.CatalogSearchIndex;
+import com.musicstreaming.service.CoListeningIndex;
+import com.musicstreaming.service.DashboardStatisticsService;
+import com.musicstreaming.service.EntitlementService;
+import com.musicstreaming.service.ListeningDeduplicator;
+import com.musicstreaming.service.PlayAnalyticsService;
+import com.musicstreaming.service.PlayEventAggregator;
+import com.musicstreaming.service.RecommendationCache;
+import com.musicstreaming.service.SubscriptionExpiryService;
+import com.musicstreaming.service.TrendingIndex;
+import com.musicstreaming.service.UniqueListenerService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/admin/api/metrics")
+public class AdminMetricsController {
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private AuthTokenService authTokenService;
+
+    @Autowired
+    private AudioStreamingService audioStreamingService;
+
+    @Autowired
+    private AudioSegmentCache audioSegmentCache;
+
+    @Autowired
+    private AsyncAudioStreamer asyncAudioStreamer;
+
+    @Autowired
+    private PlayEventAggregator playEventAggregator;
+
+    @Autowired
+    private PlayAnalyticsService playAnalytics;
+
+    @Autowired
+    private UniqueListenerService uniqueListeners;
+
+    @Autowired
+    private TrendingIndex trendingIndex;
+
+    @Autowired
+    private EntitlementService entitlementService;
+
+    @Autowired
+    private SubscriptionExpiryService subscriptionExpiryService;
+
+    @Autowired
+    private ListeningDeduplicator listeningDeduplicator;
+
+    @Autowired
+    private RecommendationCache recommendationCache;
+
+    @Autowired
+    private CoListeningIndex coListeningIndex;
+
+    @Autowired
+    private CatalogSearchIndex catalogSearchIndex;
+
+    @Autowired
+    private AutocompleteService autocompleteService;
+
+    @Autowired
+    private CatalogCacheService catalogCacheService;
+
+    @Autowired
+    private DashboardStatisticsService dashboardStatistics;
+
+    // Счетчики отданных байт по режимам стриминга
+    @GetMapping("/streaming")
+    public ResponseEntity<Map<String, Object>> streaming(HttpServletRequest request) {
+        if (!authService.isAdmin(request)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(audioStreamingService.getStatistics());
+    }
+
+    // Доля попаданий, занятый объем и вытеснения кэша сегментов
+    @GetMapping("/segment-cache")
+    public ResponseEntity<Map<String, Object>> segmentCache(HttpServletRequest request) {
+        if (!authService.isAdmin(request)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(audioSegmentCache.getStatistics());
+    }
+
+    // Активные неблокирующие потоки, таймауты простоя и остановки по обратному давлению
+    @GetMapping("/async-streaming")
+    public ResponseEntity<Map<String, Object>> asyncStreaming(HttpServletRequest request) {
+        if (!authService.isAdmin(request)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(asyncAudioStreamer.getStatistics());
+    }
+
+    // Глубина буфера прослушиваний, время пакетного сброса и состояние журнала
+    @GetMapping("/play-events")
+    public ResponseEntity<Map<String, Object>> playEvents(HttpServletRequest request) {
+        if (!authService.isAdmin(request)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(playEventAggregator.getStatistics());
+    }
+
+    // Агрегаты аналитики: несброшенные ключи, записанные строки, заполнение и очистка
+    @GetMapping("/play-analytics")
+    public ResponseEntity<Map<String, Object>> playAnalytics(HttpServletRequest request) {
+        if (!authService.isAdmin(request)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(playAnalytics.getStatistics());
+    }
+
+    // Тренды: прослушивания по периодам, кандидаты top-K, время обновления снимка
+    @GetMapping("/trending")
+    public ResponseEntity<Map<String, Object>> trending(HttpServletRequest request) {
+        if (!authService.isAdmin(request)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(trendingIndex.getStatistics());
+    }
+
+    // Кэш прав по подписке: попадания, загрузки, сбросы
+    @GetMapping("/entitlements")
+    public ResponseEntity<Map<String, Object>> entitlements(HttpServletRequest request) {
+        if (!authService.isAdmin(request)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(entitlementService.getStatistics());
+    }
+
+    // Очередь истечения подписок: ближайшее окончание, пачки, пониженные роли
+    @GetMapping("/subscription-expiry")
+    public ResponseEntity<Map<String, Object>> subscriptionExpiry(HttpServletRequest request) {
+        if (!authService.isAdmin(request)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(subscriptionExpiryService.getStatistics());
+    }
+
+    // Окна уникальных слушателей: кэш слитых скетчей закрытых дней
+    @GetMapping("/unique-listeners")
+    public ResponseEntity<Map<String, Object>> uniqueListeners(HttpServletRequest request) {
+        if (!authService.isAdmin(request)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(uniqueListeners.getStatistics());
+    }
+
+    // Окно дедупликации прослушиваний: отслеживаемые пользователи и отброшенные повторы
+    @GetMapping("/listening-dedupe")
+    public ResponseEntity<Map<String, Object>> listeningDedupe(HttpServletRequest request) {
+        if (!authService.isAdmin(request)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(listeningDeduplicator.getStatistics());
+    }
+
+    // Кэш рекомендаций: доля попаданий и сэкономленное время пересчета
+    @GetMapping("/recommendation-cache")
+    public ResponseEntity<Map<String, Object>> recommendationCache(HttpServletRequest request) {
+        if (!authService.isAdmin(request)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(recommendationCache.getStatistics());
+    }
+
+    // Матрица совместных прослушиваний: размер, время построения и время запроса
+    @GetMapping("/co-listening")
+    public ResponseEntity<Map<String, Object>> coListening(HttpServletRequest request) {
+        if (!authService.isAdmin(request)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(coListeningIndex.getStatistics());
+    }
+
+    // Поисковый индекс каталога: размер и среднее время запроса
+    @GetMapping("/search-index")
+    public ResponseEntity<Map<String, Object>> searchIndex(HttpServletRequest request) {
+        if (!authService.isAdmin(request)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(catalogSearchIndex.getStatistics());
+    }
+
+    // Подсказки при вводе: размер дерева и перцентили времени ответа
+    @GetMapping("/autocomplete")
+    public ResponseEntity<Map<String, Object>> autocomplete(HttpServletRequest request) {
+        if (!authService.isAdmin(request)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(autocompleteService.getStatistics());
+    }
+
+    // Кэш второго уровня Hibernate: попадания и размер по регионам
+    @GetMapping("/second-level-cache")
+    public ResponseEntity<Map<String, Object>> secondLevelCache(HttpServletRequest request) {
+        if (!authService.isAdmin(request)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(catalogCacheService.getStatistics());
+    }
+
+    // Счетчики панели администратора: пользователи по ролям, треки по модерации, каталог
+    @GetMapping("/dashboard")
+    public ResponseEntity<Map<String, Object>> dashboard(HttpServletRequest request) {
+        if (!authService.isAdmin(request)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(dashboardStatistics.getStatistics());
+    }
+
+    // Токены входа: режим, ключи, отказы по причинам и перцентили времени проверки
+    @GetMapping("/auth-tokens")
+    public ResponseEntity<Map<String, Object>> authTokens(HttpServletRequest request) {
+        if (!authService.isAdmin(request)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", authService.isStateless() ? "token" : "session");
+        stats.putAll(authTokenService.getStatistics());
+        return ResponseEntity.ok(stats);
+    }
+}
@@ -71,7 +71,7 @@ public class AlbumController {
     @ResponseBody
     public ResponseEntity<Map<String, Object>> recordTrackPlay(@PathVariable Integer albumId,
                                                                @PathVariable Integer trackId) {
-        albumService.recordAlbumPlay(albumId);
+        albumService.recordAlbumPlay(albumId, trackId);
         Long totalListens = albumService.getTotalListenCount(albumId);
 
         Map<String, Object> response = new HashMap<>();
@@ -1,13 +1,14 @@
 package com.musicstreaming.controller;
 
 import com.musicstreaming.dto.ArtistProfileDTO;
-import com.musicstreaming.model.Moderation;
-import com.musicstreaming.model.User;
-import com.musicstreaming.repository.ModerationRepository;
+import com.musicstreaming.dto.SessionUser;
+import com.musicstreaming.dto.TrackModerationSummary;
+import com.musicstreaming.model.PlayRollup;
 import com.musicstreaming.service.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -37,6 +38,9 @@ public class ArtistCabinetController {
     @Autowired
     private AuthService authService;
 
+    @Autowired
+    private UserService userService;
+
     @Autowired
     private GenreService genreService;
 
@@ -47,31 +51,18 @@ public class ArtistCabinetController {
     private AudioMetadataService audioMetadataService;
 
     @Autowired
-    private ModerationRepository moderationRepository;
-
-    // Определяет статус трека на основе записей в Moderations
-    private String getTrackStatus(com.musicstreaming.model.Track track) {
-        // Если трек одобрен (isModerated = true)
-        if (track.isModerated()) {
-            return "approved";
-        }
+    private AdminService adminService;
 
-        // Проверяем последнюю запись в Moderations
-        Optional<Moderation> latestModeration = moderationRepository.findLatestByTrackId(track.getId());
-
-        // Если есть запись и статус Rejected - трек отклонен
-        if (latestModeration.isPresent() && latestModeration.get().getStatus() == Moderation.ModerationStatus.Rejected) {
-            return "rejected";
-        }
+    @Autowired
+    private TrackFileIndex trackFileIndex;
 
-        // Во всех остальных случаях - на модерации
-        return "pending";
-    }
+    @Autowired
+    private UniqueListenerService uniqueListeners;
 
     @GetMapping("/cabinet")
     public String artistCabinet(Model model, HttpServletRequest request,
                                 RedirectAttributes redirectAttributes) {
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
 
         if (currentUser == null) {
             return "redirect:/account/login";
@@ -88,18 +79,15 @@ public class ArtistCabinetController {
 
         ArtistProfileDTO artistProfile = artistService.getArtistProfile(currentUser.getId());
 
-        // статусы модерации для треков
-        Map<Integer, String> trackStatuses = new HashMap<>();
+        // статусы модерации для треков - одним запросом на всю страницу
+        List<com.musicstreaming.model.Track> profileTracks = new ArrayList<>();
         if (artistProfile.getPopularTracks() != null) {
-            for (com.musicstreaming.model.Track track : artistProfile.getPopularTracks()) {
-                trackStatuses.put(track.getId(), getTrackStatus(track));
-            }
+            profileTracks.addAll(artistProfile.getPopularTracks());
         }
         if (artistProfile.getTracks() != null) {
-            for (com.musicstreaming.model.Track track : artistProfile.getTracks()) {
-                trackStatuses.put(track.getId(), getTrackStatus(track));
-            }
+            profileTracks.addAll(artistProfile.getTracks());
         }
+        Map<Integer, String> trackStatuses = adminService.summarizeModeration(profileTracks).getStatuses();
 
         model.addAttribute("artist", artistProfile);
         model.addAttribute("currentUser", currentUser);
@@ -135,6 +123,22 @@ public class ArtistCabinetController {
         return ResponseEntity.ok(response);
     }
 
+    // Ряд прослушиваний по часам, дням или месяцам из предагрегированных строк
+    @GetMapping("/api/analytics")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> getAnalytics(@RequestParam(defaultValue = "Day") PlayRollup.Granularity granularity,
+                                                            @RequestParam(defaultValue = "30") int days,
+                                                            HttpServletRequest request) {
+        SessionUser currentUser = authService.getCurrentUser(request);
+        if (currentUser == null || !currentUser.isMusician()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("granularity", granularity);
+        response.put("series", artistService.getPlaySeries(currentUser.getId(), granularity, days));
+        return ResponseEntity.ok(response);
+    }
+
     @PostMapping("/upload-track")
     public String uploadTrack(@RequestParam String title,
                               @RequestParam Integer artistId,
@@ -144,7 +148,7 @@ public class ArtistCabinetController {
                               @RequestParam(value = "coverFile", required = false) MultipartFile coverFile,
                               HttpServletRequest request,
                               RedirectAttributes redirectAttributes) {
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
 
         if (currentUser == null || !currentUser.isMusician()) {
             redirectAttributes.addFlashAttribute("error", "Доступ запрещен");
@@ -155,7 +159,7 @@ public class ArtistCabinetController {
             com.musicstreaming.model.Track track = new com.musicstreaming.model.Track();
             track.setTitle(title);
             track.setDuration(180);
-            track.setUploadedByUser(currentUser);
+            track.setUploadedByUser(userService.getReference(currentUser.getId()));
             track.setModerated(false);
 
             if (artistId != null && artistId > 0) {
@@ -168,6 +172,7 @@ public class ArtistCabinetController {
 
             genreService.findById(genreId).ifPresent(track::setGenre);
 
+            Path uploadedFile = null;
             if (audioFile != null && !audioFile.isEmpty()) {
                 String userDir = System.getProperty("user.dir");
                 Path uploadDir = Paths.get(userDir, "uploads", "music");
@@ -187,6 +192,7 @@ public class ArtistCabinetController {
                 audioFile.transferTo(destFile.toFile());
 
                 track.setFilePath(filename);
+                uploadedFile = destFile;
 
                 int duration = audioMetadataService.getDurationInSeconds(destFile.toString());
                 if (duration > 0) {
@@ -199,6 +205,9 @@ public class ArtistCabinetController {
             }
 
             trackService.save(track);
+            if (uploadedFile != null) {
+                trackFileIndex.register(track.getId(), uploadedFile);
+            }
             redirectAttributes.addFlashAttribute("success",
                     "Трек успешно загружен и отправлен на модерацию! Длительность: " + track.getFormattedDuration());
 
@@ -214,7 +223,7 @@ public class ArtistCabinetController {
     public String myTracks(Model model, HttpServletRequest request,
                            @RequestParam(required = false) String status,
                            RedirectAttributes redirectAttributes) {
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
 
         if (currentUser == null || !currentUser.isMusician()) {
             redirectAttributes.addFlashAttribute("error", "Доступ запрещен");
@@ -223,48 +232,19 @@ public class ArtistCabinetController {
 
         List<com.musicstreaming.model.Track> allTracks = trackService.findByUploaderId(currentUser.getId());
 
+        // Статусы, комментарии и счетчики - из одного запроса последних модераций по трекам пользователя
+        TrackModerationSummary moderation = adminService.summarizeUploads(currentUser.getId(), allTracks);
+
         // Фильтрация по статусу
-        List<com.musicstreaming.model.Track> filteredTracks;
+        List<com.musicstreaming.model.Track> filteredTracks = allTracks;
         if (status != null && !status.isEmpty()) {
-            switch (status.toLowerCase()) {
-                case "approved":
-                    filteredTracks = allTracks.stream()
-                            .filter(t -> "approved".equals(getTrackStatus(t)))
-                            .collect(Collectors.toList());
-                    break;
-                case "rejected":
-                    filteredTracks = allTracks.stream()
-                            .filter(t -> "rejected".equals(getTrackStatus(t)))
-                            .collect(Collectors.toList());
-                    break;
-                case "pending":
-                    filteredTracks = allTracks.stream()
-                            .filter(t -> "pending".equals(getTrackStatus(t)))
-                            .collect(Collectors.toList());
-                    break;
-                default:
-                    filteredTracks = allTracks;
-                    break;
+            String wanted = status.toLowerCase();
+            if (TrackModerationSummary.APPROVED.equals(wanted) || TrackModerationSummary.REJECTED.equals(wanted)
+                    || TrackModerationSummary.PENDING.equals(wanted)) {
+                filteredTracks = allTracks.stream()
+                        .filter(t -> wanted.equals(moderation.getStatus(t.getId())))
+                        .collect(Collectors.toList());
             }
-        } else {
-            filteredTracks = allTracks;
-        }
-
-        // Собираем статусы и комментарии
-        Map<Integer, String> trackStatuses = new HashMap<>();
-        Map<Integer, String> moderationComments = new HashMap<>();
-
-        for (com.musicstreaming.model.Track track : filteredTracks) {
-            String trackStatus = getTrackStatus(track);
-            trackStatuses.put(track.getId(), trackStatus);
-
-            // Получаем комментарий из последней записи модерации
-            Optional<Moderation> moderationOpt = moderationRepository.findLatestByTrackId(track.getId());
-            moderationOpt.ifPresent(moderation -> {
-                if (moderation.getComment() != null && !moderation.getComment().isEmpty()) {
-                    moderationComments.put(track.getId(), moderation.getComment());
-                }
-            });
         }
 
         model.addAttribute("tracks", filteredTracks);
@@ -273,14 +253,16 @@ public class ArtistCabinetController {
         model.addAttribute("isAdmin", currentUser.isAdmin());
         model.addAttribute("isMusician", currentUser.isMusician());
         model.addAttribute("currentStatus", status);
-        model.addAttribute("trackStatuses", trackStatuses);
-        model.addAttribute("moderationComments", moderationComments);
+        model.addAttribute("trackStatuses", moderation.getStatuses());
+        model.addAttribute("moderationComments", moderation.getComments());
+        model.addAttribute("trackListeners", uniqueListeners.countEach(PlayRollup.Scope.Track,
+                allTracks.stream().map(com.musicstreaming.model.Track::getId).collect(Collectors.toList()), 30));
 
         // Статистика
         model.addAttribute("totalTracks", allTracks.size());
-        model.addAttribute("approvedCount", allTracks.stream().filter(t -> "approved".equals(getTrackStatus(t))).count());
-        model.addAttribute("pendingCount", allTracks.stream().filter(t -> "pending".equals(getTrackStatus(t))).count());
-        model.addAttribute("rejectedCount", allTracks.stream().filter(t -> "rejected".equals(getTrackStatus(t))).count());
+        model.addAttribute("approvedCount", moderation.getApprovedCount());
+        model.addAttribute("pendingCount", moderation.getPendingCount());
+        model.addAttribute("rejectedCount", moderation.getRejectedCount());
 
         return "artist/tracks";
     }
@@ -2,13 +2,13 @@ package com.musicstreaming.controller;
 
 import com.musicstreaming.dto.ArtistDTO;
 import com.musicstreaming.dto.HomeUserDTO;
+import com.musicstreaming.dto.SessionUser;
 import com.musicstreaming.model.Album;
 import com.musicstreaming.model.Track;
-import com.musicstreaming.model.User;
 import com.musicstreaming.service.AlbumService;
 import com.musicstreaming.service.ArtistService;
 import com.musicstreaming.service.AuthService;
-import com.musicstreaming.service.SubscriptionService;
+import com.musicstreaming.service.EntitlementService;
 import com.musicstreaming.service.TrackService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -37,7 +37,7 @@ public class ArtistPublicController {
     private AuthService authService;
 
     @Autowired
-    private SubscriptionService subscriptionService;
+    private EntitlementService entitlementService;
 
     @GetMapping("/{id}")
     public String viewArtist(@PathVariable Integer id, Model model, HttpServletRequest request) {
@@ -47,11 +47,11 @@ public class ArtistPublicController {
         }
 
         // Получаем текущего пользователя для авторизации
-        User sessionUser = authService.getCurrentUser(request);
+        SessionUser sessionUser = authService.getCurrentUser(request);
         HomeUserDTO currentUser = null;
 
         if (sessionUser != null) {
-            boolean hasActiveSubscription = subscriptionService.findActiveByUserId(sessionUser.getId()).isPresent();
+            boolean hasActiveSubscription = entitlementService.hasActiveSubscription(sessionUser.getId());
             currentUser = new HomeUserDTO(sessionUser, hasActiveSubscription);
         }
 
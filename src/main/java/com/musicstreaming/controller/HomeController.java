@@ -1,14 +1,15 @@
 package com.musicstreaming.controller;
 
 import com.musicstreaming.dto.HomeUserDTO;
+import com.musicstreaming.dto.SessionUser;
 import com.musicstreaming.model.Track;
 import com.musicstreaming.model.Album;
-import com.musicstreaming.model.User;
-import com.musicstreaming.repository.RecommendationRepository;
 import com.musicstreaming.service.AlbumService;
 import com.musicstreaming.service.AuthService;
 import com.musicstreaming.service.TrackService;
-import com.musicstreaming.service.SubscriptionService;
+import com.musicstreaming.service.TrendingIndex;
+import com.musicstreaming.service.EntitlementService;
+import com.musicstreaming.service.RecommendationCache;
 import com.musicstreaming.service.RecommendationService;
 import com.musicstreaming.dto.ArtistDTO;
 import com.musicstreaming.service.ArtistService;
@@ -33,34 +34,32 @@ public class HomeController {
     private final TrackService trackService;
     private final AlbumService albumService;
     private final AuthService authService;
-    private final SubscriptionService subscriptionService;
+    private final EntitlementService entitlementService;
     private final ArtistService artistService;
     private final RecommendationService recommendationService;
 
-    @Autowired
-    private RecommendationRepository recommendationRepository;
-
     @Autowired
     public HomeController(TrackService trackService, AlbumService albumService,
-                          AuthService authService, SubscriptionService subscriptionService,
+                          AuthService authService, EntitlementService entitlementService,
                           ArtistService artistService, RecommendationService recommendationService) {
         this.trackService = trackService;
         this.albumService = albumService;
         this.authService = authService;
-        this.subscriptionService = subscriptionService;
+        this.entitlementService = entitlementService;
         this.artistService = artistService;
         this.recommendationService = recommendationService;
     }
 
     @GetMapping("/")
-    public String index(Model model, HttpServletRequest request) {
+    public String index(@RequestParam(required = false) String trending,
+                        Model model, HttpServletRequest request) {
         logger.info("=== HOME PAGE ACCESSED ===");
 
-        User sessionUser = authService.getCurrentUser(request);
+        SessionUser sessionUser = authService.getCurrentUser(request);
         HomeUserDTO currentUser = null;
 
         if (sessionUser != null) {
-            boolean hasActiveSubscription = subscriptionService.findActiveByUserId(sessionUser.getId()).isPresent();
+            boolean hasActiveSubscription = entitlementService.hasActiveSubscription(sessionUser.getId());
             currentUser = new HomeUserDTO(sessionUser, hasActiveSubscription);
             logger.info("Current user: {}, id={}", sessionUser.getUsername(), sessionUser.getId());
         } else {
@@ -90,12 +89,10 @@ public class HomeController {
                 logger.info("=== Getting recommendations for user {} (id={}) ===",
                         sessionUser.getUsername(), sessionUser.getId());
 
-                long listenCount = recommendationRepository.countByUserId(sessionUser.getId());
-                logger.info("User {} has {} total listenings", sessionUser.getUsername(), listenCount);
-
-                recommendedTracks = recommendationService.getRecommendationsForHome(
-                        sessionUser.getId(), 10);
-                hasPersonalizedRecommendations = recommendationService.hasEnoughDataForPersonalized(sessionUser.getId());
+                RecommendationCache.Entry recommendations =
+                        recommendationService.getCachedRecommendations(sessionUser.getId());
+                recommendedTracks = recommendations.getTracks(10);
+                hasPersonalizedRecommendations = recommendations.isPersonalized();
 
                 logger.info("Got {} recommended tracks, hasPersonalizedRecommendations={}",
                         recommendedTracks.size(), hasPersonalizedRecommendations);
@@ -107,9 +104,11 @@ public class HomeController {
             model.addAttribute("recommendedTracks", recommendedTracks);
             model.addAttribute("hasPersonalizedRecommendations", hasPersonalizedRecommendations);
 
-            // Популярные треки
-            List<Track> popularTracks = trackService.findPopularTracks(10);
+            // Популярные треки - тренд выбранного периода из памяти
+            TrendingIndex.Period period = TrendingIndex.Period.parse(trending);
+            List<Track> popularTracks = trackService.findTrendingTracks(period, 10);
             model.addAttribute("popularTracks", popularTracks);
+            model.addAttribute("trendingPeriod", period.name().toLowerCase());
 
         } catch (Exception e) {
             logger.error("Error loading data", e);
@@ -126,11 +125,11 @@ public class HomeController {
     public String search(@RequestParam(required = false) String query,
                          Model model,
                          HttpServletRequest request) {
-        User sessionUser = authService.getCurrentUser(request);
+        SessionUser sessionUser = authService.getCurrentUser(request);
         HomeUserDTO currentUser = null;
 
         if (sessionUser != null) {
-            boolean hasActiveSubscription = subscriptionService.findActiveByUserId(sessionUser.getId()).isPresent();
+            boolean hasActiveSubscription = entitlementService.hasActiveSubscription(sessionUser.getId());
             currentUser = new HomeUserDTO(sessionUser, hasActiveSubscription);
         }
 
@@ -167,9 +166,10 @@ public class HomeController {
                 boolean hasPersonalizedRecommendations = false;
 
                 if (sessionUser != null) {
-                    recommendedTracks = recommendationService.getRecommendationsForSearch(
-                            sessionUser.getId(), 10);
-                    hasPersonalizedRecommendations = recommendationService.hasEnoughDataForPersonalized(sessionUser.getId());
+                    RecommendationCache.Entry recommendations =
+                            recommendationService.getCachedRecommendations(sessionUser.getId());
+                    recommendedTracks = recommendations.getTracks(10);
+                    hasPersonalizedRecommendations = recommendations.isPersonalized();
                 } else {
                     recommendedTracks = recommendationService.getPopularTracksForPeriod(10);
                 }
@@ -1,10 +1,11 @@
 package com.musicstreaming.controller;
 
 import com.musicstreaming.dto.PlaylistDTO;
+import com.musicstreaming.dto.SessionUser;
 import com.musicstreaming.model.User;
 import com.musicstreaming.service.AuthService;
+import com.musicstreaming.service.EntitlementService;
 import com.musicstreaming.service.PlaylistService;
-import com.musicstreaming.service.SubscriptionService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -26,14 +27,14 @@ public class PlaylistApiController {
     private AuthService authService;
 
     @Autowired
-    private SubscriptionService subscriptionService;
+    private EntitlementService entitlementService;
 
     // Проверить, может ли пользователь создавать/редактировать плейлисты
     @GetMapping("/can-create")
     public ResponseEntity<Map<String, Object>> canCreatePlaylist(HttpServletRequest request) {
         Map<String, Object> response = new HashMap<>();
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         if (currentUser == null) {
             response.put("success", false);
             response.put("canCreate", false);
@@ -58,7 +59,7 @@ public class PlaylistApiController {
     public ResponseEntity<Map<String, Object>> getMyPlaylists(HttpServletRequest request) {
         Map<String, Object> response = new HashMap<>();
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         if (currentUser == null) {
             response.put("success", false);
             response.put("error", "Необходимо войти в систему");
@@ -98,7 +99,7 @@ public class PlaylistApiController {
 
         Map<String, Object> response = new HashMap<>();
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         if (currentUser == null) {
             response.put("success", false);
             response.put("error", "Необходимо войти в систему");
@@ -135,7 +136,7 @@ public class PlaylistApiController {
 
         Map<String, Object> response = new HashMap<>();
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         if (currentUser == null) {
             response.put("success", false);
             response.put("needAuth", true);
@@ -157,7 +158,7 @@ public class PlaylistApiController {
     }
 
     // Проверяет, может ли пользователь управлять плейлистами
-    private boolean canUserManagePlaylists(User user) {
+    private boolean canUserManagePlaylists(SessionUser user) {
         if (user == null) return false;
 
         // Администраторы и музыканты могут управлять плейлистами
@@ -172,6 +173,6 @@ public class PlaylistApiController {
         }
 
         // Проверяем наличие активной подписки
-        return subscriptionService.findActiveByUserId(user.getId()).isPresent();
+        return entitlementService.hasActiveSubscription(user.getId());
     }
 }
\ No newline at end of file
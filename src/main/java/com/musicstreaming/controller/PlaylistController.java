@@ -1,13 +1,14 @@
 package com.musicstreaming.controller;
 
 import com.musicstreaming.dto.PlaylistDTO;
+import com.musicstreaming.dto.SessionUser;
 import com.musicstreaming.model.Playlist;
 import com.musicstreaming.model.Track;
-import com.musicstreaming.model.User;
 import com.musicstreaming.service.AuthService;
+import com.musicstreaming.service.EntitlementService;
 import com.musicstreaming.service.PlaylistService;
-import com.musicstreaming.service.SubscriptionService;
 import com.musicstreaming.service.TrackService;
+import com.musicstreaming.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -31,12 +32,15 @@ public class PlaylistController {
     private AuthService authService;
 
     @Autowired
-    private SubscriptionService subscriptionService;
+    private UserService userService;
+
+    @Autowired
+    private EntitlementService entitlementService;
 
     // вывести все
     @GetMapping
     public String listPlaylists(Model model, HttpServletRequest request) {
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
 
         if (currentUser == null) {
             return "redirect:/account/login?redirect=/playlists";
@@ -57,7 +61,7 @@ public class PlaylistController {
     @GetMapping("/create")
     public String createForm(Model model, HttpServletRequest request,
                              RedirectAttributes redirectAttributes) {
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         if (currentUser == null) {
             return "redirect:/account/login?redirect=/playlists/create";
         }
@@ -78,7 +82,7 @@ public class PlaylistController {
     public String savePlaylist(@ModelAttribute Playlist playlist,
                                HttpServletRequest request,
                                RedirectAttributes redirectAttributes) {
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         if (currentUser == null) {
             return "redirect:/account/login";
         }
@@ -90,7 +94,7 @@ public class PlaylistController {
             return "redirect:/playlists";
         }
 
-        playlist.setUser(currentUser);
+        playlist.setUser(userService.getReference(currentUser.getId()));
         Playlist saved = playlistService.save(playlist);
 
         redirectAttributes.addFlashAttribute("success", "Плейлист создан успешно!");
@@ -102,7 +106,7 @@ public class PlaylistController {
     public String viewPlaylist(@PathVariable Integer id, Model model,
                                HttpServletRequest request,
                                RedirectAttributes redirectAttributes) {
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
 
         // Получаем DTO с полностью загруженными данными
         PlaylistDTO playlistDTO = playlistService.findDTOById(id)
@@ -139,7 +143,7 @@ public class PlaylistController {
                                      @RequestParam Integer trackId,
                                      HttpServletRequest request,
                                      RedirectAttributes redirectAttributes) {
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         if (currentUser == null) {
             return "redirect:/account/login";
         }
@@ -167,7 +171,7 @@ public class PlaylistController {
                                           @RequestParam Integer trackId,
                                           HttpServletRequest request,
                                           RedirectAttributes redirectAttributes) {
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         if (currentUser == null) {
             return "redirect:/account/login";
         }
@@ -194,7 +198,7 @@ public class PlaylistController {
     public String editForm(@PathVariable Integer id, Model model,
                            HttpServletRequest request,
                            RedirectAttributes redirectAttributes) {
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         if (currentUser == null) {
             return "redirect:/account/login";
         }
@@ -217,7 +221,7 @@ public class PlaylistController {
     public String deletePlaylist(@PathVariable Integer id,
                                  HttpServletRequest request,
                                  RedirectAttributes redirectAttributes) {
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
         if (currentUser == null) {
             return "redirect:/account/login";
         }
@@ -236,7 +240,7 @@ public class PlaylistController {
     }
 
     // Проверяет, может ли пользователь создавать плейлисты
-    private boolean canCreatePlaylist(User user) {
+    private boolean canCreatePlaylist(SessionUser user) {
         if (user == null) return false;
 
         // Администраторы и музыканты могут создавать плейлисты
@@ -246,6 +250,6 @@ public class PlaylistController {
         if (user.isSubscriber()) return true;
 
         // Проверяем наличие активной подписки
-        return subscriptionService.findActiveByUserId(user.getId()).isPresent();
+        return entitlementService.hasActiveSubscription(user.getId());
     }
 }
\ No newline at end of file
@@ -0,0 +1,43 @@
+package com.musicstreaming.controller;
+
+import com.musicstreaming.service.AutocompleteService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/search")
+public class SearchApiController {
+
+    @Autowired
+    private AutocompleteService autocompleteService;
+
+    // Подсказки при вводе: треки, исполнители и альбомы, чье название или слово в нем начинается с q
+    @GetMapping("/autocomplete")
+    public ResponseEntity<Map<String, Object>> autocomplete(@RequestParam(defaultValue = "") String q,
+                                                            @RequestParam(defaultValue = "8") int limit) {
+        List<Map<String, Object>> suggestions = new ArrayList<>();
+        for (AutocompleteService.Suggestion suggestion : autocompleteService.suggest(q, limit)) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("type", suggestion.getType());
+            item.put("id", suggestion.getId());
+            item.put("title", suggestion.getTitle());
+            item.put("subtitle", suggestion.getSubtitle());
+            suggestions.add(item);
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("query", q);
+        response.put("suggestions", suggestions);
+        return ResponseEntity.ok(response);
+    }
+}
@@ -1,8 +1,10 @@
 package com.musicstreaming.controller;
 
+import com.musicstreaming.dto.SessionUser;
 import com.musicstreaming.dto.SubscriptionUserDTO;
 import com.musicstreaming.model.User;
 import com.musicstreaming.service.AuthService;
+import com.musicstreaming.service.EntitlementService;
 import com.musicstreaming.service.SubscriptionService;
 import com.musicstreaming.service.UserService;
 import org.slf4j.Logger;
@@ -26,25 +28,28 @@ public class SubscriptionController {
     private static final Logger logger = LoggerFactory.getLogger(SubscriptionController.class);
 
     private final SubscriptionService subscriptionService;
+    private final EntitlementService entitlementService;
     private final AuthService authService;
     private final UserService userService;
 
     @Autowired
     public SubscriptionController(SubscriptionService subscriptionService,
+                                  EntitlementService entitlementService,
                                   AuthService authService,
                                   UserService userService) {
         this.subscriptionService = subscriptionService;
+        this.entitlementService = entitlementService;
         this.authService = authService;
         this.userService = userService;
     }
 
     @GetMapping("/plans")
     public String plans(Model model, HttpServletRequest request) {
-        User sessionUser = authService.getCurrentUser(request);
+        SessionUser sessionUser = authService.getCurrentUser(request);
         SubscriptionUserDTO currentUser = null;
 
         if (sessionUser != null) {
-            boolean hasActiveSubscription = subscriptionService.findActiveByUserId(sessionUser.getId()).isPresent();
+            boolean hasActiveSubscription = entitlementService.hasActiveSubscription(sessionUser.getId());
             currentUser = new SubscriptionUserDTO(sessionUser, hasActiveSubscription);
         }
 
@@ -68,8 +73,8 @@ public class SubscriptionController {
             return "redirect:/account/login";
         }
 
-        User sessionUser = authService.getCurrentUser(request);
-        boolean hasActiveSubscription = subscriptionService.findActiveByUserId(sessionUser.getId()).isPresent();
+        SessionUser sessionUser = authService.getCurrentUser(request);
+        boolean hasActiveSubscription = entitlementService.hasActiveSubscription(sessionUser.getId());
         SubscriptionUserDTO currentUser = new SubscriptionUserDTO(sessionUser, hasActiveSubscription);
 
         model.addAttribute("currentUser", currentUser);
@@ -116,7 +121,7 @@ public class SubscriptionController {
             return "redirect:/account/login";
         }
 
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
 
         try {
             // Определяем сумму в зависимости от плана
@@ -160,11 +165,11 @@ public class SubscriptionController {
 
     @GetMapping("/success")
     public String success(Model model, HttpServletRequest request) {
-        User sessionUser = authService.getCurrentUser(request);
+        SessionUser sessionUser = authService.getCurrentUser(request);
         SubscriptionUserDTO currentUser = null;
 
         if (sessionUser != null) {
-            boolean hasActiveSubscription = subscriptionService.findActiveByUserId(sessionUser.getId()).isPresent();
+            boolean hasActiveSubscription = entitlementService.hasActiveSubscription(sessionUser.getId());
             currentUser = new SubscriptionUserDTO(sessionUser, hasActiveSubscription);
         }
 
@@ -182,8 +187,8 @@ public class SubscriptionController {
             return "redirect:/account/login";
         }
 
-        User sessionUser = authService.getCurrentUser(request);
-        boolean hasActiveSubscription = subscriptionService.findActiveByUserId(sessionUser.getId()).isPresent();
+        SessionUser sessionUser = authService.getCurrentUser(request);
+        boolean hasActiveSubscription = entitlementService.hasActiveSubscription(sessionUser.getId());
         SubscriptionUserDTO currentUser = new SubscriptionUserDTO(sessionUser, hasActiveSubscription);
 
         model.addAttribute("currentUser", currentUser);
@@ -10,14 +10,22 @@ public class AdminUserDTO {
     private User.UserRole role;
     private LocalDateTime dateOfCreated;
     private int playlistCount;
+    private int uploadedTrackCount;
+    private boolean activeSubscription;
 
     public AdminUserDTO(User user, int playlistCount) {
+        this(user, playlistCount, 0, false);
+    }
+
+    public AdminUserDTO(User user, int playlistCount, int uploadedTrackCount, boolean activeSubscription) {
         this.id = user.getId();
         this.username = user.getUsername();
         this.email = user.getEmail();
         this.role = user.getRole();
         this.dateOfCreated = user.getDateOfCreated();
         this.playlistCount = playlistCount;
+        this.uploadedTrackCount = uploadedTrackCount;
+        this.activeSubscription = activeSubscription;
     }
 
     // Getters
@@ -27,6 +35,8 @@ public class AdminUserDTO {
     public User.UserRole getRole() { return role; }
     public LocalDateTime getDateOfCreated() { return dateOfCreated; }
     public int getPlaylistCount() { return playlistCount; }
+    public int getUploadedTrackCount() { return uploadedTrackCount; }
+    public boolean hasActiveSubscription() { return activeSubscription; }
 
     public boolean isAdmin() { return role == User.UserRole.Admin; }
     public boolean isMusician() { return role == User.UserRole.Musician; }
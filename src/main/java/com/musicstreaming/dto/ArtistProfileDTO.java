@@ -17,6 +17,8 @@ public class ArtistProfileDTO {
     private List<Album> albums;
     private long totalPlays;
     private long monthlyPlays;
+    private long weeklyListeners;
+    private long monthlyListeners;
     private long newListeners;
     private long playlistAdds;
     private List<Track> popularTracks;
@@ -54,6 +56,12 @@ public class ArtistProfileDTO {
     public long getMonthlyPlays() { return monthlyPlays; }
     public void setMonthlyPlays(long monthlyPlays) { this.monthlyPlays = monthlyPlays; }
 
+    public long getWeeklyListeners() { return weeklyListeners; }
+    public void setWeeklyListeners(long weeklyListeners) { this.weeklyListeners = weeklyListeners; }
+
+    public long getMonthlyListeners() { return monthlyListeners; }
+    public void setMonthlyListeners(long monthlyListeners) { this.monthlyListeners = monthlyListeners; }
+
     public long getNewListeners() { return newListeners; }
     public void setNewListeners(long newListeners) { this.newListeners = newListeners; }
 
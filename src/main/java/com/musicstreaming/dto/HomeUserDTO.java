@@ -20,6 +20,14 @@ public class HomeUserDTO {
         this.hasActiveSubscription = hasActiveSubscription;
     }
 
+    // Из пользователя в сессии: email и дата регистрации там не хранятся
+    public HomeUserDTO(SessionUser user, boolean hasActiveSubscription) {
+        this.id = user.getId();
+        this.username = user.getUsername();
+        this.role = user.getRole();
+        this.hasActiveSubscription = hasActiveSubscription;
+    }
+
     // Getters
     public Integer getId() { return id; }
     public String getUsername() { return username; }
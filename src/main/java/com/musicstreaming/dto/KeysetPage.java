@@ -0,0 +1,37 @@
+package com.musicstreaming.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+// Страница keyset-пагинации: элементы и курсор следующей страницы (null - страница последняя)
+public class KeysetPage<T> {
+
+    public static final int DEFAULT_SIZE = 50;
+    public static final int MAX_SIZE = 200;
+
+    private final List<T> items;
+    private final String nextCursor;
+
+    public KeysetPage(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    // fetched - результат запроса с лимитом size + 1: лишняя строка говорит, что есть следующая страница
+    public static <T> KeysetPage<T> of(List<T> fetched, int size, Function<T, String> cursorOf) {
+        if (fetched.size() <= size) {
+            return new KeysetPage<>(fetched, null);
+        }
+        List<T> items = new ArrayList<>(fetched.subList(0, size));
+        return new KeysetPage<>(items, cursorOf.apply(items.get(size - 1)));
+    }
+
+    public static int clampSize(Integer size) {
+        return size == null ? DEFAULT_SIZE : Math.max(1, Math.min(size, MAX_SIZE));
+    }
+
+    public List<T> getItems() { return items; }
+    public String getNextCursor() { return nextCursor; }
+    public boolean isHasNext() { return nextCursor != null; }
+}
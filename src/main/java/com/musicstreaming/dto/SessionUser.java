@@ -0,0 +1,153 @@
+package com.musicstreaming.dto;
+
+import com.musicstreaming.model.User;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Пользователь в сессии: id, имя, роль и версия прав на момент входа. Неизменяемый и без ссылок
+ * на JPA-сущности, поэтому сессия весит десятки байт, а не граф User с ленивыми коллекциями.
+ * Сериализуется в компактный бинарный вид (toBytes): формат, id, версия прав, роль, имя в UTF-8.
+ * Стандартная Java-сериализация для репликации и хранения сессий идет через тот же формат.
+ */
+public final class SessionUser implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final byte FORMAT = 1;
+    // Формат, id, версия прав, роль, длина имени
+    private static final int HEADER_BYTES = 1 + Integer.BYTES + Long.BYTES + 1 + Short.BYTES;
+    private static final User.UserRole[] ROLES = User.UserRole.values();
+
+    private final int id;
+    private final String username;
+    private final User.UserRole role;
+    private final long entitlementVersion;
+
+    public SessionUser(int id, String username, User.UserRole role, long entitlementVersion) {
+        if (username == null || role == null) {
+            throw new IllegalArgumentException("username and role are required");
+        }
+        this.id = id;
+        this.username = username;
+        this.role = role;
+        this.entitlementVersion = entitlementVersion;
+    }
+
+    public static SessionUser of(User user, long entitlementVersion) {
+        return new SessionUser(user.getId(), user.getUsername(), user.getRole(), entitlementVersion);
+    }
+
+    public Integer getId() { return id; }
+    public String getUsername() { return username; }
+    public User.UserRole getRole() { return role; }
+    public long getEntitlementVersion() { return entitlementVersion; }
+
+    public boolean isAdmin() { return role == User.UserRole.Admin; }
+    public boolean isMusician() { return role == User.UserRole.Musician; }
+    // Наличие подписки у роли User проверяется по EntitlementService, здесь только роль
+    public boolean isSubscriber() { return role == User.UserRole.Subscriber || role == User.UserRole.Admin; }
+    public boolean canUploadTracks() { return role == User.UserRole.Admin || role == User.UserRole.Musician; }
+
+    public byte[] toBytes() {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(HEADER_BYTES + name.length)
+                .put(FORMAT)
+                .putInt(id)
+                .putLong(entitlementVersion)
+                .put((byte) role.ordinal())
+                .putShort((short) name.length)
+                .put(name)
+                .array();
+    }
+
+    public static SessionUser fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length < HEADER_BYTES || bytes[0] != FORMAT) {
+            throw new IllegalArgumentException("Unsupported session user format");
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+            int id = buffer.getInt();
+            long entitlementVersion = buffer.getLong();
+            int role = buffer.get();
+            int length = buffer.getShort() & 0xFFFF;
+            if (role < 0 || role >= ROLES.length || length != buffer.remaining()) {
+                throw new IllegalArgumentException("Corrupted session user");
+            }
+            String username = new String(bytes, buffer.position(), length, StandardCharsets.UTF_8);
+            return new SessionUser(id, username, ROLES[role], entitlementVersion);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated session user", e);
+        }
+    }
+
+    // Вместо описания полей в поток пишутся байты toBytes
+    private Object writeReplace() {
+        return new Serialized(toBytes());
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("SessionUser is serialized through its binary form");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SessionUser)) return false;
+        SessionUser other = (SessionUser) o;
+        return id == other.id && entitlementVersion == other.entitlementVersion
+                && role == other.role && username.equals(other.username);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * id + Long.hashCode(entitlementVersion);
+    }
+
+    @Override
+    public String toString() {
+        return username + " (id=" + id + ", " + role + ")";
+    }
+
+    private static final class Serialized implements Externalizable {
+        private static final long serialVersionUID = 1L;
+
+        private byte[] bytes;
+
+        public Serialized() {
+        }
+
+        Serialized(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            bytes = new byte[in.readUnsignedShort()];
+            in.readFully(bytes);
+        }
+
+        private Object readResolve() throws InvalidObjectException {
+            try {
+                return fromBytes(bytes);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidObjectException(e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.musicstreaming.dto;
+
+import com.musicstreaming.model.Moderation;
+import com.musicstreaming.model.Track;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Статусы модерации набора треков (approved / pending / rejected), комментарии последней проверки
+// и счетчики по статусам - собираются за один проход по результату одного запроса
+public class TrackModerationSummary {
+
+    public static final String APPROVED = "approved";
+    public static final String PENDING = "pending";
+    public static final String REJECTED = "rejected";
+
+    private final Map<Integer, String> statuses = new HashMap<>();
+    private final Map<Integer, String> comments = new HashMap<>();
+    private long approvedCount;
+    private long pendingCount;
+    private long rejectedCount;
+
+    // latestStatus и comment - из последней записи модерации трека, null если записей нет
+    public void add(Track track, Moderation.ModerationStatus latestStatus, String comment) {
+        String status;
+        if (track.isModerated()) {
+            status = APPROVED;
+            approvedCount++;
+        } else if (latestStatus == Moderation.ModerationStatus.Rejected) {
+            status = REJECTED;
+            rejectedCount++;
+        } else {
+            status = PENDING;
+            pendingCount++;
+        }
+        statuses.put(track.getId(), status);
+        if (comment != null && !comment.isEmpty()) {
+            comments.put(track.getId(), comment);
+        }
+    }
+
+    public String getStatus(Integer trackId) {
+        return statuses.getOrDefault(trackId, PENDING);
+    }
+
+    public Map<Integer, String> getStatuses() { return statuses; }
+    public Map<Integer, String> getComments() { return comments; }
+    public long getApprovedCount() { return approvedCount; }
+    public long getPendingCount() { return pendingCount; }
+    public long getRejectedCount() { return rejectedCount; }
+}
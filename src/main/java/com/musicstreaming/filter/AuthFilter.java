@@ -1,6 +1,6 @@
 package com.musicstreaming.filter;
 
-import com.musicstreaming.model.User;
+import com.musicstreaming.dto.SessionUser;
 import com.musicstreaming.service.AuthService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -35,6 +35,9 @@ public class AuthFilter extends OncePerRequestFilter {
 
         String path = request.getRequestURI();
 
+        // В режиме token - проверка подписанного токена, в режиме session ничего не делает
+        authService.authenticate(request, response);
+
         // Разрешить публичные пути
         if (isPublicPath(path)) {
             filterChain.doFilter(request, response);
@@ -42,7 +45,7 @@ public class AuthFilter extends OncePerRequestFilter {
         }
 
         // Чек аутентификацию
-        User currentUser = authService.getCurrentUser(request);
+        SessionUser currentUser = authService.getCurrentUser(request);
 
         if (currentUser == null) {
             response.sendRedirect("/account/login");
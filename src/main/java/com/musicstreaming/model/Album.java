@@ -1,5 +1,8 @@
 package com.musicstreaming.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
@@ -8,7 +11,10 @@ import java.util.List;
 import org.springframework.format.annotation.DateTimeFormat;
 
 @Entity
-@Table(name = "Albums")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "catalog.album")
+@Table(name = "Albums",
+       indexes = @Index(name = "IX_Albums_Title", columnList = "Title"))
 public class Album {
 
     @Id
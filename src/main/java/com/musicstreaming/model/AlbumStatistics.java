@@ -4,7 +4,8 @@ import javax.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "AlbumStatistics")
+@Table(name = "AlbumStatistics",
+       indexes = @Index(name = "IX_AlbumStatistics_AlbumId_Date", columnList = "AlbumId, Date"))
 public class AlbumStatistics {
 
     @Id
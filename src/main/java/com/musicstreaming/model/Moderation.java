@@ -4,7 +4,11 @@ import javax.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "Moderations")
+@Table(name = "Moderations",
+       indexes = {
+           @Index(name = "IX_Moderations_ModerationDate", columnList = "ModerationDate"),
+           @Index(name = "IX_Moderations_TrackId_ModerationDate", columnList = "TrackId, ModerationDate")
+       })
 public class Moderation {
 
     @Id
@@ -0,0 +1,86 @@
+package com.musicstreaming.model;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+// Предагрегированные прослушивания: по треку, альбому или исполнителю за час, день или месяц
+@Entity
+@Table(name = "PlayRollups",
+       uniqueConstraints = @UniqueConstraint(name = "UX_PlayRollups_Bucket",
+               columnNames = {"Scope", "EntityId", "Granularity", "BucketStart"}),
+       indexes = @Index(name = "IX_PlayRollups_Granularity_BucketStart", columnList = "Granularity, BucketStart"))
+public class PlayRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "Id")
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "Scope", nullable = false, length = 10)
+    private Scope scope;
+
+    // Id трека, альбома или исполнителя; без внешнего ключа - история переживает удаление из каталога
+    @Column(name = "EntityId", nullable = false)
+    private Integer entityId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "Granularity", nullable = false, length = 10)
+    private Granularity granularity;
+
+    @Column(name = "BucketStart", nullable = false)
+    private LocalDateTime bucketStart;
+
+    @Column(name = "Plays", nullable = false)
+    private long plays;
+
+    @Column(name = "PlaylistAdds", nullable = false)
+    private long playlistAdds;
+
+    // HyperLogLog уникальных слушателей: в дневных строках всех уровней и в месячных строках
+    // альбома и исполнителя; малые скетчи хранятся в разреженном виде
+    @Column(name = "Listeners", length = 2048)
+    private byte[] listeners;
+
+    public enum Scope {
+        Track, Album, Artist
+    }
+
+    public enum Granularity {
+        Hour, Day, Month
+    }
+
+    public PlayRollup() {}
+
+    public PlayRollup(Scope scope, Integer entityId, Granularity granularity, LocalDateTime bucketStart) {
+        this.scope = scope;
+        this.entityId = entityId;
+        this.granularity = granularity;
+        this.bucketStart = bucketStart;
+    }
+
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Scope getScope() { return scope; }
+    public void setScope(Scope scope) { this.scope = scope; }
+
+    public Integer getEntityId() { return entityId; }
+    public void setEntityId(Integer entityId) { this.entityId = entityId; }
+
+    public Granularity getGranularity() { return granularity; }
+    public void setGranularity(Granularity granularity) { this.granularity = granularity; }
+
+    public LocalDateTime getBucketStart() { return bucketStart; }
+    public void setBucketStart(LocalDateTime bucketStart) { this.bucketStart = bucketStart; }
+
+    public long getPlays() { return plays; }
+    public void setPlays(long plays) { this.plays = plays; }
+
+    public long getPlaylistAdds() { return playlistAdds; }
+    public void setPlaylistAdds(long playlistAdds) { this.playlistAdds = playlistAdds; }
+
+    public byte[] getListeners() { return listeners; }
+    public void setListeners(byte[] listeners) { this.listeners = listeners; }
+}
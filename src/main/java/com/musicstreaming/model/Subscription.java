@@ -5,7 +5,8 @@ import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "Subscriptions")
+@Table(name = "Subscriptions",
+       indexes = @Index(name = "IX_Subscriptions_IsActivated_EndDate", columnList = "IsActivated, EndDate"))
 public class Subscription {
 
     @Id
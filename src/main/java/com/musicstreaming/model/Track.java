@@ -1,11 +1,17 @@
 package com.musicstreaming.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "Tracks")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "catalog.track")
+@Table(name = "Tracks",
+       indexes = @Index(name = "IX_Tracks_IsModerated", columnList = "IsModerated"))
 public class Track {
 
     @Id
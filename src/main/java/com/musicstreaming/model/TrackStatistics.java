@@ -4,7 +4,8 @@ import javax.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "TrackStatistics")
+@Table(name = "TrackStatistics",
+       indexes = @Index(name = "IX_TrackStatistics_TrackId_Date", columnList = "TrackId, Date"))
 public class TrackStatistics {
 
     @Id
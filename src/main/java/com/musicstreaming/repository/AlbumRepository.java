@@ -1,14 +1,18 @@
 package com.musicstreaming.repository;
 
+import com.musicstreaming.dto.KeysetPage;
 import com.musicstreaming.model.Album;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.QueryHint;
 import javax.persistence.criteria.*;
 import java.util.ArrayList;
 import java.util.List;
@@ -21,6 +25,8 @@ public interface AlbumRepository extends JpaRepository<Album, Integer>, AlbumRep
     List<Album> findByArtistIdOrderByReleaseDateDesc(Integer artistId);
 
     @EntityGraph(attributePaths = {"artist"})
+    @QueryHints({@QueryHint(name = "org.hibernate.cacheable", value = "true"),
+            @QueryHint(name = "org.hibernate.cacheRegion", value = "catalog.queries")})
     @Query("SELECT a FROM Album a ORDER BY a.releaseDate DESC NULLS LAST, a.title")
     List<Album> findAllOrdered();
 
@@ -31,10 +37,26 @@ public interface AlbumRepository extends JpaRepository<Album, Integer>, AlbumRep
     @EntityGraph(attributePaths = {"artist"})
     @Override
     Optional<Album> findById(Integer id);
+
+    @EntityGraph(attributePaths = {"artist"})
+    @Query("SELECT a FROM Album a WHERE a.id IN :ids ORDER BY a.releaseDate DESC, a.title")
+    List<Album> findWithArtistByIdIn(@Param("ids") List<Integer> ids);
+
+    // Проекции для поискового индекса: id, название, имя исполнителя
+    @Query("SELECT al.id, al.title, ar.name FROM Album al LEFT JOIN al.artist ar")
+    List<Object[]> findSearchableAlbums();
+
+    @Query("SELECT al.id, al.title, ar.name FROM Album al LEFT JOIN al.artist ar WHERE al.id = :id")
+    List<Object[]> findSearchableAlbumById(@Param("id") Integer id);
+
+    @Query("SELECT al.id, al.title, ar.name FROM Album al JOIN al.artist ar WHERE ar.id = :artistId")
+    List<Object[]> findSearchableAlbumsByArtistId(@Param("artistId") Integer artistId);
 }
 
 interface AlbumRepositoryCustom {
     List<Album> searchByCriteria(String query);
+
+    KeysetPage<Album> findPage(String cursor, int size, Integer artistId);
 }
 
 @Repository
@@ -76,4 +98,30 @@ class AlbumRepositoryImpl implements AlbumRepositoryCustom {
 
         return entityManager.createQuery(cq).getResultList();
     }
-}
\ No newline at end of file
+
+    // По названию, при равных названиях - по id: ключ (title, id) однозначно задает позицию
+    @Override
+    public KeysetPage<Album> findPage(String cursor, int size, Integer artistId) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Album> cq = cb.createQuery(Album.class);
+        Root<Album> album = cq.from(Album.class);
+        album.fetch("artist", JoinType.LEFT);
+
+        List<Predicate> predicates = new ArrayList<>();
+        Object[] after = KeysetCursor.decode(cursor, 2, values -> new Object[]{values[0], Integer.valueOf(values[1])});
+        if (after != null) {
+            String afterTitle = (String) after[0];
+            predicates.add(cb.or(cb.greaterThan(album.get("title"), afterTitle),
+                    cb.and(cb.equal(album.get("title"), afterTitle),
+                            cb.greaterThan(album.get("id"), (Integer) after[1]))));
+        }
+        if (artistId != null) {
+            predicates.add(cb.equal(album.get("artist").get("id"), artistId));
+        }
+        cq.where(predicates.toArray(new Predicate[0]));
+        cq.orderBy(cb.asc(album.get("title")), cb.asc(album.get("id")));
+
+        List<Album> rows = entityManager.createQuery(cq).setMaxResults(size + 1).getResultList();
+        return KeysetPage.of(rows, size, a -> KeysetCursor.encode(a.getTitle(), a.getId()));
+    }
+}
@@ -4,9 +4,11 @@ import com.musicstreaming.dto.ArtistDTO;
 import com.musicstreaming.model.Artist;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
 import java.util.List;
 import java.util.Optional;
 
@@ -18,6 +20,8 @@ public interface ArtistRepository extends JpaRepository<Artist, Integer> {
     @Query("SELECT a FROM Artist a WHERE LOWER(a.name) LIKE LOWER(CONCAT('%', :query, '%')) OR LOWER(a.description) LIKE LOWER(CONCAT('%', :query, '%'))")
     List<Artist> search(@Param("query") String query);
 
+    @QueryHints({@QueryHint(name = "org.hibernate.cacheable", value = "true"),
+            @QueryHint(name = "org.hibernate.cacheRegion", value = "catalog.queries")})
     @Query("SELECT a FROM Artist a ORDER BY a.name")
     List<Artist> findAllOrdered();
 
@@ -38,4 +42,19 @@ public interface ArtistRepository extends JpaRepository<Artist, Integer> {
             "OR LOWER(a.description) LIKE LOWER(CONCAT('%', :query, '%')) " +
             "ORDER BY a.name")
     List<ArtistDTO> searchArtistDTOs(@Param("query") String query);
+
+    @Query("SELECT new com.musicstreaming.dto.ArtistDTO(" +
+            "a.id, a.name, a.description, " +
+            "SIZE(a.albums), SIZE(a.tracks), a.photoPath) " +
+            "FROM Artist a " +
+            "WHERE a.id IN :ids " +
+            "ORDER BY a.name")
+    List<ArtistDTO> findArtistDTOsByIdIn(@Param("ids") List<Integer> ids);
+
+    // Проекции для поискового индекса: id, имя, описание
+    @Query("SELECT a.id, a.name, a.description FROM Artist a")
+    List<Object[]> findSearchableArtists();
+
+    @Query("SELECT a.id, a.name, a.description FROM Artist a WHERE a.id = :id")
+    List<Object[]> findSearchableArtistById(@Param("id") Integer id);
 }
\ No newline at end of file
@@ -3,9 +3,11 @@ package com.musicstreaming.repository;
 import com.musicstreaming.model.Genre;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
 import java.util.List;
 import java.util.Optional;
 
@@ -16,10 +18,14 @@ public interface GenreRepository extends JpaRepository<Genre, Integer> {
 
     boolean existsByName(String name);
 
+    @QueryHints({@QueryHint(name = "org.hibernate.cacheable", value = "true"),
+            @QueryHint(name = "org.hibernate.cacheRegion", value = "catalog.queries")})
     @Query("SELECT g FROM Genre g ORDER BY g.name")
     List<Genre> findAllOrdered();
 
     // Метод для загрузки жанров с количеством треков без инициализации всей коллекции
+    @QueryHints({@QueryHint(name = "org.hibernate.cacheable", value = "true"),
+            @QueryHint(name = "org.hibernate.cacheRegion", value = "catalog.queries")})
     @Query("SELECT g.id as id, g.name as name, COUNT(t.id) as trackCount " +
             "FROM Genre g LEFT JOIN g.tracks t " +
             "GROUP BY g.id, g.name " +
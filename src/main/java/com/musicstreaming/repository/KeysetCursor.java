@@ -0,0 +1,44 @@
+package com.musicstreaming.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.util.Base64;
+import java.util.function.Function;
+
+/**
+ * Курсор keyset-пагинации: значения ключа сортировки последней строки страницы,
+ * закодированные в непрозрачную для клиента строку (base64url).
+ */
+final class KeysetCursor {
+
+    private static final String SEPARATOR = "\u0000";
+
+    private KeysetCursor() {
+    }
+
+    static String encode(Object... values) {
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                joined.append(SEPARATOR);
+            }
+            joined.append(values[i]);
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(joined.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Испорченный или чужой курсор - начинаем с первой страницы (null)
+    static <T> T decode(String cursor, int parts, Function<String[], T> parser) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String joined = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] values = joined.split(SEPARATOR, -1);
+            return values.length == parts ? parser.apply(values) : null;
+        } catch (IllegalArgumentException | DateTimeException e) {
+            return null;
+        }
+    }
+}
@@ -1,19 +1,24 @@
 package com.musicstreaming.repository;
 
+import com.musicstreaming.dto.KeysetPage;
 import com.musicstreaming.model.Moderation;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface ModerationRepository extends JpaRepository<Moderation, Integer> {
+public interface ModerationRepository extends JpaRepository<Moderation, Integer>, ModerationRepositoryCustom {
 
     @Query("SELECT m FROM Moderation m WHERE m.track.id = :trackId ORDER BY m.moderationDate DESC")
     List<Moderation> findByTrackId(@Param("trackId") Integer trackId);
@@ -24,6 +29,21 @@ public interface ModerationRepository extends JpaRepository<Moderation, Integer>
         return moderations.isEmpty() ? Optional.empty() : Optional.of(moderations.get(0));
     }
 
+    // Условие "запись последняя для своего трека": позже нее (по дате, при равенстве - по id) записей нет
+    String IS_LATEST = "NOT EXISTS (SELECT later.id FROM Moderation later WHERE later.track = m.track"
+            + " AND (later.moderationDate > m.moderationDate"
+            + " OR (later.moderationDate = m.moderationDate AND later.id > m.id)))";
+
+    // Последняя модерация по каждому треку одним запросом: id трека, статус, комментарий
+    @Query("SELECT m.track.id, m.status, m.comment FROM Moderation m WHERE m.track.uploadedByUser.id = :userId AND " + IS_LATEST)
+    List<Object[]> findLatestByUploaderId(@Param("userId") Integer userId);
+
+    @Query("SELECT m.track.id, m.status, m.comment FROM Moderation m WHERE m.track.id IN :trackIds AND " + IS_LATEST)
+    List<Object[]> findLatestByTrackIdIn(@Param("trackIds") Collection<Integer> trackIds);
+
+    @Query("SELECT m.track.id, m.status, m.comment FROM Moderation m WHERE m.track.isModerated = false AND " + IS_LATEST)
+    List<Object[]> findLatestForPendingTracks();
+
     List<Moderation> findByModeratorIdOrderByModerationDateDesc(Integer moderatorId);
 
     @Query("SELECT m FROM Moderation m WHERE m.status = 'Pending' ORDER BY m.moderationDate DESC")
@@ -31,14 +51,44 @@ public interface ModerationRepository extends JpaRepository<Moderation, Integer>
 
     @Query("SELECT COUNT(m) FROM Moderation m WHERE m.status = 'Pending'")
     long countPending();
+}
+
+interface ModerationRepositoryCustom {
+    KeysetPage<Moderation> findHistoryPage(String cursor, int size, Moderation.ModerationStatus status);
+}
 
-    // получить историю модерации с пагинацией
-    @EntityGraph(attributePaths = {"track", "track.artist", "moderator"})
-    @Query("SELECT m FROM Moderation m ORDER BY m.moderationDate DESC")
-    Page<Moderation> findModerationHistory(Pageable pageable);
+@Repository
+class ModerationRepositoryImpl implements ModerationRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // История от новых к старым; ключ (moderationDate, id) - даты могут совпадать
+    @Override
+    public KeysetPage<Moderation> findHistoryPage(String cursor, int size, Moderation.ModerationStatus status) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Moderation> cq = cb.createQuery(Moderation.class);
+        Root<Moderation> moderation = cq.from(Moderation.class);
+        Fetch<Moderation, Object> track = moderation.fetch("track", JoinType.LEFT);
+        track.fetch("artist", JoinType.LEFT);
+        moderation.fetch("moderator", JoinType.LEFT);
 
-    // получить всю историю модерации
-    @EntityGraph(attributePaths = {"track", "track.artist", "moderator"})
-    @Query("SELECT m FROM Moderation m ORDER BY m.moderationDate DESC")
-    List<Moderation> findAllModerationHistory();
-}
\ No newline at end of file
+        List<Predicate> predicates = new ArrayList<>();
+        Object[] after = KeysetCursor.decode(cursor, 2,
+                values -> new Object[]{LocalDateTime.parse(values[0]), Integer.valueOf(values[1])});
+        if (after != null) {
+            LocalDateTime afterDate = (LocalDateTime) after[0];
+            predicates.add(cb.or(cb.lessThan(moderation.get("moderationDate"), afterDate),
+                    cb.and(cb.equal(moderation.get("moderationDate"), afterDate),
+                            cb.lessThan(moderation.get("id"), (Integer) after[1]))));
+        }
+        if (status != null) {
+            predicates.add(cb.equal(moderation.get("status"), status));
+        }
+        cq.where(predicates.toArray(new Predicate[0]));
+        cq.orderBy(cb.desc(moderation.get("moderationDate")), cb.desc(moderation.get("id")));
+
+        List<Moderation> rows = entityManager.createQuery(cq).setMaxResults(size + 1).getResultList();
+        return KeysetPage.of(rows, size, m -> KeysetCursor.encode(m.getModerationDate(), m.getId()));
+    }
+}
@@ -0,0 +1,82 @@
+package com.musicstreaming.repository;
+
+import com.musicstreaming.model.PlayRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface PlayRollupRepository extends JpaRepository<PlayRollup, Long> {
+
+    // Строка под блокировкой записи - слияние скетча слушателей не теряет обновления других узлов
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT r FROM PlayRollup r WHERE r.scope = :scope AND r.entityId = :entityId " +
+           "AND r.granularity = :granularity AND r.bucketStart = :bucketStart")
+    Optional<PlayRollup> findBucketForUpdate(@Param("scope") PlayRollup.Scope scope,
+                                    @Param("entityId") Integer entityId,
+                                    @Param("granularity") PlayRollup.Granularity granularity,
+                                    @Param("bucketStart") LocalDateTime bucketStart);
+
+    // Прибавить к существующей строке; 0 - строки еще нет
+    @Modifying
+    @Query("UPDATE PlayRollup r SET r.plays = r.plays + :plays, r.playlistAdds = r.playlistAdds + :playlistAdds " +
+           "WHERE r.scope = :scope AND r.entityId = :entityId AND r.granularity = :granularity AND r.bucketStart = :bucketStart")
+    int increment(@Param("scope") PlayRollup.Scope scope,
+                  @Param("entityId") Integer entityId,
+                  @Param("granularity") PlayRollup.Granularity granularity,
+                  @Param("bucketStart") LocalDateTime bucketStart,
+                  @Param("plays") long plays,
+                  @Param("playlistAdds") long playlistAdds);
+
+    // Только скетч - счетчики меняет increment
+    @Modifying
+    @Query("UPDATE PlayRollup r SET r.listeners = :listeners WHERE r.id = :id")
+    int updateListeners(@Param("id") Long id, @Param("listeners") byte[] listeners);
+
+    // Ряд за период по ключу (Scope, EntityId, Granularity, BucketStart) - чтение по уникальному индексу
+    @Query("SELECT r FROM PlayRollup r WHERE r.scope = :scope AND r.entityId IN :entityIds " +
+           "AND r.granularity = :granularity AND r.bucketStart >= :from ORDER BY r.bucketStart")
+    List<PlayRollup> findSeries(@Param("scope") PlayRollup.Scope scope,
+                                @Param("entityIds") Collection<Integer> entityIds,
+                                @Param("granularity") PlayRollup.Granularity granularity,
+                                @Param("from") LocalDateTime from);
+
+    // Ряд в полуинтервале [from, to) - закрытые дни для окон уникальных слушателей
+    @Query("SELECT r FROM PlayRollup r WHERE r.scope = :scope AND r.entityId IN :entityIds " +
+           "AND r.granularity = :granularity AND r.bucketStart >= :from AND r.bucketStart < :to")
+    List<PlayRollup> findSeriesBetween(@Param("scope") PlayRollup.Scope scope,
+                                       @Param("entityIds") Collection<Integer> entityIds,
+                                       @Param("granularity") PlayRollup.Granularity granularity,
+                                       @Param("from") LocalDateTime from,
+                                       @Param("to") LocalDateTime to);
+
+    // Прослушивания всех сущностей уровня за период - для прогрева трендов после рестарта
+    @Query("SELECT r.entityId, r.bucketStart, r.plays FROM PlayRollup r WHERE r.scope = :scope " +
+           "AND r.granularity = :granularity AND r.bucketStart >= :from AND r.bucketStart < :to AND r.plays > 0")
+    List<Object[]> findPlaysBetween(@Param("scope") PlayRollup.Scope scope,
+                                    @Param("granularity") PlayRollup.Granularity granularity,
+                                    @Param("from") LocalDateTime from,
+                                    @Param("to") LocalDateTime to);
+
+    // Итоги за все время - сумма месячных строк: прослушивания, добавления в плейлисты
+    @Query("SELECT COALESCE(SUM(r.plays), 0), COALESCE(SUM(r.playlistAdds), 0) FROM PlayRollup r " +
+           "WHERE r.scope = :scope AND r.entityId IN :entityIds AND r.granularity = 'Month'")
+    List<Object[]> sumAllTime(@Param("scope") PlayRollup.Scope scope, @Param("entityIds") Collection<Integer> entityIds);
+
+    @Query("SELECT r.entityId, SUM(r.plays) FROM PlayRollup r " +
+           "WHERE r.scope = :scope AND r.entityId IN :entityIds AND r.granularity = 'Month' GROUP BY r.entityId")
+    List<Object[]> sumPlaysByEntity(@Param("scope") PlayRollup.Scope scope, @Param("entityIds") Collection<Integer> entityIds);
+
+    @Modifying
+    @Query("DELETE FROM PlayRollup r WHERE r.granularity = :granularity AND r.bucketStart < :before")
+    int deleteOlderThan(@Param("granularity") PlayRollup.Granularity granularity, @Param("before") LocalDateTime before);
+}
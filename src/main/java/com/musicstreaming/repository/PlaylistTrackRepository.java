@@ -28,4 +28,8 @@ public interface PlaylistTrackRepository extends JpaRepository<PlaylistTrack, Pl
 
     @Query("SELECT COUNT(pt) FROM PlaylistTrack pt WHERE pt.playlist.id = :playlistId")
     int countByPlaylistId(@Param("playlistId") Integer playlistId);
+
+    // Для первичного заполнения агрегатов аналитики: id трека, исполнителя, альбома, дата добавления
+    @Query("SELECT t.id, a.id, al.id, pt.addedDate FROM PlaylistTrack pt JOIN pt.track t LEFT JOIN t.artist a LEFT JOIN t.album al")
+    List<Object[]> findAllAddsWithArtist();
 }
\ No newline at end of file
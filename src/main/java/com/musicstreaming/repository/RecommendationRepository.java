@@ -56,22 +56,17 @@ public interface RecommendationRepository extends JpaRepository<Recommendation,
             "AND t.id NOT IN (SELECT r.track.id FROM Recommendation r WHERE r.user.id = :userId)")
     List<Track> findTracksFromSameAlbums(@Param("userId") Integer userId);
 
-    @Query("SELECT t, COUNT(r) FROM Recommendation r " +
-            "JOIN r.track t " +
-            "WHERE r.date > :after AND t.isModerated = true " +
-            "GROUP BY t ORDER BY COUNT(r) DESC")
-    List<Object[]> findPopularTracksSince(@Param("after") LocalDateTime after, Pageable pageable);
+    @Query("SELECT DISTINCT r.track.id FROM Recommendation r WHERE r.user.id = :userId")
+    List<Integer> findDistinctTrackIdsByUserId(@Param("userId") Integer userId);
 
-    @Query(value = "SELECT t.* FROM tracks t " +
-            "INNER JOIN recommendations r2 ON t.Id = r2.TrackId " +
-            "WHERE r2.UserId IN (" +
-            "   SELECT r.UserId FROM recommendations r " +
-            "   WHERE r.TrackId IN (SELECT TrackId FROM recommendations WHERE UserId = :userId) " +
-            "   AND r.UserId != :userId " +
-            "   GROUP BY r.UserId ORDER BY COUNT(r.TrackId) DESC LIMIT 10" +
-            ") " +
-            "AND t.Id NOT IN (SELECT TrackId FROM recommendations WHERE UserId = :userId) " +
-            "AND t.IsModerated = 1 " +
-            "GROUP BY t.Id ORDER BY COUNT(r2.TrackId) DESC LIMIT :limit", nativeQuery = true)
-    List<Track> findCollaborativeRecommendations(@Param("userId") Integer userId, @Param("limit") int limit);
-}
\ No newline at end of file
+    // Для матрицы совместных прослушиваний: пользователи с историей по возрастанию id, постранично
+    @Query("SELECT DISTINCT r.user.id FROM Recommendation r WHERE r.user.id > :afterUserId ORDER BY r.user.id")
+    List<Integer> findListeningUserIdsAfter(@Param("afterUserId") Integer afterUserId, Pageable pageable);
+
+    // Пары пользователей из (afterUserId, lastUserId], свежие прослушивания первыми
+    @Query("SELECT r.user.id, r.track.id, MAX(r.date) AS lastPlayed FROM Recommendation r " +
+            "WHERE r.user.id > :afterUserId AND r.user.id <= :lastUserId " +
+            "GROUP BY r.user.id, r.track.id ORDER BY r.user.id, lastPlayed DESC")
+    List<Object[]> findUserTrackPairs(@Param("afterUserId") Integer afterUserId,
+                                      @Param("lastUserId") Integer lastUserId);
+}
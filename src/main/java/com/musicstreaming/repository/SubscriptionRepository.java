@@ -2,11 +2,13 @@ package com.musicstreaming.repository;
 
 import com.musicstreaming.model.Subscription;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -18,6 +20,17 @@ public interface SubscriptionRepository extends JpaRepository<Subscription, Inte
     @Query("SELECT s FROM Subscription s WHERE s.user.id = :userId AND s.isActivated = true AND s.endDate > :now")
     Optional<Subscription> findActiveByUserId(@Param("userId") Integer userId, @Param("now") LocalDateTime now);
 
-    @Query("SELECT s FROM Subscription s WHERE s.isActivated = true AND s.endDate > :now")
-    List<Subscription> findActiveSubscriptions(@Param("now") LocalDateTime now);
+    // Для кэша прав: (id, endDate) активных подписок, позже заканчивающаяся первой
+    @Query("SELECT s.id, s.endDate FROM Subscription s WHERE s.user.id = :userId AND s.isActivated = true " +
+           "AND s.endDate > :now ORDER BY s.endDate DESC")
+    List<Object[]> findActiveEntitlements(@Param("userId") Integer userId, @Param("now") LocalDateTime now);
+
+    // Окно истечения: (id, userId, endDate) активных подписок, заканчивающихся до until, - по индексу
+    @Query("SELECT s.id, s.user.id, s.endDate FROM Subscription s WHERE s.isActivated = true AND s.endDate <= :until")
+    List<Object[]> findExpiringUntil(@Param("until") LocalDateTime until);
+
+    @Modifying
+    @Query("UPDATE Subscription s SET s.isActivated = false, s.status = 'expired' " +
+           "WHERE s.id IN :ids AND s.isActivated = true AND s.endDate <= :now")
+    int expire(@Param("ids") Collection<Integer> ids, @Param("now") LocalDateTime now);
 }
\ No newline at end of file
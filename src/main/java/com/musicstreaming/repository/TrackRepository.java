@@ -1,5 +1,6 @@
 package com.musicstreaming.repository;
 
+import com.musicstreaming.dto.KeysetPage;
 import com.musicstreaming.model.Track;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.EntityGraph;
@@ -9,11 +10,16 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.*;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface TrackRepository extends JpaRepository<Track, Integer> {
+public interface TrackRepository extends JpaRepository<Track, Integer>, TrackRepositoryCustom {
 
     @EntityGraph(attributePaths = {"artist", "album", "genre"})
     List<Track> findByIsModeratedTrueOrderByIdDesc();
@@ -43,11 +49,46 @@ public interface TrackRepository extends JpaRepository<Track, Integer> {
     @Query("SELECT t FROM Track t WHERE t.isModerated = true AND (LOWER(t.title) LIKE LOWER(CONCAT('%', :query, '%')) OR LOWER(t.artist.name) LIKE LOWER(CONCAT('%', :query, '%')))")
     List<Track> search(@Param("query") String query);
 
+    // Проекции для поискового индекса: id, название, имя исполнителя
+    @Query("SELECT t.id, t.title, a.name FROM Track t LEFT JOIN t.artist a WHERE t.isModerated = true")
+    List<Object[]> findSearchableTracks();
+
+    @Query("SELECT t.id, t.title, a.name FROM Track t LEFT JOIN t.artist a WHERE t.id = :id AND t.isModerated = true")
+    List<Object[]> findSearchableTrackById(@Param("id") Integer id);
+
+    @Query("SELECT t.id, t.title, a.name FROM Track t JOIN t.artist a WHERE a.id = :artistId AND t.isModerated = true")
+    List<Object[]> findSearchableTracksByArtistId(@Param("artistId") Integer artistId);
+
+    // Для подсказок при вводе: id, название, id и имя исполнителя
+    @Query("SELECT t.id, t.title, a.id, a.name FROM Track t LEFT JOIN t.artist a WHERE t.isModerated = true")
+    List<Object[]> findAutocompleteTracks();
+
+    // Результаты поиска по индексу: чтение по первичному ключу, модерация проверяется еще раз
+    @EntityGraph(attributePaths = {"artist", "album", "genre"})
+    @Query("SELECT t FROM Track t WHERE t.id IN :ids AND t.isModerated = true ORDER BY t.id DESC")
+    List<Track> findModeratedByIdIn(@Param("ids") List<Integer> ids);
+
+    // Новинки - дополняют тренды, пока прослушиваний мало
+    @EntityGraph(attributePaths = {"artist", "album", "genre"})
+    @Query("SELECT t FROM Track t WHERE t.isModerated = true ORDER BY t.id DESC")
+    List<Track> findNewestModerated(Pageable pageable);
+
     // Добавленный метод для поиска похожих треков
     @EntityGraph(attributePaths = {"artist", "album", "genre"})
     @Query("SELECT t FROM Track t WHERE t.genre.id = :genreId AND t.id != :excludeTrackId AND t.isModerated = true ORDER BY t.id DESC")
     List<Track> findSimilar(@Param("genreId") Integer genreId, @Param("excludeTrackId") Integer excludeTrackId, Pageable pageable);
 
+    @Query("SELECT DISTINCT a.id FROM Track t JOIN t.artist a WHERE t.uploadedByUser.id = :userId")
+    List<Integer> findArtistIdsByUploaderId(@Param("userId") Integer userId);
+
+    // Исполнители и альбомы треков пачки прослушиваний - для агрегатов аналитики
+    @Query("SELECT t.id, a.id, al.id FROM Track t LEFT JOIN t.artist a LEFT JOIN t.album al WHERE t.id IN :ids")
+    List<Object[]> findArtistAndAlbumIdsByIdIn(@Param("ids") Collection<Integer> ids);
+
+    // Признак модерации и число треков - для счетчиков панели администратора
+    @Query("SELECT t.isModerated, COUNT(t) FROM Track t GROUP BY t.isModerated")
+    List<Object[]> countTracksByModerationState();
+
     // Добавленный метод для обновления статуса модерации
     @Modifying
     @Query("UPDATE Track t SET t.isModerated = :moderated WHERE t.id = :trackId")
@@ -61,8 +102,57 @@ public interface TrackRepository extends JpaRepository<Track, Integer> {
     @Query("SELECT t FROM Track t WHERE t.id = :id")
     Optional<Track> findByIdWithUser(@Param("id") Integer id);
 
+    // Пути к файлам для индекса TrackFileIndex - без загрузки сущностей
+    @Query("SELECT t.id, t.filePath FROM Track t")
+    List<Object[]> findAllFilePaths();
+
+    @Query("SELECT t.filePath FROM Track t WHERE t.id = :id")
+    String findFilePathById(@Param("id") Integer id);
+
     // Для поиска всех треков с пользователем
     @EntityGraph(attributePaths = {"artist", "album", "genre", "uploadedByUser"})
     @Override
     List<Track> findAll();
-}
\ No newline at end of file
+}
+
+interface TrackRepositoryCustom {
+    KeysetPage<Track> findPage(String cursor, int size, Boolean moderated, Integer genreId, Integer artistId);
+}
+
+@Repository
+class TrackRepositoryImpl implements TrackRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // Новые треки первыми; ключ - id, поэтому любая страница читается по индексу с того же места
+    @Override
+    public KeysetPage<Track> findPage(String cursor, int size, Boolean moderated, Integer genreId, Integer artistId) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Track> cq = cb.createQuery(Track.class);
+        Root<Track> track = cq.from(Track.class);
+        track.fetch("artist", JoinType.LEFT);
+        track.fetch("album", JoinType.LEFT);
+        track.fetch("genre", JoinType.LEFT);
+
+        List<Predicate> predicates = new ArrayList<>();
+        Integer afterId = KeysetCursor.decode(cursor, 1, values -> Integer.valueOf(values[0]));
+        if (afterId != null) {
+            predicates.add(cb.lessThan(track.get("id"), afterId));
+        }
+        if (moderated != null) {
+            predicates.add(cb.equal(track.get("isModerated"), moderated));
+        }
+        if (genreId != null) {
+            predicates.add(cb.equal(track.get("genre").get("id"), genreId));
+        }
+        if (artistId != null) {
+            predicates.add(cb.equal(track.get("artist").get("id"), artistId));
+        }
+        cq.where(predicates.toArray(new Predicate[0]));
+        cq.orderBy(cb.desc(track.get("id")));
+
+        List<Track> rows = entityManager.createQuery(cq).setMaxResults(size + 1).getResultList();
+        return KeysetPage.of(rows, size, t -> KeysetCursor.encode(t.getId()));
+    }
+}
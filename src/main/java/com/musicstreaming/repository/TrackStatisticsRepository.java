@@ -2,6 +2,7 @@ package com.musicstreaming.repository;
 
 import com.musicstreaming.model.TrackStatistics;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -25,4 +26,20 @@ public interface TrackStatisticsRepository extends JpaRepository<TrackStatistics
     // найти статистику по нескольким трекам за период
     @Query("SELECT ts FROM TrackStatistics ts WHERE ts.track.id IN :trackIds AND ts.date > :after ORDER BY ts.date DESC")
     List<TrackStatistics> findByTrackIdInAndDateAfter(@Param("trackIds") List<Integer> trackIds, @Param("after") LocalDateTime after);
-}
\ No newline at end of file
+
+    @Query("SELECT ts.track.id, SUM(ts.listenCount) FROM TrackStatistics ts GROUP BY ts.track.id")
+    List<Object[]> sumListenCountsByTrack();
+
+    // Для первичного заполнения агрегатов аналитики: id трека, исполнителя, альбома, дата, прослушивания
+    @Query("SELECT t.id, a.id, al.id, ts.date, ts.listenCount FROM TrackStatistics ts JOIN ts.track t " +
+           "LEFT JOIN t.artist a LEFT JOIN t.album al")
+    List<Object[]> findAllWithArtist();
+
+    @Query("SELECT COALESCE(SUM(ts.listenCount), 0) FROM TrackStatistics ts WHERE ts.track.id = :trackId")
+    Long getTotalListenCountByTrackId(@Param("trackId") Integer trackId);
+
+    // Прибавить к дневной агрегированной строке (Date = начало дня); 0 - строки еще нет
+    @Modifying
+    @Query("UPDATE TrackStatistics ts SET ts.listenCount = ts.listenCount + :count WHERE ts.track.id = :trackId AND ts.date = :day")
+    int incrementDailyListenCount(@Param("trackId") Integer trackId, @Param("day") LocalDateTime day, @Param("count") int count);
+}
@@ -1,17 +1,31 @@
 package com.musicstreaming.repository;
 
+import com.musicstreaming.dto.AdminUserDTO;
+import com.musicstreaming.dto.KeysetPage;
+import com.musicstreaming.model.Playlist;
+import com.musicstreaming.model.Subscription;
+import com.musicstreaming.model.Track;
 import com.musicstreaming.model.User;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Repository
-public interface UserRepository extends JpaRepository<User, Integer> {
+public interface UserRepository extends JpaRepository<User, Integer>, UserRepositoryCustom {
 
     Optional<User> findByUsername(String username);
 
@@ -26,10 +40,112 @@ public interface UserRepository extends JpaRepository<User, Integer> {
     @Query("SELECT u FROM User u ORDER BY u.role, u.username")
     List<User> findAllOrdered();
 
+    // Имя и роль для пользователя в сессии - без загрузки сущности
+    @Query("SELECT u.username, u.role FROM User u WHERE u.id = :id")
+    List<Object[]> findSessionFields(@Param("id") Integer id);
+
+    // Роль и число пользователей - для счетчиков панели администратора
+    @Query("SELECT u.role, COUNT(u) FROM User u GROUP BY u.role")
+    List<Object[]> countUsersByRole();
+
+    // Истечение подписок: подписчики из пачки, у которых не осталось активной подписки
+    @Query("SELECT u.id FROM User u WHERE u.id IN :ids AND u.role = 'Subscriber' AND NOT EXISTS " +
+           "(SELECT s.id FROM Subscription s WHERE s.user = u AND s.isActivated = true AND s.endDate > :now)")
+    List<Integer> findSubscribersWithoutActiveSubscription(@Param("ids") Collection<Integer> ids,
+                                                           @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("UPDATE User u SET u.role = 'User' WHERE u.id IN :ids AND u.role = 'Subscriber'")
+    int downgradeSubscribers(@Param("ids") Collection<Integer> ids);
+
     boolean existsByUsername(String username);
     boolean existsByEmail(String email);
 
     @EntityGraph(attributePaths = {"subscriptions"})
     @Query("SELECT u FROM User u WHERE u.id = :id")
     Optional<User> findByIdWithSubscriptions(@Param("id") Integer id);
-}
\ No newline at end of file
+}
+
+interface UserRepositoryCustom {
+    KeysetPage<AdminUserDTO> findAdminPage(String cursor, int size, User.UserRole role, String search);
+
+    Map<User.UserRole, Long> countAdminUsersByRole(User.UserRole role, String search);
+}
+
+@Repository
+class UserRepositoryImpl implements UserRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // Страница списка пользователей для админки одним запросом: число плейлистов, загруженных треков
+    // и активных подписок считаются коррелированными подзапросами в той же выборке.
+    // Сортировка по имени пользователя: оно уникально, поэтому годится ключом без добавки id
+    @Override
+    public KeysetPage<AdminUserDTO> findAdminPage(String cursor, int size, User.UserRole role, String search) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Object[]> cq = cb.createQuery(Object[].class);
+        Root<User> user = cq.from(User.class);
+
+        Subquery<Long> playlists = cq.subquery(Long.class);
+        Root<Playlist> playlist = playlists.from(Playlist.class);
+        playlists.select(cb.count(playlist)).where(cb.equal(playlist.get("user"), user));
+
+        Subquery<Long> uploads = cq.subquery(Long.class);
+        Root<Track> track = uploads.from(Track.class);
+        uploads.select(cb.count(track)).where(cb.equal(track.get("uploadedByUser"), user));
+
+        Subquery<Long> activeSubscriptions = cq.subquery(Long.class);
+        Root<Subscription> subscription = activeSubscriptions.from(Subscription.class);
+        activeSubscriptions.select(cb.count(subscription)).where(
+                cb.equal(subscription.get("user"), user),
+                cb.isTrue(subscription.get("isActivated")),
+                cb.greaterThan(subscription.get("endDate"), LocalDateTime.now()));
+
+        List<Predicate> predicates = filters(cb, user, role, search);
+        String afterUsername = KeysetCursor.decode(cursor, 1, values -> values[0]);
+        if (afterUsername != null) {
+            predicates.add(cb.greaterThan(user.get("username"), afterUsername));
+        }
+        cq.multiselect(user, playlists, uploads, activeSubscriptions);
+        cq.where(predicates.toArray(new Predicate[0]));
+        cq.orderBy(cb.asc(user.get("username")));
+
+        List<AdminUserDTO> rows = new ArrayList<>();
+        for (Object[] row : entityManager.createQuery(cq).setMaxResults(size + 1).getResultList()) {
+            rows.add(new AdminUserDTO((User) row[0], ((Number) row[1]).intValue(),
+                    ((Number) row[2]).intValue(), ((Number) row[3]).longValue() > 0));
+        }
+        return KeysetPage.of(rows, size, u -> KeysetCursor.encode(u.getUsername()));
+    }
+
+    // Итоги по ролям для тех же фильтров, что у страницы: одна группировка без курсора
+    @Override
+    public Map<User.UserRole, Long> countAdminUsersByRole(User.UserRole role, String search) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Object[]> cq = cb.createQuery(Object[].class);
+        Root<User> user = cq.from(User.class);
+        cq.multiselect(user.get("role"), cb.count(user));
+        cq.where(filters(cb, user, role, search).toArray(new Predicate[0]));
+        cq.groupBy(user.get("role"));
+
+        Map<User.UserRole, Long> counts = new EnumMap<>(User.UserRole.class);
+        for (Object[] row : entityManager.createQuery(cq).getResultList()) {
+            counts.put((User.UserRole) row[0], ((Number) row[1]).longValue());
+        }
+        return counts;
+    }
+
+    private static List<Predicate> filters(CriteriaBuilder cb, Root<User> user, User.UserRole role, String search) {
+        List<Predicate> predicates = new ArrayList<>();
+        if (role != null) {
+            predicates.add(cb.equal(user.get("role"), role));
+        }
+        if (search != null && !search.trim().isEmpty()) {
+            String pattern = "%" + search.trim().toLowerCase() + "%";
+            predicates.add(cb.or(cb.like(cb.lower(user.get("username")), pattern),
+                    cb.like(cb.lower(user.get("email")), pattern)));
+        }
+        return predicates;
+    }
+}
@@ -1,7 +1,7 @@
 package com.musicstreaming.service;
 
 import com.musicstreaming.dto.AdDTO;
-import com.musicstreaming.model.User;
+import com.musicstreaming.dto.SessionUser;
 import org.springframework.stereotype.Service;
 
 import javax.servlet.http.HttpServletRequest;
@@ -13,7 +13,7 @@ import java.util.Random;
 public class AdService {
 
     private final AuthService authService;
-    private final SubscriptionService subscriptionService;
+    private final EntitlementService entitlementService;
     private final Random random = new Random();
 
     // Примеры рекламных объявлений
@@ -25,14 +25,14 @@ public class AdService {
             new AdDTO("ad5", "Спецпредложение", "Первый месяц подписки всего за 299₽! как и все остальные, халявы не будет", "", 5)
     );
 
-    public AdService(AuthService authService, SubscriptionService subscriptionService) {
+    public AdService(AuthService authService, EntitlementService entitlementService) {
         this.authService = authService;
-        this.subscriptionService = subscriptionService;
+        this.entitlementService = entitlementService;
     }
 
     // Проверяет, нужно ли показывать рекламу пользователю
     public boolean shouldShowAd(HttpServletRequest request) {
-        User user = authService.getCurrentUser(request);
+        SessionUser user = authService.getCurrentUser(request);
 
         if (user == null) {
             // Неавторизованные пользователи видят рекламу
@@ -44,8 +44,8 @@ public class AdService {
             return false;
         }
 
-        // Проверяем наличие активной подписки
-        boolean hasActiveSubscription = subscriptionService.findActiveByUserId(user.getId()).isPresent();
+        // Проверяем наличие активной подписки - из кэша прав, без запроса к базе
+        boolean hasActiveSubscription = entitlementService.hasActiveSubscription(user.getId());
 
         // Пользователи с активной подпиской не видят рекламу
         return !hasActiveSubscription;
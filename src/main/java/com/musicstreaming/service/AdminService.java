@@ -1,5 +1,6 @@
 package com.musicstreaming.service;
 
+import com.musicstreaming.dto.TrackModerationSummary;
 import com.musicstreaming.model.*;
 import com.musicstreaming.repository.*;
 import org.slf4j.Logger;
@@ -8,7 +9,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 @Transactional
@@ -22,17 +25,26 @@ public class AdminService {
     private final AlbumRepository albumRepository;
     private final GenreRepository genreRepository;
     private final ModerationRepository moderationRepository;
+    private final CatalogSearchIndex catalogSearchIndex;
+    private final DashboardStatisticsService dashboardStatistics;
+    private final EntitlementService entitlementService;
 
     @Autowired
     public AdminService(UserRepository userRepository, TrackRepository trackRepository,
                         ArtistRepository artistRepository, AlbumRepository albumRepository,
-                        GenreRepository genreRepository, ModerationRepository moderationRepository) {
+                        GenreRepository genreRepository, ModerationRepository moderationRepository,
+                        CatalogSearchIndex catalogSearchIndex,
+                        DashboardStatisticsService dashboardStatistics,
+                        EntitlementService entitlementService) {
         this.userRepository = userRepository;
         this.trackRepository = trackRepository;
         this.artistRepository = artistRepository;
         this.albumRepository = albumRepository;
         this.genreRepository = genreRepository;
         this.moderationRepository = moderationRepository;
+        this.catalogSearchIndex = catalogSearchIndex;
+        this.dashboardStatistics = dashboardStatistics;
+        this.entitlementService = entitlementService;
     }
 
     public int getTotalUsers() {
@@ -70,8 +82,10 @@ public class AdminService {
     @Transactional
     public void updateUserRole(Integer userId, User.UserRole newRole) {
         userRepository.findById(userId).ifPresent(user -> {
+            dashboardStatistics.userRoleChanged(user.getRole(), newRole);
             user.setRole(newRole);
             userRepository.save(user);
+            entitlementService.invalidate(userId);
             logger.info("User {} role updated to {}", userId, newRole);
         });
     }
@@ -84,9 +98,46 @@ public class AdminService {
         return trackRepository.findPendingModeration();
     }
 
+    // Статусы и комментарии модерации: по одному запросу на набор треков вместо запроса на трек
+    @Transactional(readOnly = true)
+    public TrackModerationSummary summarizeModeration(List<Track> tracks) {
+        List<Integer> pendingIds = tracks.stream().filter(t -> !t.isModerated()).map(Track::getId).toList();
+        List<Object[]> latest = pendingIds.isEmpty() ? List.of() : moderationRepository.findLatestByTrackIdIn(pendingIds);
+        return summarize(tracks, latest);
+    }
+
+    @Transactional(readOnly = true)
+    public TrackModerationSummary summarizeUploads(Integer userId, List<Track> uploadedTracks) {
+        return summarize(uploadedTracks, moderationRepository.findLatestByUploaderId(userId));
+    }
+
+    @Transactional(readOnly = true)
+    public TrackModerationSummary summarizePending(List<Track> pendingTracks) {
+        return summarize(pendingTracks, moderationRepository.findLatestForPendingTracks());
+    }
+
+    private TrackModerationSummary summarize(List<Track> tracks, List<Object[]> latest) {
+        Map<Integer, Object[]> latestByTrack = new HashMap<>();
+        for (Object[] row : latest) {
+            latestByTrack.put((Integer) row[0], row);
+        }
+        TrackModerationSummary summary = new TrackModerationSummary();
+        for (Track track : tracks) {
+            Object[] row = latestByTrack.get(track.getId());
+            summary.add(track, row != null ? (Moderation.ModerationStatus) row[1] : null,
+                    row != null ? (String) row[2] : null);
+        }
+        return summary;
+    }
+
     @Transactional
     public void approveTrack(Integer trackId, Integer moderatorId, String comment) {
+        boolean pending = trackRepository.findById(trackId).map(track -> !track.isModerated()).orElse(false);
         trackRepository.updateModerationStatus(trackId, true);
+        catalogSearchIndex.refreshTrack(trackId);
+        if (pending) {
+            dashboardStatistics.trackApproved();
+        }
 
         trackRepository.findById(trackId).ifPresent(track -> {
             Moderation moderation = new Moderation();
@@ -120,17 +171,23 @@ public class AdminService {
     public Artist createArtist(String name, String description, String photoPath) {
         Artist artist = new Artist(name, description);
         artist.setPhotoPath(photoPath);
-        return artistRepository.save(artist);
+        Artist saved = artistRepository.save(artist);
+        catalogSearchIndex.refreshArtist(saved.getId());
+        dashboardStatistics.artistAdded();
+        return saved;
     }
 
     @Transactional
     public void updateArtist(Artist artist) {
         artistRepository.save(artist);
+        catalogSearchIndex.refreshArtist(artist.getId());
     }
 
     @Transactional
     public void deleteArtist(Integer id) {
         artistRepository.deleteById(id);
+        catalogSearchIndex.removeArtist(id);
+        dashboardStatistics.recountAfterCommit();
     }
 
     @Transactional
@@ -139,17 +196,23 @@ public class AdminService {
                 .orElseThrow(() -> new IllegalArgumentException("Artist not found"));
         Album album = new Album(title, artist);
         album.setCoverPath(coverPath);
-        return albumRepository.save(album);
+        Album saved = albumRepository.save(album);
+        catalogSearchIndex.refreshAlbum(saved.getId());
+        dashboardStatistics.albumAdded();
+        return saved;
     }
 
     @Transactional
     public void updateAlbum(Album album) {
         albumRepository.save(album);
+        catalogSearchIndex.refreshAlbum(album.getId());
     }
 
     @Transactional
     public void deleteAlbum(Integer id) {
         albumRepository.deleteById(id);
+        catalogSearchIndex.removeAlbum(id);
+        dashboardStatistics.recountAfterCommit();
     }
 
     @Transactional
@@ -158,7 +221,9 @@ public class AdminService {
             throw new IllegalArgumentException("Genre with name '" + name + "' already exists");
         }
         Genre genre = new Genre(name);
-        return genreRepository.save(genre);
+        Genre saved = genreRepository.save(genre);
+        dashboardStatistics.genreAdded();
+        return saved;
     }
 
     @Transactional
@@ -169,6 +234,7 @@ public class AdminService {
     @Transactional
     public void deleteGenre(Integer id) {
         genreRepository.deleteById(id);
+        dashboardStatistics.recountAfterCommit();
     }
 
     public List<Artist> getAllArtists() {
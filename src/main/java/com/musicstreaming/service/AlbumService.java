@@ -1,7 +1,7 @@
 package com.musicstreaming.service;
 
+import com.musicstreaming.dto.KeysetPage;
 import com.musicstreaming.model.Album;
-import com.musicstreaming.model.AlbumStatistics;
 import com.musicstreaming.model.Artist;
 import com.musicstreaming.model.Track;
 import com.musicstreaming.repository.AlbumRepository;
@@ -15,7 +15,7 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -29,16 +29,25 @@ public class AlbumService {
     private final TrackRepository trackRepository;
     private final ArtistRepository artistRepository;
     private final AlbumStatisticsRepository albumStatisticsRepository;
+    private final PlayEventAggregator playEventAggregator;
+    private final CatalogSearchIndex catalogSearchIndex;
+    private final DashboardStatisticsService dashboardStatistics;
 
     @Autowired
     public AlbumService(AlbumRepository albumRepository,
                         TrackRepository trackRepository,
                         ArtistRepository artistRepository,
-                        AlbumStatisticsRepository albumStatisticsRepository) {
+                        AlbumStatisticsRepository albumStatisticsRepository,
+                        PlayEventAggregator playEventAggregator,
+                        CatalogSearchIndex catalogSearchIndex,
+                        DashboardStatisticsService dashboardStatistics) {
         this.albumRepository = albumRepository;
         this.trackRepository = trackRepository;
         this.artistRepository = artistRepository;
         this.albumStatisticsRepository = albumStatisticsRepository;
+        this.playEventAggregator = playEventAggregator;
+        this.catalogSearchIndex = catalogSearchIndex;
+        this.dashboardStatistics = dashboardStatistics;
     }
 
     public Optional<Album> findById(Integer id) {
@@ -49,12 +58,21 @@ public class AlbumService {
         return albumRepository.findAllOrdered();
     }
 
+    public KeysetPage<Album> findPage(String cursor, Integer size, Integer artistId) {
+        return albumRepository.findPage(cursor, KeysetPage.clampSize(size), artistId);
+    }
+
     public List<Album> findByArtistId(Integer artistId) {
         return albumRepository.findByArtistIdOrderByReleaseDateDesc(artistId);
     }
 
     public List<Album> search(String query) {
-        return albumRepository.searchByCriteria(query);
+        if (!catalogSearchIndex.isReady()) {
+            return albumRepository.searchByCriteria(query);
+        }
+        List<Integer> ids = catalogSearchIndex.searchAlbums(query);
+        return ids.isEmpty() ? Collections.emptyList()
+                : CatalogSearchIndex.inRankOrder(ids, albumRepository.findWithArtistByIdIn(ids), Album::getId);
     }
 
     public List<Album> findNewReleases(int limit) {
@@ -70,32 +88,20 @@ public class AlbumService {
     }
 
     public Long getTotalListenCount(Integer albumId) {
-        return albumStatisticsRepository.getTotalListenCountByAlbumId(albumId);
+        return albumStatisticsRepository.getTotalListenCountByAlbumId(albumId)
+                + playEventAggregator.getPendingAlbumCount(albumId);
     }
 
-    // Запись прослушивания альбома
-    @Transactional
+    // Запись прослушивания альбома: событие уходит в журнал и буфер, в AlbumStatistics - пачкой
     public void recordAlbumPlay(Integer albumId) {
-        albumRepository.findById(albumId).ifPresent(album -> {
-            LocalDateTime now = LocalDateTime.now();
-
-            Optional<AlbumStatistics> existingStats = albumStatisticsRepository
-                    .findByAlbumIdAndDate(albumId, now);
-
-            if (existingStats.isPresent()) {
-                AlbumStatistics stats = existingStats.get();
-                stats.setListenCount(stats.getListenCount() + 1);
-                stats.setDate(now);
-                albumStatisticsRepository.save(stats);
-                logger.debug("Updated album play count for album {}: {}", albumId, stats.getListenCount());
-            } else {
-                AlbumStatistics stats = new AlbumStatistics(album);
-                stats.setListenCount(1);
-                stats.setDate(now);
-                albumStatisticsRepository.save(stats);
-                logger.debug("Created new album play record for album {}", albumId);
-            }
-        });
+        recordAlbumPlay(albumId, null);
+    }
+
+    public void recordAlbumPlay(Integer albumId, Integer trackId) {
+        if (albumRepository.existsById(albumId)) {
+            playEventAggregator.recordAlbumPlay(albumId, trackId);
+            logger.debug("Queued album play for album {}", albumId);
+        }
     }
 
     @Transactional
@@ -106,26 +112,37 @@ public class AlbumService {
         Album album = new Album(title, artist);
         album.setCoverPath(coverPath);
 
-        return albumRepository.save(album);
+        return saveIndexed(album);
     }
 
     @Transactional
     public Album save(Album album) {
-        if (album.getId() == null) {
-            return albumRepository.save(album);
-        } else {
-            return albumRepository.save(album);
-        }
+        return saveIndexed(album);
     }
 
     @Transactional
     public Album updateAlbum(Album album) {
-        return albumRepository.save(album);
+        return saveIndexed(album);
     }
 
     @Transactional
     public void deleteAlbum(Integer id) {
         albumRepository.deleteById(id);
+        catalogSearchIndex.removeAlbum(id);
+        // Треки альбома удаляются каскадом
+        dashboardStatistics.recountAfterCommit();
+    }
+
+    private Album saveIndexed(Album album) {
+        if (album.getId() == null) {
+            dashboardStatistics.albumAdded();
+        }
+        return indexed(albumRepository.save(album));
+    }
+
+    private Album indexed(Album album) {
+        catalogSearchIndex.refreshAlbum(album.getId());
+        return album;
     }
 
     public int getTotalAlbums() {
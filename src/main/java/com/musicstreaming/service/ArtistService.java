@@ -20,20 +20,29 @@ public class ArtistService {
     private final ArtistRepository artistRepository;
     private final TrackRepository trackRepository;
     private final AlbumRepository albumRepository;
-    private final TrackStatisticsRepository trackStatisticsRepository;
+    private final PlayAnalyticsService playAnalytics;
+    private final UniqueListenerService uniqueListeners;
     private final UserRepository userRepository;
+    private final CatalogSearchIndex catalogSearchIndex;
+    private final DashboardStatisticsService dashboardStatistics;
 
     @Autowired
     public ArtistService(ArtistRepository artistRepository,
                          TrackRepository trackRepository,
                          AlbumRepository albumRepository,
-                         TrackStatisticsRepository trackStatisticsRepository,
-                         UserRepository userRepository) {
+                         PlayAnalyticsService playAnalytics,
+                         UniqueListenerService uniqueListeners,
+                         UserRepository userRepository,
+                         CatalogSearchIndex catalogSearchIndex,
+                         DashboardStatisticsService dashboardStatistics) {
         this.artistRepository = artistRepository;
         this.trackRepository = trackRepository;
         this.albumRepository = albumRepository;
-        this.trackStatisticsRepository = trackStatisticsRepository;
+        this.playAnalytics = playAnalytics;
+        this.uniqueListeners = uniqueListeners;
         this.userRepository = userRepository;
+        this.catalogSearchIndex = catalogSearchIndex;
+        this.dashboardStatistics = dashboardStatistics;
     }
 
     public List<Artist> findAll() {
@@ -54,12 +63,20 @@ public class ArtistService {
 
     @Transactional
     public Artist save(Artist artist) {
-        return artistRepository.save(artist);
+        if (artist.getId() == null) {
+            dashboardStatistics.artistAdded();
+        }
+        Artist saved = artistRepository.save(artist);
+        catalogSearchIndex.refreshArtist(saved.getId());
+        return saved;
     }
 
     @Transactional
     public void delete(Integer id) {
         artistRepository.deleteById(id);
+        catalogSearchIndex.removeArtist(id);
+        // Альбомы и треки исполнителя удаляются каскадом
+        dashboardStatistics.recountAfterCommit();
     }
 
     public List<ArtistDTO> findAllDTOs() {
@@ -70,7 +87,12 @@ public class ArtistService {
         if (query == null || query.trim().isEmpty()) {
             return findAllDTOs();
         }
-        return artistRepository.searchArtistDTOs(query);
+        if (!catalogSearchIndex.isReady()) {
+            return artistRepository.searchArtistDTOs(query);
+        }
+        List<Integer> ids = catalogSearchIndex.searchArtists(query);
+        return ids.isEmpty() ? Collections.emptyList()
+                : CatalogSearchIndex.inRankOrder(ids, artistRepository.findArtistDTOsByIdIn(ids), ArtistDTO::getId);
     }
 
     // Метод для получения одного исполнителя с подсчетами
@@ -121,25 +143,36 @@ public class ArtistService {
         }
         profile.setAlbums(artistAlbums);
 
-        long totalPlays = 0;
-        for (Track track : artistTracks) {
-            List<TrackStatistics> stats = trackStatisticsRepository.findByTrackId(track.getId());
-            for (TrackStatistics stat : stats) {
-                totalPlays += stat.getListenCount();
-            }
-        }
-
-        profile.setTotalPlays(totalPlays);
-        profile.setMonthlyPlays(totalPlays / 12); // Примерно
-        profile.setNewListeners(artistTracks.size() * 5L);
-        profile.setPlaylistAdds(artistTracks.size() * 3L);
-
-        // Популярные треки (последние 5)
-        profile.setPopularTracks(artistTracks.stream().limit(5).collect(Collectors.toList()));
+        // Статистика - из предагрегированных строк исполнителей, без обхода TrackStatistics по трекам
+        PlayAnalyticsService.ArtistSummary summary = playAnalytics.getArtistSummary(artistIds);
+        profile.setTotalPlays(summary.getTotalPlays());
+        profile.setMonthlyPlays(summary.getMonthlyPlays());
+        profile.setPlaylistAdds(summary.getPlaylistAdds());
+
+        // Уникальные слушатели - слияние дневных скетчей исполнителей, человек считается один раз
+        profile.setWeeklyListeners(uniqueListeners.countUnion(PlayRollup.Scope.Artist, artistIds, 7));
+        profile.setMonthlyListeners(uniqueListeners.countUnion(PlayRollup.Scope.Artist, artistIds, 30));
+        profile.setNewListeners(uniqueListeners.countNew(PlayRollup.Scope.Artist, artistIds, 30));
+
+        // Популярные треки - по прослушиваниям за все время, одним запросом по месячным строкам
+        Map<Integer, Long> trackPlays = playAnalytics.getTrackPlays(
+                artistTracks.stream().map(Track::getId).collect(Collectors.toList()));
+        profile.setPopularTracks(artistTracks.stream()
+                .sorted(Comparator.comparingLong((Track t) -> trackPlays.getOrDefault(t.getId(), 0L)).reversed())
+                .limit(5)
+                .collect(Collectors.toList()));
 
         // Последние альбомы
         profile.setRecentAlbums(artistAlbums.stream().limit(3).collect(Collectors.toList()));
 
         return profile;
     }
+
+    // График для кабинета: прослушивания, добавления и слушатели по исполнителям музыканта
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> getPlaySeries(Integer userId, PlayRollup.Granularity granularity, int days) {
+        List<Integer> artistIds = trackRepository.findArtistIdsByUploaderId(userId);
+        LocalDateTime from = LocalDateTime.now().minusDays(Math.max(1, Math.min(days, 400)));
+        return playAnalytics.getSeries(PlayRollup.Scope.Artist, artistIds, granularity, from);
+    }
 }
@@ -0,0 +1,252 @@
+package com.musicstreaming.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Неблокирующая отдача аудио: AsyncContext + WriteListener, поток контейнера не держится на время загрузки
+@Service
+public class AsyncAudioStreamer implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncAudioStreamer.class);
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final boolean enabled;
+    private final long idleTimeoutMillis;
+    private final AudioSegmentCache segmentCache;
+
+    private final Set<StreamSession> sessions = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService reaper;
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder idleTimeouts = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder backpressureStalls = new LongAdder();
+
+    public AsyncAudioStreamer(@Value("${streaming.async.enabled:true}") boolean enabled,
+                              @Value("${streaming.async.idleTimeoutMillis:30000}") long idleTimeoutMillis,
+                              AudioSegmentCache segmentCache) {
+        this.enabled = enabled;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.segmentCache = segmentCache;
+        this.reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "async-stream-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        reaper.scheduleAtFixedRate(this::closeIdleSessions, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean canStream(HttpServletRequest request) {
+        return enabled && request.isAsyncSupported();
+    }
+
+    // Заголовки ответа должны быть выставлены до вызова
+    public void start(HttpServletRequest request, HttpServletResponse response, Integer trackId,
+                      File file, long fileSize, long start, long length) throws IOException {
+        AsyncContext asyncContext = request.startAsync(request, response);
+        // Общий лимит не ставим: длинные треки на медленных клиентах закрывает только проверка простоя
+        asyncContext.setTimeout(0);
+
+        ServletOutputStream out = response.getOutputStream();
+        StreamSession session = new StreamSession(asyncContext, out, trackId, file, fileSize, start, length);
+        asyncContext.addListener(session);
+        sessions.add(session);
+        started.increment();
+        out.setWriteListener(session);
+    }
+
+    private void closeIdleSessions() {
+        long now = System.currentTimeMillis();
+        for (StreamSession session : sessions) {
+            if (now - session.lastProgress > idleTimeoutMillis) {
+                idleTimeouts.increment();
+                logger.debug("Closing idle stream for track {} at position {}", session.trackId, session.position);
+                session.abort();
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        reaper.shutdownNow();
+        for (StreamSession session : sessions) {
+            session.abort();
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("idleTimeoutMillis", idleTimeoutMillis);
+        stats.put("activeStreams", sessions.size());
+        stats.put("started", started.sum());
+        stats.put("completed", completed.sum());
+        stats.put("idleTimeouts", idleTimeouts.sum());
+        stats.put("errors", errors.sum());
+        stats.put("bytesWritten", bytesWritten.sum());
+        stats.put("backpressureStalls", backpressureStalls.sum());
+        return stats;
+    }
+
+    private final class StreamSession implements WriteListener, AsyncListener {
+
+        private final AsyncContext asyncContext;
+        private final ServletOutputStream out;
+        private final Integer trackId;
+        private final File file;
+        private final long fileSize;
+        private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private FileChannel channel;
+        private long position;
+        private long remaining;
+        private volatile long lastProgress = System.currentTimeMillis();
+
+        StreamSession(AsyncContext asyncContext, ServletOutputStream out, Integer trackId,
+                      File file, long fileSize, long start, long length) {
+            this.asyncContext = asyncContext;
+            this.out = out;
+            this.trackId = trackId;
+            this.file = file;
+            this.fileSize = fileSize;
+            this.position = start;
+            this.remaining = length;
+        }
+
+        // Пишем, пока контейнер готов принять данные; при isReady() == false он сам вызовет нас снова
+        @Override
+        public void onWritePossible() throws IOException {
+            while (!closed.get()) {
+                if (remaining <= 0) {
+                    completed.increment();
+                    finish();
+                    return;
+                }
+                if (!out.isReady()) {
+                    backpressureStalls.increment();
+                    return;
+                }
+                int read = fill();
+                if (read <= 0) {
+                    // Файл короче заявленного размера
+                    finish();
+                    return;
+                }
+                out.write(chunk.array(), 0, read);
+                position += read;
+                remaining -= read;
+                bytesWritten.add(read);
+                lastProgress = System.currentTimeMillis();
+            }
+        }
+
+        private int fill() throws IOException {
+            int want = (int) Math.min(CHUNK_SIZE, remaining);
+            if (segmentCache.isEnabled()) {
+                int segmentSize = segmentCache.getSegmentSize();
+                long index = position / segmentSize;
+                ByteBuffer segment = segmentCache.getSegment(trackId, file, fileSize, index);
+                int from = (int) (position - index * segmentSize);
+                int count = Math.min(want, segment.limit() - from);
+                if (count <= 0) {
+                    return -1;
+                }
+                segment.position(from);
+                segment.get(chunk.array(), 0, count);
+                return count;
+            }
+            if (channel == null) {
+                channel = FileChannel.open(file.toPath());
+            }
+            chunk.clear().limit(want);
+            return channel.read(chunk, position);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            errors.increment();
+            logger.debug("Stream error for track {}: {}", trackId, t.getMessage());
+            abort();
+        }
+
+        void abort() {
+            if (release()) {
+                try {
+                    asyncContext.complete();
+                } catch (IllegalStateException e) {
+                    // Контекст уже завершен контейнером
+                }
+            }
+        }
+
+        private void finish() {
+            if (release()) {
+                asyncContext.complete();
+            }
+        }
+
+        private boolean release() {
+            if (!closed.compareAndSet(false, true)) {
+                return false;
+            }
+            sessions.remove(this);
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    logger.debug("Error closing channel for track {}", trackId, e);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            idleTimeouts.increment();
+            abort();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            errors.increment();
+            abort();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
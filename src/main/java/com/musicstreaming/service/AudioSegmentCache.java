@@ -0,0 +1,139 @@
+package com.musicstreaming.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Кэш сегментов аудиофайлов вне кучи (direct ByteBuffer) с вытеснением по бюджету в байтах.
+// Попадание не берет общих блокировок; одновременные промахи по сегменту читают диск один раз.
+// Обслуживает только отдачу мимо sendfile (см. AudioStreamingService): при streaming.mode=SENDFILE
+// он по умолчанию выключен, бюджет для запасного пути задается streaming.cache.maxBytes явно
+@Service
+public class AudioSegmentCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(AudioSegmentCache.class);
+
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private final long maxBytes;
+    private final int segmentSize;
+
+    // Ключ: (trackId << 32) | индекс сегмента; вес - размер сегмента в байтах
+    private final Cache<Long, ByteBuffer> segments;
+
+    // Сегменты, прочитанные мимо кэша: файл короче ожидаемого или сегмент больше бюджета
+    private final LongAdder uncachedReads = new LongAdder();
+
+    public AudioSegmentCache(@Value("${streaming.cache.maxBytes:-1}") long maxBytes,
+                             @Value("${streaming.cache.segmentSize:524288}") int segmentSize,
+                             @Value("${streaming.mode:SENDFILE}") String streamingMode) {
+        if (maxBytes < 0) {
+            // Бюджет не задан: кэш нужен, только если файлы не отдаются через sendfile
+            maxBytes = "BUFFERED".equalsIgnoreCase(streamingMode.trim()) ? DEFAULT_MAX_BYTES : 0;
+        }
+        this.maxBytes = maxBytes;
+        this.segmentSize = Math.max(4096, segmentSize);
+        // Вытеснение в потоке записи: память вне кучи не должна надолго превышать бюджет
+        this.segments = Caffeine.newBuilder()
+                .maximumWeight(this.maxBytes)
+                .weigher((Long key, ByteBuffer segment) -> segment.capacity())
+                .executor(Runnable::run)
+                .recordStats()
+                .build();
+        logger.info("Audio segment cache: budget={} bytes, segment={} bytes", this.maxBytes, this.segmentSize);
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    // Возвращает read-only копию сегмента; при промахе читает его с диска и кладет в кэш
+    public ByteBuffer getSegment(Integer trackId, File file, long fileLength, long index) throws IOException {
+        long key = ((long) trackId << 32) | (index & 0xFFFFFFFFL);
+        long offset = index * segmentSize;
+        int size = (int) Math.min(segmentSize, fileLength - offset);
+        if (size > maxBytes) {
+            uncachedReads.increment();
+            return read(file, offset, size).asReadOnlyBuffer();
+        }
+
+        ByteBuffer[] partial = new ByteBuffer[1];
+        ByteBuffer cached;
+        try {
+            cached = segments.get(key, k -> {
+                try {
+                    ByteBuffer buffer = read(file, offset, size);
+                    if (buffer.remaining() != size) {
+                        // Файл короче ожидаемого - отдаем прочитанное, но не кэшируем
+                        partial[0] = buffer;
+                        return null;
+                    }
+                    return buffer;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (cached == null) {
+            uncachedReads.increment();
+            return partial[0].asReadOnlyBuffer();
+        }
+        return cached.asReadOnlyBuffer();
+    }
+
+    private static ByteBuffer read(File file, long offset, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    break;
+                }
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // Сбрасывает сегменты трека (например, после замены файла)
+    public void invalidate(Integer trackId) {
+        segments.asMap().keySet().removeIf(key -> (int) (key >>> 32) == trackId);
+    }
+
+    public Map<String, Object> getStatistics() {
+        CacheStats cacheStats = segments.stats();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("maxBytes", maxBytes);
+        stats.put("segmentSize", segmentSize);
+        stats.put("residentBytes", segments.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L));
+        stats.put("residentSegments", segments.estimatedSize());
+        stats.put("hits", cacheStats.hitCount());
+        stats.put("misses", cacheStats.missCount());
+        stats.put("hitRatio", cacheStats.requestCount() == 0 ? 0.0 : cacheStats.hitRate());
+        stats.put("loads", cacheStats.loadCount());
+        stats.put("uncachedReads", uncachedReads.sum());
+        stats.put("evictions", cacheStats.evictionCount());
+        return stats;
+    }
+}
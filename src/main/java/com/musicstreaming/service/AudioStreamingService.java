@@ -0,0 +1,164 @@
+package com.musicstreaming.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Отдача аудио. В режиме SENDFILE диапазон передается коннектору Tomcat, и файл идет в сокет
+ * из page cache ОС; кэш сегментов (AudioSegmentCache) работает только там, где sendfile
+ * недоступен: режим BUFFERED, другой контейнер или коннектор. Поэтому при SENDFILE
+ * кэш по умолчанию выключен.
+ */
+@Service
+public class AudioStreamingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AudioStreamingService.class);
+    private static final int BUFFER_SIZE = 8192;
+
+    // Атрибуты запроса Tomcat: коннектор сам отдает файл через sendfile после выхода из сервлета
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    public enum StreamingMode {
+        SENDFILE, BUFFERED
+    }
+
+    private final StreamingMode mode;
+    private final AudioSegmentCache segmentCache;
+
+    private final LongAdder sendfileBytes = new LongAdder();
+    private final LongAdder sendfileRequests = new LongAdder();
+    private final LongAdder sendfileUnsupported = new LongAdder();
+    private final LongAdder bufferedBytes = new LongAdder();
+    private final LongAdder bufferedRequests = new LongAdder();
+    private final LongAdder cachedBytes = new LongAdder();
+    private final LongAdder cachedRequests = new LongAdder();
+
+    // Режим задается системным свойством -Dstreaming.mode=SENDFILE|BUFFERED
+    public AudioStreamingService(@Value("${streaming.mode:SENDFILE}") String mode,
+                                 AudioSegmentCache segmentCache) {
+        this.segmentCache = segmentCache;
+        StreamingMode resolved;
+        try {
+            resolved = StreamingMode.valueOf(mode.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown streaming mode '{}', using SENDFILE", mode);
+            resolved = StreamingMode.SENDFILE;
+        }
+        this.mode = resolved;
+        logger.info("Audio streaming mode: {}", this.mode);
+    }
+
+    public StreamingMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Передает диапазон файла коннектору Tomcat (sendfile): данные идут из page cache в сокет
+     * без копирования через JVM, поток запроса освобождается сразу. Заголовки, включая
+     * Content-Length, должны быть выставлены до вызова. canonicalPath берется из TrackFileIndex -
+     * обращения к файловой системе здесь нет. false - режим BUFFERED или контейнер sendfile для
+     * этого запроса не поддерживает (другой коннектор, маленький файл, HTTP/2 и т.п.),
+     * тогда тело пишет вызывающий.
+     */
+    public boolean trySendfile(HttpServletRequest request, String canonicalPath, long start, long length) {
+        if (mode != StreamingMode.SENDFILE) {
+            return false;
+        }
+        if (!Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            sendfileUnsupported.increment();
+            return false;
+        }
+        request.setAttribute(SENDFILE_FILENAME, canonicalPath);
+        request.setAttribute(SENDFILE_START, start);
+        request.setAttribute(SENDFILE_END, start + length);
+        sendfileRequests.increment();
+        sendfileBytes.add(length);
+        return true;
+    }
+
+    // Отдает диапазон трека: из кэша сегментов, если он включен, иначе напрямую из файла
+    public void writeRange(Integer trackId, File file, long fileLength,
+                           long start, long length, OutputStream out) throws IOException {
+        if (segmentCache.isEnabled()) {
+            writeCached(trackId, file, fileLength, start, length, out);
+        } else {
+            writeBuffered(file, start, length, out);
+        }
+    }
+
+    private void writeCached(Integer trackId, File file, long fileLength,
+                             long start, long length, OutputStream out) throws IOException {
+        cachedRequests.increment();
+        WritableByteChannel target = out instanceof WritableByteChannel
+                ? (WritableByteChannel) out
+                : Channels.newChannel(out);
+
+        int segmentSize = segmentCache.getSegmentSize();
+        long position = start;
+        long end = start + length;
+        while (position < end) {
+            long index = position / segmentSize;
+            ByteBuffer segment = segmentCache.getSegment(trackId, file, fileLength, index);
+            int from = (int) (position - index * segmentSize);
+            int to = (int) Math.min(segment.limit(), end - index * segmentSize);
+            if (from >= to) {
+                break;
+            }
+            segment.limit(to).position(from);
+            while (segment.hasRemaining()) {
+                target.write(segment);
+            }
+            cachedBytes.add(to - from);
+            position += to - from;
+        }
+        out.flush();
+    }
+
+    // Копия через буфер в куче - когда sendfile недоступен
+    public void writeBuffered(File file, long start, long length, OutputStream out) throws IOException {
+        bufferedRequests.increment();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            raf.seek(start);
+            long bytesRemaining = length;
+            int bytesRead;
+            while (bytesRemaining > 0 && (bytesRead = raf.read(buffer, 0,
+                    (int) Math.min(buffer.length, bytesRemaining))) != -1) {
+                out.write(buffer, 0, bytesRead);
+                bytesRemaining -= bytesRead;
+                bufferedBytes.add(bytesRead);
+            }
+        }
+        out.flush();
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", mode.name());
+        stats.put("sendfileBytes", sendfileBytes.sum());
+        stats.put("sendfileRequests", sendfileRequests.sum());
+        stats.put("sendfileUnsupported", sendfileUnsupported.sum());
+        stats.put("bufferedBytes", bufferedBytes.sum());
+        stats.put("bufferedRequests", bufferedRequests.sum());
+        stats.put("cachedBytes", cachedBytes.sum());
+        stats.put("cachedRequests", cachedRequests.sum());
+        return stats;
+    }
+}
@@ -1,23 +1,81 @@
 package com.musicstreaming.service;
 
+import com.musicstreaming.dto.SessionUser;
 import com.musicstreaming.model.User;
+import com.musicstreaming.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.util.List;
 
+/**
+ * Текущий пользователь. Два режима (auth.mode): session - SessionUser в HttpSession контейнера,
+ * token - подписанный токен в cookie или заголовке Authorization, который AuthFilter проверяет
+ * на каждом запросе без серверного состояния (см. AuthTokenService).
+ */
 @Service
 public class AuthService {
 
+    private static final Logger logger = LoggerFactory.getLogger(AuthService.class);
+
     private static final String USER_SESSION_ATTRIBUTE = "loggedInUser";
+    // Результат проверки токена на время запроса
+    private static final String USER_REQUEST_ATTRIBUTE = AuthService.class.getName() + ".user";
+    private static final String TOKEN_REQUEST_ATTRIBUTE = AuthService.class.getName() + ".token";
+    private static final Object ANONYMOUS = new Object();
+
+    private final EntitlementService entitlementService;
+    private final UserRepository userRepository;
+    private final AuthTokenService tokenService;
+    private final boolean stateless;
+
+    @Autowired
+    public AuthService(EntitlementService entitlementService, UserRepository userRepository,
+                       AuthTokenService tokenService, @Value("${auth.mode:session}") String mode) {
+        this.entitlementService = entitlementService;
+        this.userRepository = userRepository;
+        this.tokenService = tokenService;
+        this.stateless = "token".equalsIgnoreCase(mode);
+        logger.info("Authentication mode: {}", stateless ? "token" : "session");
+    }
 
+    // В сессию или токен кладется компактный SessionUser, а не сущность User
     public void login(HttpServletRequest request, User user) {
+        if (stateless) {
+            // Версия прав в токене не используется - она не совпадает между узлами
+            SessionUser sessionUser = SessionUser.of(user, 0);
+            tokenService.writeCookie(currentResponse(), tokenService.issue(sessionUser));
+            request.setAttribute(USER_REQUEST_ATTRIBUTE, sessionUser);
+            return;
+        }
+        SessionUser sessionUser = SessionUser.of(user, entitlementService.getVersion(user.getId()));
         HttpSession session = request.getSession(true);
-        session.setAttribute(USER_SESSION_ATTRIBUTE, user);
+        session.setAttribute(USER_SESSION_ATTRIBUTE, sessionUser);
         session.setMaxInactiveInterval(30 * 60); // 30 minutes
     }
 
     public void logout(HttpServletRequest request) {
+        if (stateless) {
+            // Токен остается действительным до истечения - отзываем его через список запрета
+            getCurrentUser(request);
+            Object token = request.getAttribute(TOKEN_REQUEST_ATTRIBUTE);
+            if (token instanceof AuthTokenService.Token) {
+                tokenService.revoke((AuthTokenService.Token) token);
+            }
+            request.setAttribute(USER_REQUEST_ATTRIBUTE, ANONYMOUS);
+            request.removeAttribute(TOKEN_REQUEST_ATTRIBUTE);
+            tokenService.clearCookie(currentResponse());
+            return;
+        }
         HttpSession session = request.getSession(false);
         if (session != null) {
             session.removeAttribute(USER_SESSION_ATTRIBUTE);
@@ -25,12 +83,98 @@ public class AuthService {
         }
     }
 
-    public User getCurrentUser(HttpServletRequest request) {
+    public SessionUser getCurrentUser(HttpServletRequest request) {
+        if (stateless) {
+            Object user = request.getAttribute(USER_REQUEST_ATTRIBUTE);
+            if (user == null) {
+                // Запрос не прошел через AuthFilter - проверяем без перевыпуска токена
+                authenticate(request, null);
+                user = request.getAttribute(USER_REQUEST_ATTRIBUTE);
+            }
+            return user instanceof SessionUser ? (SessionUser) user : null;
+        }
         HttpSession session = request.getSession(false);
-        if (session != null) {
-            return (User) session.getAttribute(USER_SESSION_ATTRIBUTE);
+        if (session == null) {
+            return null;
+        }
+        Object attribute = session.getAttribute(USER_SESSION_ATTRIBUTE);
+        if (!(attribute instanceof SessionUser)) {
+            return null;
+        }
+        SessionUser user = (SessionUser) attribute;
+        long version = entitlementService.getVersion(user.getId());
+        if (user.getEntitlementVersion() == version) {
+            return user;
+        }
+        return refresh(session, user, version);
+    }
+
+    // Права пользователя менялись после входа (подписка, роль) - имя и роль перечитываются из базы
+    private SessionUser refresh(HttpSession session, SessionUser user, long version) {
+        SessionUser refreshed = reload(user, version);
+        if (refreshed == null) {
+            session.removeAttribute(USER_SESSION_ATTRIBUTE);
+            return null;
+        }
+        session.setAttribute(USER_SESSION_ATTRIBUTE, refreshed);
+        return refreshed;
+    }
+
+    private SessionUser reload(SessionUser user, long version) {
+        List<Object[]> rows = userRepository.findSessionFields(user.getId());
+        if (rows.isEmpty()) {
+            return null;
+        }
+        Object[] row = rows.get(0);
+        return new SessionUser(user.getId(), (String) row[0], (User.UserRole) row[1], version);
+    }
+
+    /**
+     * Проверка токена в режиме token; вызывается из AuthFilter до остальных проверок.
+     * Обычный запрос - только подпись, срок и список запрета. В базу идем, лишь когда токен пора
+     * перевыпустить (половина срока жизни, смена ключа). Версия прав здесь не сравнивается: она
+     * своя на каждом узле, и без липких сессий каждый запрос перечитывал бы пользователя.
+     * Смена прав (роль, подписка) через EntitlementService.invalidate отзывает выданные раньше
+     * токены пользователя: на этом узле сразу, на остальных - при перевыпуске, то есть не позже
+     * половины срока жизни. Свои изменения (подписка, профиль) пользователь видит сразу - там
+     * вызывается login, и новый токен выдается уже после отсечки.
+     */
+    public void authenticate(HttpServletRequest request, HttpServletResponse response) {
+        if (!stateless) {
+            return;
+        }
+        AuthTokenService.Token token = tokenService.verify(tokenService.readToken(request));
+        SessionUser user = token != null ? token.getUser() : null;
+        if (user != null && response != null && tokenService.needsRenewal(token)) {
+            user = reload(user, 0);
+            if (user != null) {
+                tokenService.writeCookie(response, tokenService.issue(user));
+            } else {
+                // Пользователь удален - токен отзывается
+                tokenService.revoke(token);
+                tokenService.clearCookie(response);
+                token = null;
+            }
+        }
+        request.setAttribute(USER_REQUEST_ATTRIBUTE, user != null ? user : ANONYMOUS);
+        if (token != null) {
+            request.setAttribute(TOKEN_REQUEST_ATTRIBUTE, token);
+        }
+    }
+
+    public boolean isStateless() {
+        return stateless;
+    }
+
+    // Вход и выход вызываются из контроллеров - ответ берется из контекста запроса Spring MVC
+    private static HttpServletResponse currentResponse() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        HttpServletResponse response = attributes instanceof ServletRequestAttributes
+                ? ((ServletRequestAttributes) attributes).getResponse() : null;
+        if (response == null) {
+            throw new IllegalStateException("No current response to write the auth token cookie");
         }
-        return null;
+        return response;
     }
 
     public boolean isAuthenticated(HttpServletRequest request) {
@@ -38,12 +182,12 @@ public class AuthService {
     }
 
     public boolean hasRole(HttpServletRequest request, User.UserRole role) {
-        User user = getCurrentUser(request);
+        SessionUser user = getCurrentUser(request);
         return user != null && user.getRole() == role;
     }
 
     public boolean hasAnyRole(HttpServletRequest request, User.UserRole... roles) {
-        User user = getCurrentUser(request);
+        SessionUser user = getCurrentUser(request);
         if (user == null) return false;
 
         for (User.UserRole role : roles) {
@@ -61,7 +205,7 @@ public class AuthService {
     }
 
     public boolean canUploadTracks(HttpServletRequest request) {
-        User user = getCurrentUser(request);
+        SessionUser user = getCurrentUser(request);
         return user != null && user.canUploadTracks();
     }
-}
\ No newline at end of file
+}
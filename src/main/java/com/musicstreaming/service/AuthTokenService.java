@@ -0,0 +1,354 @@
+package com.musicstreaming.service;
+
+import com.musicstreaming.dto.SessionUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Подписанные токены для входа без серверной сессии: узлы за балансировщиком проверяют токен
+ * сами, без обращения к базе и без общего хранилища сессий.
+ * Токен - base64url от (формат, ключ, id токена, выдан и истекает в мс, SessionUser.toBytes, HMAC-SHA256).
+ * Ключей может быть несколько: подписывает активный, проверяют все настроенные, поэтому ротация -
+ * добавить новый ключ на все узлы, сделать его активным, а старый убрать через срок жизни токена.
+ * Отозванные при выходе токены лежат в списке запрета в памяти до своего истечения.
+ * Смена прав пользователя (роль, подписка) отзывает все его токены, выданные раньше: по id
+ * пользователя хранится момент, до которого токены не принимаются (см. EntitlementService.invalidate).
+ * Список запрета и эта отсечка свои на каждом узле - другие узлы узнают о смене прав при перевыпуске.
+ */
+@Service
+public class AuthTokenService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuthTokenService.class);
+
+    public static final String COOKIE_NAME = "AUTH_TOKEN";
+    private static final String BEARER_PREFIX = "Bearer ";
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int MAC_BYTES = 32;
+    private static final int MIN_SECRET_BYTES = 32;
+    private static final byte FORMAT = 1;
+    // Формат, ключ, id токена, выдан, истекает
+    private static final int HEADER_BYTES = 1 + 1 + Long.BYTES + Long.BYTES + Long.BYTES;
+    private static final int LATENCY_BUCKETS = 32;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SigningKey[] keys = new SigningKey[256];
+    private final SigningKey activeKey;
+    private final long ttlMillis;
+    private final long ttlSeconds;
+    private final boolean secureCookie;
+    private final SecureRandom random = new SecureRandom();
+
+    // Id отозванного токена -> момент истечения в мс; после истечения запись не нужна
+    private final Map<Long, Long> denyList = new ConcurrentHashMap<>();
+    // Id пользователя -> момент в мс, раньше которого его токены не принимаются; живет срок жизни токена
+    private final Map<Integer, Long> userNotBefore = new ConcurrentHashMap<>();
+
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder verified = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder badSignature = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder revoked = new LongAdder();
+    private final AtomicLongArray latency = new AtomicLongArray(LATENCY_BUCKETS);
+
+    @Autowired
+    public AuthTokenService(@Value("${auth.token.keys:}") String keys,
+                            @Value("${auth.token.activeKey:-1}") int activeKeyId,
+                            @Value("${auth.token.ttlMillis:1800000}") long ttlMillis,
+                            @Value("${auth.token.secureCookie:false}") boolean secureCookie) {
+        this.ttlSeconds = Math.max(60, Duration.ofMillis(ttlMillis).getSeconds());
+        this.ttlMillis = Duration.ofSeconds(ttlSeconds).toMillis();
+        this.secureCookie = secureCookie;
+
+        int lastKeyId = -1;
+        for (String entry : keys.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = entry.trim().split(":", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("auth.token.keys entries must be <id>:<base64 secret>");
+            }
+            int id = Integer.parseInt(parts[0].trim());
+            if (id < 0 || id >= this.keys.length) {
+                throw new IllegalArgumentException("Token key id must be 0..255: " + id);
+            }
+            this.keys[id] = new SigningKey(id, Base64.getDecoder().decode(parts[1].trim()));
+            lastKeyId = id;
+        }
+        if (lastKeyId < 0) {
+            // Без настроенных ключей токены не переживут перезапуск и не проверятся на других узлах
+            byte[] secret = new byte[MIN_SECRET_BYTES];
+            random.nextBytes(secret);
+            this.keys[0] = new SigningKey(0, secret);
+            lastKeyId = 0;
+            logger.warn("auth.token.keys is not set, using a random per-process token key");
+        }
+        int active = activeKeyId >= 0 ? activeKeyId : lastKeyId;
+        if (active >= this.keys.length || this.keys[active] == null) {
+            throw new IllegalArgumentException("Active token key " + active + " is not configured");
+        }
+        this.activeKey = this.keys[active];
+    }
+
+    public String issue(SessionUser user) {
+        long now = System.currentTimeMillis();
+        byte[] principal = user.toBytes();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + principal.length + MAC_BYTES)
+                .put(FORMAT)
+                .put((byte) activeKey.id)
+                .putLong(random.nextLong())
+                .putLong(now)
+                .putLong(now + ttlMillis)
+                .put(principal);
+        byte[] token = buffer.array();
+        Mac mac = activeKey.mac.get();
+        mac.update(token, 0, token.length - MAC_BYTES);
+        try {
+            mac.doFinal(token, token.length - MAC_BYTES);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to sign auth token", e);
+        }
+        issued.increment();
+        return ENCODER.encodeToString(token);
+    }
+
+    // Подпись, срок и список запрета - без обращения к базе; null, если токен не принят
+    public Token verify(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        long started = System.nanoTime();
+        Token token = check(value);
+        long elapsed = System.nanoTime() - started;
+        latency.incrementAndGet(Math.min(LATENCY_BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(1, elapsed))));
+        return token;
+    }
+
+    private Token check(String value) {
+        byte[] bytes;
+        try {
+            bytes = DECODER.decode(value);
+        } catch (IllegalArgumentException e) {
+            malformed.increment();
+            return null;
+        }
+        if (bytes.length <= HEADER_BYTES + MAC_BYTES || bytes[0] != FORMAT) {
+            malformed.increment();
+            return null;
+        }
+        SigningKey key = keys[bytes[1] & 0xFF];
+        if (key == null) {
+            badSignature.increment();
+            return null;
+        }
+        Mac mac = key.mac.get();
+        mac.update(bytes, 0, bytes.length - MAC_BYTES);
+        byte[] expected = mac.doFinal();
+        if (!MessageDigest.isEqual(expected, Arrays.copyOfRange(bytes, bytes.length - MAC_BYTES, bytes.length))) {
+            badSignature.increment();
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 2, HEADER_BYTES - 2);
+        long id = buffer.getLong();
+        long issuedAt = buffer.getLong();
+        long expiresAt = buffer.getLong();
+        if (expiresAt <= System.currentTimeMillis()) {
+            expired.increment();
+            return null;
+        }
+        if (!denyList.isEmpty() && denyList.containsKey(id)) {
+            revoked.increment();
+            return null;
+        }
+        SessionUser user;
+        try {
+            user = SessionUser.fromBytes(Arrays.copyOfRange(bytes, HEADER_BYTES, bytes.length - MAC_BYTES));
+        } catch (IllegalArgumentException e) {
+            malformed.increment();
+            return null;
+        }
+        if (!userNotBefore.isEmpty()) {
+            Long notBefore = userNotBefore.get(user.getId());
+            if (notBefore != null && issuedAt < notBefore) {
+                revoked.increment();
+                return null;
+            }
+        }
+        verified.increment();
+        return new Token(id, key.id, issuedAt, expiresAt, user);
+    }
+
+    // Перевыпуск после половины срока жизни или если токен подписан неактивным ключом
+    public boolean needsRenewal(Token token) {
+        return token.keyId != activeKey.id
+                || System.currentTimeMillis() - token.issuedAt > ttlMillis / 2;
+    }
+
+    public void revoke(Token token) {
+        denyList.put(token.id, token.expiresAt);
+    }
+
+    // Токены пользователя, выданные до этого момента, больше не принимаются; следующий запрос - повторный вход
+    public void revokeUser(Integer userId) {
+        if (userId != null) {
+            userNotBefore.put(userId, System.currentTimeMillis());
+        }
+    }
+
+    @Scheduled(fixedDelay = 60_000)
+    public void purgeDenyList() {
+        long now = System.currentTimeMillis();
+        denyList.values().removeIf(expiresAt -> expiresAt <= now);
+        // Все токены, выданные до отсечки, к этому времени истекли сами
+        userNotBefore.values().removeIf(notBefore -> notBefore + ttlMillis <= now);
+    }
+
+    // Заголовок Authorization для API-клиентов, иначе cookie браузера
+    public String readToken(HttpServletRequest request) {
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (header != null && header.startsWith(BEARER_PREFIX)) {
+            return header.substring(BEARER_PREFIX.length()).trim();
+        }
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (COOKIE_NAME.equals(cookie.getName())) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    public void writeCookie(HttpServletResponse response, String token) {
+        response.addHeader(HttpHeaders.SET_COOKIE, cookie(token, ttlSeconds).toString());
+    }
+
+    public void clearCookie(HttpServletResponse response) {
+        response.addHeader(HttpHeaders.SET_COOKIE, cookie("", 0).toString());
+    }
+
+    private ResponseCookie cookie(String value, long maxAgeSeconds) {
+        return ResponseCookie.from(COOKIE_NAME, value)
+                .path("/")
+                .httpOnly(true)
+                .secure(secureCookie)
+                .sameSite("Lax")
+                .maxAge(maxAgeSeconds)
+                .build();
+    }
+
+    public Map<String, Object> getStatistics() {
+        long total = verified.sum() + malformed.sum() + badSignature.sum() + expired.sum() + revoked.sum();
+        int configuredKeys = 0;
+        for (SigningKey key : keys) {
+            if (key != null) {
+                configuredKeys++;
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("activeKey", activeKey.id);
+        stats.put("keys", configuredKeys);
+        stats.put("ttlSeconds", ttlSeconds);
+        stats.put("issued", issued.sum());
+        stats.put("verified", verified.sum());
+        stats.put("malformed", malformed.sum());
+        stats.put("badSignature", badSignature.sum());
+        stats.put("expired", expired.sum());
+        stats.put("revoked", revoked.sum());
+        stats.put("denyListEntries", denyList.size());
+        stats.put("revokedUsers", userNotBefore.size());
+        stats.put("verifyP50Micros", percentileMicros(total, 0.50));
+        stats.put("verifyP99Micros", percentileMicros(total, 0.99));
+        return stats;
+    }
+
+    // Верхняя граница корзины, в которую попал перцентиль
+    private double percentileMicros(long total, double percentile) {
+        if (total == 0) {
+            return 0.0;
+        }
+        long threshold = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            seen += latency.get(i);
+            if (seen >= threshold) {
+                return (2L << i) / 1000.0;
+            }
+        }
+        return (2L << (LATENCY_BUCKETS - 1)) / 1000.0;
+    }
+
+    public static final class Token {
+        private final long id;
+        private final int keyId;
+        private final long issuedAt;
+        private final long expiresAt;
+        private final SessionUser user;
+
+        Token(long id, int keyId, long issuedAt, long expiresAt, SessionUser user) {
+            this.id = id;
+            this.keyId = keyId;
+            this.issuedAt = issuedAt;
+            this.expiresAt = expiresAt;
+            this.user = user;
+        }
+
+        public long getId() { return id; }
+        public int getKeyId() { return keyId; }
+        public long getIssuedAt() { return issuedAt; }
+        public long getExpiresAt() { return expiresAt; }
+        public SessionUser getUser() { return user; }
+    }
+
+    // Mac не потокобезопасен и дорог в создании - по экземпляру на поток
+    private static final class SigningKey {
+        private final int id;
+        private final ThreadLocal<Mac> mac;
+
+        SigningKey(int id, byte[] secret) {
+            if (secret.length < MIN_SECRET_BYTES) {
+                throw new IllegalArgumentException("Token key " + id + " must be at least " + MIN_SECRET_BYTES + " bytes");
+            }
+            SecretKeySpec spec = new SecretKeySpec(secret, ALGORITHM);
+            this.id = id;
+            this.mac = ThreadLocal.withInitial(() -> {
+                try {
+                    Mac instance = Mac.getInstance(ALGORITHM);
+                    instance.init(spec);
+                    return instance;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException("HMAC is not available", e);
+                }
+            });
+        }
+    }
+}
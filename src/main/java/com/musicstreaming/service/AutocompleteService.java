@@ -0,0 +1,348 @@
+package com.musicstreaming.service;
+
+import com.musicstreaming.repository.AlbumRepository;
+import com.musicstreaming.repository.AlbumStatisticsRepository;
+import com.musicstreaming.repository.ArtistRepository;
+import com.musicstreaming.repository.TrackRepository;
+import com.musicstreaming.repository.TrackStatisticsRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Подсказки при вводе: префиксное дерево по названиям треков, альбомов и именам исполнителей.
+ * В каждом узле заранее лежат top-N подсказок по популярности, поэтому запрос - это спуск
+ * по символам префикса без сортировок. Дерево неизменяемое и пересобирается в фоне;
+ * читатели видят старый снимок, пока новый не готов.
+ */
+@Service
+public class AutocompleteService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AutocompleteService.class);
+
+    public static final int MAX_SUGGESTIONS = 10;
+    // Ключи длиннее не нужны для подсказок, а размер дерева ограничивают;
+    // более длинный префикс ищется по первым MAX_KEY_LENGTH символам и дофильтровывается целиком
+    private static final int MAX_KEY_LENGTH = 24;
+    private static final int LATENCY_BUCKETS = 32;
+
+    private final TrackRepository trackRepository;
+    private final ArtistRepository artistRepository;
+    private final AlbumRepository albumRepository;
+    private final TrackStatisticsRepository trackStatisticsRepository;
+    private final AlbumStatisticsRepository albumStatisticsRepository;
+
+    private volatile Trie trie = Trie.EMPTY;
+
+    private final LongAdder queries = new LongAdder();
+    // Гистограмма времени запроса по степеням двойки наносекунд - для оценки p99
+    private final AtomicLongArray latency = new AtomicLongArray(LATENCY_BUCKETS);
+    private volatile long lastBuildMillis;
+
+    public static final class Suggestion {
+        private final String type;
+        private final int id;
+        private final String title;
+        private final String subtitle;
+        private final long popularity;
+
+        Suggestion(String type, int id, String title, String subtitle, long popularity) {
+            this.type = type;
+            this.id = id;
+            this.title = title;
+            this.subtitle = subtitle;
+            this.popularity = popularity;
+        }
+
+        public String getType() { return type; }
+        public int getId() { return id; }
+        public String getTitle() { return title; }
+        public String getSubtitle() { return subtitle; }
+        public long getPopularity() { return popularity; }
+    }
+
+    @Autowired
+    public AutocompleteService(TrackRepository trackRepository,
+                               ArtistRepository artistRepository,
+                               AlbumRepository albumRepository,
+                               TrackStatisticsRepository trackStatisticsRepository,
+                               AlbumStatisticsRepository albumStatisticsRepository) {
+        this.trackRepository = trackRepository;
+        this.artistRepository = artistRepository;
+        this.albumRepository = albumRepository;
+        this.trackStatisticsRepository = trackStatisticsRepository;
+        this.albumStatisticsRepository = albumStatisticsRepository;
+    }
+
+    public List<Suggestion> suggest(String prefix, int limit) {
+        long started = System.nanoTime();
+        List<Suggestion> result = trie.lookup(CatalogSearchIndex.normalize(prefix),
+                Math.max(1, Math.min(limit, MAX_SUGGESTIONS)));
+        long elapsed = System.nanoTime() - started;
+        queries.increment();
+        latency.incrementAndGet(Math.min(LATENCY_BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(1, elapsed))));
+        return result;
+    }
+
+    @Scheduled(initialDelayString = "${autocomplete.initialDelayMillis:5000}",
+               fixedDelayString = "${autocomplete.rebuildIntervalMillis:300000}")
+    public void rebuild() {
+        long started = System.currentTimeMillis();
+        try {
+            List<Suggestion> suggestions = loadSuggestions();
+            Trie built = Trie.build(suggestions);
+            trie = built;
+            lastBuildMillis = System.currentTimeMillis() - started;
+            logger.info("Autocomplete trie built: {} suggestions, {} nodes in {} ms",
+                    suggestions.size(), built.nodeCount(), lastBuildMillis);
+        } catch (RuntimeException e) {
+            logger.error("Failed to rebuild autocomplete trie, keeping previous one", e);
+        }
+    }
+
+    private List<Suggestion> loadSuggestions() {
+        Map<Integer, Long> trackPlays = toCounts(trackStatisticsRepository.sumListenCountsByTrack());
+        Map<Integer, Long> albumPlays = toCounts(albumStatisticsRepository.sumListenCountsByAlbum());
+        Map<Integer, Long> artistPlays = new HashMap<>();
+        List<Suggestion> suggestions = new ArrayList<>();
+
+        // id, название, id исполнителя, имя исполнителя
+        for (Object[] row : trackRepository.findAutocompleteTracks()) {
+            Integer trackId = (Integer) row[0];
+            long plays = trackPlays.getOrDefault(trackId, 0L);
+            suggestions.add(new Suggestion("track", trackId, (String) row[1], (String) row[3], plays));
+            if (row[2] != null) {
+                artistPlays.merge((Integer) row[2], plays, Long::sum);
+            }
+        }
+        for (Object[] row : artistRepository.findSearchableArtists()) {
+            Integer artistId = (Integer) row[0];
+            suggestions.add(new Suggestion("artist", artistId, (String) row[1], null,
+                    artistPlays.getOrDefault(artistId, 0L)));
+        }
+        for (Object[] row : albumRepository.findSearchableAlbums()) {
+            Integer albumId = (Integer) row[0];
+            suggestions.add(new Suggestion("album", albumId, (String) row[1], (String) row[2],
+                    albumPlays.getOrDefault(albumId, 0L)));
+        }
+        return suggestions;
+    }
+
+    private static Map<Integer, Long> toCounts(List<Object[]> rows) {
+        Map<Integer, Long> counts = new HashMap<>(rows.size() * 2);
+        for (Object[] row : rows) {
+            counts.put((Integer) row[0], ((Number) row[1]).longValue());
+        }
+        return counts;
+    }
+
+    public Map<String, Object> getStatistics() {
+        long total = queries.sum();
+        Trie current = trie;
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("suggestions", current.suggestions.length);
+        stats.put("nodes", current.nodeCount());
+        stats.put("lastBuildMillis", lastBuildMillis);
+        stats.put("queries", total);
+        stats.put("p50Micros", percentileMicros(total, 0.50));
+        stats.put("p99Micros", percentileMicros(total, 0.99));
+        return stats;
+    }
+
+    // Верхняя граница корзины, в которую попал перцентиль
+    private double percentileMicros(long total, double percentile) {
+        if (total == 0) {
+            return 0.0;
+        }
+        long threshold = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            seen += latency.get(i);
+            if (seen >= threshold) {
+                return (2L << i) / 1000.0;
+            }
+        }
+        return (2L << (LATENCY_BUCKETS - 1)) / 1000.0;
+    }
+
+    /**
+     * Сжатое неизменяемое дерево: узлы пронумерованы обходом в ширину, поэтому дети
+     * каждого узла идут подряд и ищутся бинарным поиском по labels.
+     */
+    private static final class Trie {
+
+        static final Trie EMPTY = build(Collections.emptyList());
+
+        final Suggestion[] suggestions;
+        final char[] labels;
+        final int[] firstChild;
+        final int[] childCount;
+        final int[] topStart;
+        final byte[] topCount;
+        final int[] tops;
+
+        private Trie(Suggestion[] suggestions, char[] labels, int[] firstChild, int[] childCount,
+                     int[] topStart, byte[] topCount, int[] tops) {
+            this.suggestions = suggestions;
+            this.labels = labels;
+            this.firstChild = firstChild;
+            this.childCount = childCount;
+            this.topStart = topStart;
+            this.topCount = topCount;
+            this.tops = tops;
+        }
+
+        int nodeCount() {
+            return labels.length;
+        }
+
+        List<Suggestion> lookup(String prefix, int limit) {
+            if (prefix.isEmpty() || labels.length == 0) {
+                return Collections.emptyList();
+            }
+            int depth = Math.min(prefix.length(), MAX_KEY_LENGTH);
+            int node = 0;
+            for (int i = 0; i < depth; i++) {
+                int from = firstChild[node];
+                int pos = Arrays.binarySearch(labels, from, from + childCount[node], prefix.charAt(i));
+                if (pos < 0) {
+                    return Collections.emptyList();
+                }
+                node = pos;
+            }
+            boolean truncated = depth < prefix.length();
+            List<Suggestion> result = new ArrayList<>(Math.min(limit, topCount[node]));
+            for (int i = 0; i < topCount[node] && result.size() < limit; i++) {
+                Suggestion suggestion = suggestions[tops[topStart[node] + i]];
+                if (!truncated || matches(CatalogSearchIndex.normalize(suggestion.getTitle()), prefix)) {
+                    result.add(suggestion);
+                }
+            }
+            return result;
+        }
+
+        // Префикс совпадает с началом названия или одного из его слов
+        private static boolean matches(String label, String prefix) {
+            for (int start = 0; start + prefix.length() <= label.length(); start++) {
+                if (isKeyStart(label, start) && label.startsWith(prefix, start)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isKeyStart(String label, int start) {
+            return start == 0 || (!Character.isLetterOrDigit(label.charAt(start - 1))
+                    && Character.isLetterOrDigit(label.charAt(start)));
+        }
+
+        static Trie build(List<Suggestion> source) {
+            // Вставляем по убыванию популярности: первые N попавших в узел и есть его top-N
+            Suggestion[] suggestions = source.toArray(new Suggestion[0]);
+            Arrays.sort(suggestions, Comparator.comparingLong(Suggestion::getPopularity).reversed()
+                    .thenComparing(Suggestion::getTitle, Comparator.nullsLast(Comparator.naturalOrder())));
+
+            BuildNode root = new BuildNode();
+            for (int s = 0; s < suggestions.length; s++) {
+                String label = CatalogSearchIndex.normalize(suggestions[s].getTitle());
+                // Подсказка находится и по началу названия, и по началу любого слова в нем
+                for (int start = 0; start < label.length(); start++) {
+                    if (isKeyStart(label, start)) {
+                        insert(root, label, start, s);
+                    }
+                }
+            }
+            return freeze(root, suggestions);
+        }
+
+        private static void insert(BuildNode root, String label, int start, int suggestion) {
+            BuildNode node = root;
+            int end = Math.min(label.length(), start + MAX_KEY_LENGTH);
+            for (int i = start; i < end; i++) {
+                node = node.children.computeIfAbsent(label.charAt(i), c -> new BuildNode());
+                node.offer(suggestion);
+            }
+        }
+
+        private static Trie freeze(BuildNode root, Suggestion[] suggestions) {
+            List<BuildNode> order = new ArrayList<>();
+            List<Character> nodeLabels = new ArrayList<>();
+            Deque<BuildNode> queue = new ArrayDeque<>();
+            order.add(root);
+            nodeLabels.add('\0');
+            queue.add(root);
+            Map<BuildNode, Integer> first = new HashMap<>();
+            while (!queue.isEmpty()) {
+                BuildNode node = queue.poll();
+                first.put(node, order.size());
+                for (Map.Entry<Character, BuildNode> child : node.children.entrySet()) {
+                    order.add(child.getValue());
+                    nodeLabels.add(child.getKey());
+                    queue.add(child.getValue());
+                }
+            }
+
+            int n = order.size();
+            char[] labels = new char[n];
+            int[] firstChild = new int[n];
+            int[] childCount = new int[n];
+            int[] topStart = new int[n];
+            byte[] topCount = new byte[n];
+            int totalTops = 0;
+            for (BuildNode node : order) {
+                totalTops += node.size;
+            }
+            int[] tops = new int[totalTops];
+            int offset = 0;
+            for (int i = 0; i < n; i++) {
+                BuildNode node = order.get(i);
+                labels[i] = nodeLabels.get(i);
+                firstChild[i] = first.get(node);
+                childCount[i] = node.children.size();
+                topStart[i] = offset;
+                topCount[i] = (byte) node.size;
+                System.arraycopy(node.top, 0, tops, offset, node.size);
+                offset += node.size;
+            }
+            // У корня нет метки; labels[0] не участвует в поиске
+            return new Trie(suggestions, labels, firstChild, childCount, topStart, topCount, tops);
+        }
+    }
+
+    private static final class BuildNode {
+        // TreeMap: дети в порядке символов, как требует бинарный поиск после заморозки
+        final TreeMap<Character, BuildNode> children = new TreeMap<>();
+        final int[] top = new int[MAX_SUGGESTIONS];
+        int size;
+
+        void offer(int suggestion) {
+            if (size == top.length) {
+                return;
+            }
+            // Одно название может пройти через узел несколько раз (повтор слова)
+            for (int i = 0; i < size; i++) {
+                if (top[i] == suggestion) {
+                    return;
+                }
+            }
+            top[size++] = suggestion;
+        }
+    }
+}
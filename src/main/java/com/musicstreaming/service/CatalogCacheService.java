@@ -0,0 +1,87 @@
+package com.musicstreaming.service;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Статистика кэша второго уровня Hibernate по регионам (справочники каталога и кэш запросов).
+ * Вытеснение при изменениях делает сам Hibernate: save/delete обновляют запись сущности,
+ * массовые UPDATE (модерация трека) сбрасывают регион, кэш запросов проверяет метки изменения таблиц.
+ */
+@Service
+public class CatalogCacheService {
+
+    private static final String[] QUERY_REGIONS = {"catalog.queries", "default-query-results-region"};
+
+    private final SessionFactory sessionFactory;
+    private final CacheManager hibernateCacheManager;
+
+    @Autowired
+    public CatalogCacheService(EntityManagerFactory entityManagerFactory, CacheManager hibernateCacheManager) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+        this.hibernateCacheManager = hibernateCacheManager;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Statistics statistics = sessionFactory.getStatistics();
+
+        Map<String, Object> regions = new LinkedHashMap<>();
+        for (String name : statistics.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics region = statistics.getDomainDataRegionStatistics(name);
+            if (region != null) {
+                regions.put(name, regionStatistics(name, region));
+            }
+        }
+        for (String name : QUERY_REGIONS) {
+            CacheRegionStatistics region = statistics.getQueryRegionStatistics(name);
+            if (region != null) {
+                regions.put(name, regionStatistics(name, region));
+            }
+        }
+
+        long queryHits = statistics.getQueryCacheHitCount();
+        long queryMisses = statistics.getQueryCacheMissCount();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", statistics.isStatisticsEnabled());
+        stats.put("hits", statistics.getSecondLevelCacheHitCount());
+        stats.put("misses", statistics.getSecondLevelCacheMissCount());
+        stats.put("puts", statistics.getSecondLevelCachePutCount());
+        stats.put("queryHits", queryHits);
+        stats.put("queryMisses", queryMisses);
+        stats.put("queryHitRatio", queryHits + queryMisses == 0 ? 0.0 : (double) queryHits / (queryHits + queryMisses));
+        stats.put("timestampHits", statistics.getUpdateTimestampsCacheHitCount());
+        stats.put("timestampPuts", statistics.getUpdateTimestampsCachePutCount());
+        stats.put("regions", regions);
+        return stats;
+    }
+
+    private Map<String, Object> regionStatistics(String name, CacheRegionStatistics region) {
+        long hits = region.getHitCount();
+        long misses = region.getMissCount();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRatio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        stats.put("puts", region.getPutCount());
+        stats.put("entries", estimatedSize(name));
+        return stats;
+    }
+
+    // JCache не отдает размер - спрашиваем у Caffeine напрямую
+    private long estimatedSize(String name) {
+        Cache<Object, Object> cache = hibernateCacheManager.getCache(name);
+        if (cache == null) {
+            return 0;
+        }
+        return cache.unwrap(com.github.benmanes.caffeine.cache.Cache.class).estimatedSize();
+    }
+}
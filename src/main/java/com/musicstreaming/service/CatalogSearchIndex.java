@@ -0,0 +1,673 @@
+package com.musicstreaming.service;
+
+import com.musicstreaming.repository.AlbumRepository;
+import com.musicstreaming.repository.AlbumStatisticsRepository;
+import com.musicstreaming.repository.ArtistRepository;
+import com.musicstreaming.repository.TrackRepository;
+import com.musicstreaming.repository.TrackStatisticsRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Поисковый индекс каталога с ранжированием.
+ * Треки - по названию и имени исполнителя (только прошедшие модерацию), исполнители - по имени
+ * и описанию, альбомы - по названию и имени исполнителя. Тексты приводятся через SearchText
+ * (регистр, транслитерация), поэтому "kino" находит "Кино".
+ * Кандидаты: совпадение подстроки по триграммам документа плюс слова словаря в пределах
+ * 1-2 правок (фильтр по общим триграммам, затем ограниченный Левенштейн). Оценка - качество
+ * совпадения плюс логарифм числа прослушиваний. Индекс отдает id; сущности дочитываются по ключу.
+ * Запросы короче триграммы ищутся по началам слов (индекс префиксов из 1-2 символов).
+ * Изменения каталога попадают в индекс после фиксации транзакции, откат индекс не трогает.
+ */
+@Service
+public class CatalogSearchIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(CatalogSearchIndex.class);
+
+    // Разделитель полей документа: не встречается в запросах, поэтому совпадение не "склеит" два поля
+    private static final char FIELD_SEPARATOR = '\u0001';
+    private static final int MAX_RESULTS = 200;
+    // Вклад популярности: +0.15 за каждый порядок числа прослушиваний
+    private static final double POPULARITY_WEIGHT = 0.15;
+
+    private final TrackRepository trackRepository;
+    private final ArtistRepository artistRepository;
+    private final AlbumRepository albumRepository;
+    private final TrackStatisticsRepository trackStatisticsRepository;
+    private final AlbumStatisticsRepository albumStatisticsRepository;
+
+    private final TextIndex tracks = new TextIndex();
+    private final TextIndex artists = new TextIndex();
+    private final TextIndex albums = new TextIndex();
+    private volatile boolean ready;
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder fuzzyMatches = new LongAdder();
+    private final LongAdder queryNanos = new LongAdder();
+    private volatile long lastBuildMillis;
+
+    @Autowired
+    public CatalogSearchIndex(TrackRepository trackRepository,
+                              ArtistRepository artistRepository,
+                              AlbumRepository albumRepository,
+                              TrackStatisticsRepository trackStatisticsRepository,
+                              AlbumStatisticsRepository albumStatisticsRepository) {
+        this.trackRepository = trackRepository;
+        this.artistRepository = artistRepository;
+        this.albumRepository = albumRepository;
+        this.trackStatisticsRepository = trackStatisticsRepository;
+        this.albumStatisticsRepository = albumStatisticsRepository;
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void rebuild() {
+        long started = System.currentTimeMillis();
+        try {
+            tracks.replaceAll(documents(trackRepository.findSearchableTracks()));
+            artists.replaceAll(documents(artistRepository.findSearchableArtists()));
+            albums.replaceAll(documents(albumRepository.findSearchableAlbums()));
+            refreshPopularity();
+            ready = true;
+            lastBuildMillis = System.currentTimeMillis() - started;
+            logger.info("Catalog search index built: {} tracks, {} artists, {} albums in {} ms",
+                    tracks.size(), artists.size(), albums.size(), lastBuildMillis);
+        } catch (RuntimeException e) {
+            // Без индекса сервисы продолжают искать через базу
+            logger.error("Failed to build catalog search index", e);
+        }
+    }
+
+    // Популярность для ранжирования; точность до нескольких минут здесь не важна
+    @Scheduled(initialDelayString = "${search.popularityRefreshMillis:600000}",
+               fixedDelayString = "${search.popularityRefreshMillis:600000}")
+    public void refreshPopularity() {
+        Map<Integer, Long> trackPlays = new HashMap<>();
+        Map<Integer, Long> artistPlays = new HashMap<>();
+        Map<Integer, Integer> trackArtists = new HashMap<>();
+        for (Object[] row : trackRepository.findAutocompleteTracks()) {
+            if (row[2] != null) {
+                trackArtists.put((Integer) row[0], (Integer) row[2]);
+            }
+        }
+        for (Object[] row : trackStatisticsRepository.sumListenCountsByTrack()) {
+            Integer trackId = (Integer) row[0];
+            long plays = ((Number) row[1]).longValue();
+            trackPlays.put(trackId, plays);
+            Integer artistId = trackArtists.get(trackId);
+            if (artistId != null) {
+                artistPlays.merge(artistId, plays, Long::sum);
+            }
+        }
+        Map<Integer, Long> albumPlays = new HashMap<>();
+        for (Object[] row : albumStatisticsRepository.sumListenCountsByAlbum()) {
+            albumPlays.put((Integer) row[0], ((Number) row[1]).longValue());
+        }
+        tracks.popularity = trackPlays;
+        artists.popularity = artistPlays;
+        albums.popularity = albumPlays;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // id в порядке убывания релевантности
+    public List<Integer> searchTracks(String query) {
+        return search(tracks, query);
+    }
+
+    public List<Integer> searchArtists(String query) {
+        return search(artists, query);
+    }
+
+    public List<Integer> searchAlbums(String query) {
+        return search(albums, query);
+    }
+
+    private List<Integer> search(TextIndex index, String query) {
+        long started = System.nanoTime();
+        List<Integer> ids = index.rankedSearch(normalize(query), fuzzyMatches);
+        queries.increment();
+        queryNanos.add(System.nanoTime() - started);
+        return ids;
+    }
+
+    // Сущности из базы приходят в своем порядке - возвращаем порядок релевантности
+    public static <T> List<T> inRankOrder(List<Integer> rankedIds, List<T> items, Function<T, Integer> idOf) {
+        Map<Integer, Integer> rank = new HashMap<>(rankedIds.size() * 2);
+        for (int i = 0; i < rankedIds.size(); i++) {
+            rank.put(rankedIds.get(i), i);
+        }
+        List<T> ordered = new ArrayList<>(items);
+        ordered.sort(Comparator.comparingInt(item -> rank.getOrDefault(idOf.apply(item), Integer.MAX_VALUE)));
+        return ordered;
+    }
+
+    // Трек после сохранения, модерации или смены исполнителя; непромодерированный трек из индекса уходит
+    public void refreshTrack(Integer trackId) {
+        afterCommit(() -> refreshTrackNow(trackId));
+    }
+
+    private void refreshTrackNow(Integer trackId) {
+        List<Object[]> rows = trackRepository.findSearchableTrackById(trackId);
+        if (rows.isEmpty()) {
+            tracks.remove(trackId);
+        } else {
+            tracks.put(trackId, document(rows.get(0)));
+        }
+    }
+
+    public void removeTrack(Integer trackId) {
+        afterCommit(() -> tracks.remove(trackId));
+    }
+
+    public void refreshAlbum(Integer albumId) {
+        afterCommit(() -> refreshAlbumNow(albumId));
+    }
+
+    private void refreshAlbumNow(Integer albumId) {
+        List<Object[]> rows = albumRepository.findSearchableAlbumById(albumId);
+        if (rows.isEmpty()) {
+            albums.remove(albumId);
+        } else {
+            albums.put(albumId, document(rows.get(0)));
+        }
+    }
+
+    public void removeAlbum(Integer albumId) {
+        afterCommit(() -> albums.remove(albumId));
+    }
+
+    // Имя исполнителя входит в документы его треков и альбомов - переиндексируем и их
+    public void refreshArtist(Integer artistId) {
+        afterCommit(() -> refreshArtistNow(artistId));
+    }
+
+    private void refreshArtistNow(Integer artistId) {
+        List<Object[]> rows = artistRepository.findSearchableArtistById(artistId);
+        if (rows.isEmpty()) {
+            artists.remove(artistId);
+        } else {
+            artists.put(artistId, document(rows.get(0)));
+        }
+        for (Object[] row : trackRepository.findSearchableTracksByArtistId(artistId)) {
+            tracks.put((Integer) row[0], document(row));
+        }
+        for (Object[] row : albumRepository.findSearchableAlbumsByArtistId(artistId)) {
+            albums.put((Integer) row[0], document(row));
+        }
+    }
+
+    public void removeArtist(Integer artistId) {
+        afterCommit(() -> artists.remove(artistId));
+    }
+
+    // Внутри транзакции - после ее фиксации: перечитывание видит сохраненные строки, откат индекс не меняет
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            applySafely(action);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                applySafely(action);
+            }
+        });
+    }
+
+    // Сбой индекса не должен превращать зафиксированное изменение в ошибку запроса
+    private static void applySafely(Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            logger.error("Failed to update catalog search index", e);
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        long queryCount = queries.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", ready);
+        stats.put("tracks", tracks.size());
+        stats.put("artists", artists.size());
+        stats.put("albums", albums.size());
+        stats.put("trigrams", tracks.trigramCount() + artists.trigramCount() + albums.trigramCount());
+        stats.put("dictionaryWords", tracks.wordCount() + artists.wordCount() + albums.wordCount());
+        stats.put("lastBuildMillis", lastBuildMillis);
+        stats.put("queries", queryCount);
+        stats.put("fuzzyMatches", fuzzyMatches.sum());
+        stats.put("avgQueryMicros", queryCount == 0 ? 0.0 : queryNanos.sum() / 1000.0 / queryCount);
+        return stats;
+    }
+
+    private static Map<Integer, String> documents(List<Object[]> rows) {
+        Map<Integer, String> documents = new HashMap<>(rows.size() * 2);
+        for (Object[] row : rows) {
+            documents.put((Integer) row[0], document(row));
+        }
+        return documents;
+    }
+
+    // Строка проекции: id, затем текстовые поля
+    private static String document(Object[] row) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i < row.length; i++) {
+            if (i > 1) {
+                text.append(FIELD_SEPARATOR);
+            }
+            text.append(normalize((String) row[i]));
+        }
+        return text.toString();
+    }
+
+    static String normalize(String text) {
+        return SearchText.fold(text);
+    }
+
+    private static Set<String> trigrams(String text) {
+        Set<String> result = new HashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            String trigram = text.substring(i, i + 3);
+            if (trigram.indexOf(FIELD_SEPARATOR) < 0) {
+                result.add(trigram);
+            }
+        }
+        return result;
+    }
+
+    // Первые один и два символа каждого слова
+    private static Set<String> shortPrefixes(String text) {
+        Set<String> result = new HashSet<>();
+        for (String word : SearchText.tokens(text)) {
+            result.add(word.substring(0, 1));
+            if (word.length() > 1) {
+                result.add(word.substring(0, 2));
+            }
+        }
+        return result;
+    }
+
+    // Допустимое число правок растет с длиной слова: короткие слова ищем только точно
+    private static int allowedEdits(int length) {
+        return length < 4 ? 0 : length < 8 ? 1 : 2;
+    }
+
+    /**
+     * Индекс одного типа документов:
+     * триграмма документа -> id документов (поиск подстроки);
+     * словарь слов, триграмма слова -> номера слов (кандидаты для нечеткого поиска);
+     * номер слова -> id документов.
+     */
+    private static final class TextIndex {
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<Integer, String> texts = new HashMap<>();
+        private final Map<String, PostingList> postings = new HashMap<>();
+        // Начала слов из 1-2 символов -> id документов: для запросов короче триграммы
+        private final Map<String, PostingList> shortPrefixes = new HashMap<>();
+
+        private final Map<String, Integer> wordIds = new HashMap<>();
+        private final List<String> words = new ArrayList<>();
+        private final List<PostingList> wordDocs = new ArrayList<>();
+        private final Map<String, PostingList> wordGrams = new HashMap<>();
+
+        volatile Map<Integer, Long> popularity = Collections.emptyMap();
+
+        void replaceAll(Map<Integer, String> documents) {
+            lock.writeLock().lock();
+            try {
+                texts.clear();
+                postings.clear();
+                shortPrefixes.clear();
+                wordIds.clear();
+                words.clear();
+                wordDocs.clear();
+                wordGrams.clear();
+                // По возрастанию id - списки заполняются дописыванием в конец
+                documents.keySet().stream().sorted().forEach(id -> addLocked(id, documents.get(id)));
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void put(int id, String text) {
+            lock.writeLock().lock();
+            try {
+                removeLocked(id);
+                addLocked(id, text);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(int id) {
+            lock.writeLock().lock();
+            try {
+                removeLocked(id);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void addLocked(int id, String text) {
+            texts.put(id, text);
+            for (String trigram : trigrams(text)) {
+                postings.computeIfAbsent(trigram, t -> new PostingList()).add(id);
+            }
+            for (String word : new HashSet<>(SearchText.tokens(text))) {
+                wordDocs.get(wordId(word)).add(id);
+            }
+            for (String prefix : shortPrefixes(text)) {
+                shortPrefixes.computeIfAbsent(prefix, p -> new PostingList()).add(id);
+            }
+        }
+
+        private void removeLocked(int id) {
+            String previous = texts.remove(id);
+            if (previous == null) {
+                return;
+            }
+            for (String trigram : trigrams(previous)) {
+                PostingList list = postings.get(trigram);
+                if (list != null && list.remove(id) && list.size == 0) {
+                    postings.remove(trigram);
+                }
+            }
+            for (String prefix : shortPrefixes(previous)) {
+                PostingList list = shortPrefixes.get(prefix);
+                if (list != null && list.remove(id) && list.size == 0) {
+                    shortPrefixes.remove(prefix);
+                }
+            }
+            // Слово остается в словаре с пустым списком - словарь только растет, как и каталог
+            for (String word : SearchText.tokens(previous)) {
+                Integer wordId = wordIds.get(word);
+                if (wordId != null) {
+                    wordDocs.get(wordId).remove(id);
+                }
+            }
+        }
+
+        private int wordId(String word) {
+            Integer existing = wordIds.get(word);
+            if (existing != null) {
+                return existing;
+            }
+            int id = words.size();
+            wordIds.put(word, id);
+            words.add(word);
+            wordDocs.add(new PostingList());
+            for (String gram : trigrams("$" + word + "$")) {
+                wordGrams.computeIfAbsent(gram, g -> new PostingList()).add(id);
+            }
+            return id;
+        }
+
+        List<Integer> rankedSearch(String query, LongAdder fuzzyMatches) {
+            if (query.isEmpty()) {
+                return Collections.emptyList();
+            }
+            Map<Integer, Double> scores;
+            lock.readLock().lock();
+            try {
+                scores = scoreSubstring(query);
+                List<String> queryWords = SearchText.tokens(query);
+                if (!queryWords.isEmpty()) {
+                    // Каждое слово запроса должно найтись в документе точно или с опечаткой
+                    Map<Integer, Double> fuzzy = null;
+                    for (String word : queryWords) {
+                        Map<Integer, Double> wordScores = scoreWord(word, fuzzyMatches);
+                        fuzzy = fuzzy == null ? wordScores : intersect(fuzzy, wordScores);
+                        if (fuzzy.isEmpty()) {
+                            break;
+                        }
+                    }
+                    for (Map.Entry<Integer, Double> entry : fuzzy.entrySet()) {
+                        scores.merge(entry.getKey(), entry.getValue() / queryWords.size(), Math::max);
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            Map<Integer, Long> plays = popularity;
+            List<Map.Entry<Integer, Double>> ranked = new ArrayList<>(scores.size());
+            for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+                double boost = POPULARITY_WEIGHT * Math.log10(1 + plays.getOrDefault(entry.getKey(), 0L));
+                entry.setValue(entry.getValue() + boost);
+                ranked.add(entry);
+            }
+            ranked.sort(Map.Entry.<Integer, Double>comparingByValue().reversed()
+                    .thenComparing(Map.Entry.<Integer, Double>comparingByKey().reversed()));
+            List<Integer> result = new ArrayList<>(Math.min(ranked.size(), MAX_RESULTS));
+            for (int i = 0; i < ranked.size() && i < MAX_RESULTS; i++) {
+                result.add(ranked.get(i).getKey());
+            }
+            return result;
+        }
+
+        // Запрос целиком как подстрока: совпадение с полем 1.0, начало поля 0.9, начало слова 0.8, внутри слова 0.6
+        private Map<Integer, Double> scoreSubstring(String query) {
+            Map<Integer, Double> scores = new HashMap<>();
+            for (int id : substringMatches(query)) {
+                String text = texts.get(id);
+                double best = 0.0;
+                int from = text.indexOf(query);
+                while (from >= 0 && best < 1.0) {
+                    int end = from + query.length();
+                    boolean fieldStart = from == 0 || text.charAt(from - 1) == FIELD_SEPARATOR;
+                    boolean fieldEnd = end == text.length() || text.charAt(end) == FIELD_SEPARATOR;
+                    boolean wordStart = fieldStart || !Character.isLetterOrDigit(text.charAt(from - 1));
+                    double score = fieldStart && fieldEnd ? 1.0 : fieldStart ? 0.9 : wordStart ? 0.8 : 0.6;
+                    best = Math.max(best, score);
+                    from = text.indexOf(query, from + 1);
+                }
+                scores.put(id, best);
+            }
+            return scores;
+        }
+
+        private List<Integer> substringMatches(String query) {
+            List<Integer> result = new ArrayList<>();
+            if (query.length() < 3) {
+                // Слишком короткий запрос для триграмм - кандидаты по началу слова из индекса префиксов
+                List<String> queryWords = SearchText.tokens(query);
+                PostingList list = queryWords.isEmpty() ? null : shortPrefixes.get(queryWords.get(0));
+                if (list == null) {
+                    return result;
+                }
+                for (int i = 0; i < list.size; i++) {
+                    String text = texts.get(list.ids[i]);
+                    if (text != null && text.contains(query)) {
+                        result.add(list.ids[i]);
+                    }
+                }
+                return result;
+            }
+
+            List<PostingList> lists = new ArrayList<>();
+            for (String trigram : trigrams(query)) {
+                PostingList list = postings.get(trigram);
+                if (list == null) {
+                    return result;
+                }
+                lists.add(list);
+            }
+            lists.sort(Comparator.comparingInt(list -> list.size));
+
+            int[] candidates = Arrays.copyOf(lists.get(0).ids, lists.get(0).size);
+            int count = candidates.length;
+            for (int i = 1; i < lists.size() && count > 0; i++) {
+                count = lists.get(i).retainIn(candidates, count);
+            }
+            // Триграммы могут совпасть в разных местах строки - подтверждаем подстроку целиком
+            for (int i = 0; i < count; i++) {
+                String text = texts.get(candidates[i]);
+                if (text != null && text.contains(query)) {
+                    result.add(candidates[i]);
+                }
+            }
+            return result;
+        }
+
+        // Документы, где есть слово, совпадающее с word точно (0.7) или с d правками (0.5 - 0.1 * (d - 1))
+        private Map<Integer, Double> scoreWord(String word, LongAdder fuzzyMatches) {
+            Map<Integer, Double> scores = new HashMap<>();
+            Integer exact = wordIds.get(word);
+            if (exact != null) {
+                addDocs(scores, wordDocs.get(exact), 0.7);
+            }
+            int maxEdits = allowedEdits(word.length());
+            if (maxEdits == 0) {
+                return scores;
+            }
+
+            // Фильтр по числу общих триграмм: одна правка портит не больше трех триграмм слова с границами
+            Set<String> grams = trigrams("$" + word + "$");
+            int required = grams.size() - 3 * maxEdits;
+            Map<Integer, Integer> shared = new HashMap<>();
+            for (String gram : grams) {
+                PostingList list = wordGrams.get(gram);
+                if (list != null) {
+                    for (int i = 0; i < list.size; i++) {
+                        shared.merge(list.ids[i], 1, Integer::sum);
+                    }
+                }
+            }
+            for (Map.Entry<Integer, Integer> candidate : shared.entrySet()) {
+                int wordId = candidate.getKey();
+                if (candidate.getValue() < required || (exact != null && wordId == exact)) {
+                    continue;
+                }
+                int distance = SearchText.boundedDistance(word, words.get(wordId), maxEdits);
+                if (distance <= maxEdits) {
+                    fuzzyMatches.increment();
+                    addDocs(scores, wordDocs.get(wordId), 0.5 - 0.1 * (distance - 1));
+                }
+            }
+            return scores;
+        }
+
+        private static void addDocs(Map<Integer, Double> scores, PostingList docs, double score) {
+            for (int i = 0; i < docs.size; i++) {
+                scores.merge(docs.ids[i], score, Math::max);
+            }
+        }
+
+        private static Map<Integer, Double> intersect(Map<Integer, Double> left, Map<Integer, Double> right) {
+            Map<Integer, Double> result = new HashMap<>();
+            for (Map.Entry<Integer, Double> entry : left.entrySet()) {
+                Double other = right.get(entry.getKey());
+                if (other != null) {
+                    result.put(entry.getKey(), entry.getValue() + other);
+                }
+            }
+            return result;
+        }
+
+        int size() {
+            lock.readLock().lock();
+            try {
+                return texts.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        int trigramCount() {
+            lock.readLock().lock();
+            try {
+                return postings.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        int wordCount() {
+            lock.readLock().lock();
+            try {
+                return words.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    // Отсортированный по возрастанию список id без упаковки в Integer
+    private static final class PostingList {
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            if (size == 0 || ids[size - 1] < id) {
+                ensureCapacity();
+                ids[size++] = id;
+                return;
+            }
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                return;
+            }
+            int insertAt = -index - 1;
+            ensureCapacity();
+            System.arraycopy(ids, insertAt, ids, insertAt + 1, size - insertAt);
+            ids[insertAt] = id;
+            size++;
+        }
+
+        boolean remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        // Оставляет в candidates[0..count) только id из этого списка; возвращает новое количество
+        int retainIn(int[] candidates, int count) {
+            int kept = 0;
+            int j = 0;
+            for (int i = 0; i < count && j < size; i++) {
+                int candidate = candidates[i];
+                while (j < size && ids[j] < candidate) {
+                    j++;
+                }
+                if (j < size && ids[j] == candidate) {
+                    candidates[kept++] = candidate;
+                }
+            }
+            return kept;
+        }
+
+        private void ensureCapacity() {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+        }
+    }
+}
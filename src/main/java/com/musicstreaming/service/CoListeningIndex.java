@@ -0,0 +1,471 @@
+package com.musicstreaming.service;
+
+import com.musicstreaming.repository.RecommendationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Матрица совместных прослушиваний трек-трек ("слушатели этого трека также слушали").
+ * Раз в час строится заново по истории recommendations, постранично по пользователям;
+ * между перестройками новые прослушивания (onListen) применяются к матрице инкрементально
+ * и пересчитывают соседей только затронутых треков. Для запросов в памяти хранятся
+ * top-K соседей каждого трека в примитивных массивах, поэтому запрос - это несколько
+ * бинарных поисков без обращения к базе.
+ */
+@Service
+public class CoListeningIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoListeningIndex.class);
+    // Очередь прослушиваний между применениями; сверх лимита они дождутся полной перестройки
+    private static final int MAX_QUEUED_LISTENS = 100_000;
+
+    private final RecommendationRepository recommendationRepository;
+    private final int neighbours;
+    private final int maxTracksPerUser;
+    private final int pageUsers;
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    // Счетчики матрицы и последние треки пользователей; меняются только под matrixLock
+    private final Object matrixLock = new Object();
+    private Matrix matrix = new Matrix();
+
+    private final Queue<Long> listens = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedListens = new AtomicInteger();
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder lookupNanos = new LongAdder();
+    private final LongAdder appliedListens = new LongAdder();
+    private final LongAdder droppedListens = new LongAdder();
+    private volatile long lastBuildMillis;
+    private volatile long lastBuiltAt;
+    private volatile long lastBuildPairs;
+
+    public CoListeningIndex(RecommendationRepository recommendationRepository,
+                            @Value("${colistening.neighbours:20}") int neighbours,
+                            @Value("${colistening.maxTracksPerUser:200}") int maxTracksPerUser,
+                            @Value("${colistening.pageUsers:1000}") int pageUsers) {
+        this.recommendationRepository = recommendationRepository;
+        this.neighbours = Math.max(1, neighbours);
+        this.maxTracksPerUser = Math.max(2, maxTracksPerUser);
+        this.pageUsers = Math.max(1, pageUsers);
+    }
+
+    public boolean isReady() {
+        return snapshot.trackIds.length > 0;
+    }
+
+    // Новое прослушивание (после дедупликации); в матрицу попадет при ближайшем applyListens
+    public void onListen(Integer userId, Integer trackId) {
+        if (queuedListens.incrementAndGet() > MAX_QUEUED_LISTENS) {
+            queuedListens.decrementAndGet();
+            droppedListens.increment();
+            return;
+        }
+        listens.add(((long) userId << 32) | (trackId & 0xFFFFFFFFL));
+    }
+
+    // Полная перестройка; первый запуск отложен, чтобы не задерживать старт приложения
+    @Scheduled(initialDelayString = "${colistening.initialDelayMillis:10000}",
+               fixedDelayString = "${colistening.rebuildIntervalMillis:3600000}")
+    public void rebuild() {
+        long started = System.currentTimeMillis();
+        try {
+            synchronized (matrixLock) {
+                Matrix built = new Matrix();
+                long pairs = 0;
+                int[] userTracks = new int[maxTracksPerUser];
+                Integer after = 0;
+                while (true) {
+                    // Страница пользователей, затем их пары (пользователь, трек), свежие прослушивания первыми
+                    List<Integer> users = recommendationRepository.findListeningUserIdsAfter(after,
+                            PageRequest.of(0, pageUsers));
+                    if (users.isEmpty()) {
+                        break;
+                    }
+                    Integer last = users.get(users.size() - 1);
+                    int size = 0;
+                    Integer currentUser = null;
+                    for (Object[] row : recommendationRepository.findUserTrackPairs(after, last)) {
+                        Integer userId = (Integer) row[0];
+                        if (!userId.equals(currentUser)) {
+                            built.addUser(currentUser, userTracks, size);
+                            currentUser = userId;
+                            size = 0;
+                        }
+                        if (size < maxTracksPerUser) {
+                            userTracks[size++] = (Integer) row[1];
+                        }
+                        pairs++;
+                    }
+                    built.addUser(currentUser, userTracks, size);
+                    after = last;
+                }
+                matrix = built;
+                // Прослушивания из очереди могли еще не дойти до таблицы; повтор уже учтенного ничего не меняет
+                drainListens(null);
+                snapshot = buildSnapshot(matrix);
+                lastBuildPairs = pairs;
+            }
+            lastBuildMillis = System.currentTimeMillis() - started;
+            lastBuiltAt = System.currentTimeMillis();
+            logger.info("Co-listening index built from {} user-track pairs: {} tracks in {} ms",
+                    lastBuildPairs, snapshot.trackIds.length, lastBuildMillis);
+        } catch (RuntimeException e) {
+            // Оставляем предыдущий снимок - рекомендации продолжают работать на нем
+            logger.error("Failed to rebuild co-listening index", e);
+        }
+    }
+
+    // Прослушивания с прошлого применения: меняются счетчики, соседи пересчитываются у затронутых треков
+    @Scheduled(initialDelayString = "${colistening.applyIntervalMillis:60000}",
+               fixedDelayString = "${colistening.applyIntervalMillis:60000}")
+    public void applyListens() {
+        if (listens.isEmpty()) {
+            return;
+        }
+        try {
+            synchronized (matrixLock) {
+                Set<Integer> touched = new HashSet<>();
+                drainListens(touched);
+                if (!touched.isEmpty()) {
+                    snapshot = updateSnapshot(snapshot, matrix, touched);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to apply listens to co-listening index", e);
+        }
+    }
+
+    private void drainListens(Set<Integer> touched) {
+        Long listen;
+        while ((listen = listens.poll()) != null) {
+            queuedListens.decrementAndGet();
+            matrix.listen((int) (listen >>> 32), (int) (long) listen, maxTracksPerUser, touched);
+            appliedListens.increment();
+        }
+    }
+
+    private Snapshot buildSnapshot(Matrix source) {
+        int[] trackIds = source.trackIds();
+        int[][] neighbourIds = new int[trackIds.length][];
+        float[][] neighbourScores = new float[trackIds.length][];
+        for (int t = 0; t < trackIds.length; t++) {
+            buildRow(source, trackIds[t], neighbourIds, neighbourScores, t);
+        }
+        return new Snapshot(trackIds, neighbourIds, neighbourScores);
+    }
+
+    // Строки незатронутых треков берутся из текущего снимка как есть
+    private Snapshot updateSnapshot(Snapshot current, Matrix source, Set<Integer> touched) {
+        int[] trackIds = source.trackIds();
+        int[][] neighbourIds = new int[trackIds.length][];
+        float[][] neighbourScores = new float[trackIds.length][];
+        for (int t = 0; t < trackIds.length; t++) {
+            int previous = Arrays.binarySearch(current.trackIds, trackIds[t]);
+            if (previous >= 0 && !touched.contains(trackIds[t])) {
+                neighbourIds[t] = current.neighbourIds[previous];
+                neighbourScores[t] = current.neighbourScores[previous];
+            } else {
+                buildRow(source, trackIds[t], neighbourIds, neighbourScores, t);
+            }
+        }
+        return new Snapshot(trackIds, neighbourIds, neighbourScores);
+    }
+
+    // Top-K соседей трека по косинусной мере: совместные / sqrt(слушатели A * слушатели B)
+    private void buildRow(Matrix source, int trackId, int[][] neighbourIds, float[][] neighbourScores, int t) {
+        IntIntMap row = source.counts.get(trackId);
+        double own = source.listeners.get(trackId);
+
+        int n = row.size();
+        int[] ids = new int[n];
+        float[] scores = new float[n];
+        int k = 0;
+        for (int slot = 0; slot < row.keys.length; slot++) {
+            int other = row.keys[slot];
+            if (other != IntIntMap.EMPTY) {
+                ids[k] = other;
+                scores[k] = (float) (row.values[slot] / Math.sqrt(own * source.listeners.get(other)));
+                k++;
+            }
+        }
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(scores[b], scores[a]));
+
+        int keep = Math.min(neighbours, n);
+        neighbourIds[t] = new int[keep];
+        neighbourScores[t] = new float[keep];
+        for (int i = 0; i < keep; i++) {
+            neighbourIds[t][i] = ids[order[i]];
+            neighbourScores[t][i] = scores[order[i]];
+        }
+    }
+
+    // Треки, которые чаще всего слушают вместе с прослушанными пользователем; прослушанные исключаются
+    public List<Integer> recommend(Collection<Integer> listenedTrackIds, int limit) {
+        long started = System.nanoTime();
+        Snapshot current = snapshot;
+        Set<Integer> listened = new HashSet<>(listenedTrackIds);
+        Map<Integer, Float> scores = new HashMap<>();
+
+        for (Integer trackId : listened) {
+            int index = Arrays.binarySearch(current.trackIds, trackId);
+            if (index < 0) {
+                continue;
+            }
+            int[] ids = current.neighbourIds[index];
+            float[] weights = current.neighbourScores[index];
+            for (int i = 0; i < ids.length; i++) {
+                if (!listened.contains(ids[i])) {
+                    scores.merge(ids[i], weights[i], Float::sum);
+                }
+            }
+        }
+
+        List<Integer> result = scores.entrySet().stream()
+                .sorted(Map.Entry.<Integer, Float>comparingByValue().reversed())
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        lookups.increment();
+        lookupNanos.add(System.nanoTime() - started);
+        return result;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Snapshot current = snapshot;
+        long lookupCount = lookups.sum();
+        long edges = 0;
+        for (int[] ids : current.neighbourIds) {
+            edges += ids.length;
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("tracks", current.trackIds.length);
+        stats.put("edges", edges);
+        stats.put("neighboursPerTrack", neighbours);
+        stats.put("maxTracksPerUser", maxTracksPerUser);
+        stats.put("lastBuildPairs", lastBuildPairs);
+        stats.put("lastBuildMillis", lastBuildMillis);
+        stats.put("lastBuiltAt", lastBuiltAt);
+        stats.put("appliedListens", appliedListens.sum());
+        stats.put("queuedListens", queuedListens.get());
+        stats.put("droppedListens", droppedListens.sum());
+        stats.put("lookups", lookupCount);
+        stats.put("avgLookupMicros", lookupCount == 0 ? 0.0 : lookupNanos.sum() / 1000.0 / lookupCount);
+        return stats;
+    }
+
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new int[0], new int[0][], new float[0][]);
+
+        // Отсортированы по trackId; соседи каждого трека - по убыванию близости
+        final int[] trackIds;
+        final int[][] neighbourIds;
+        final float[][] neighbourScores;
+
+        Snapshot(int[] trackIds, int[][] neighbourIds, float[][] neighbourScores) {
+            this.trackIds = trackIds;
+            this.neighbourIds = neighbourIds;
+            this.neighbourScores = neighbourScores;
+        }
+    }
+
+    /**
+     * Счетчики матрицы: слушатели трека, совместные прослушивания пар и последние maxTracksPerUser
+     * разных треков каждого пользователя (свежие первыми) - по ним новое прослушивание
+     * добавляет пары, а вытесненный трек их вычитает.
+     */
+    private static final class Matrix {
+        final IntIntMap listeners = new IntIntMap();
+        final Map<Integer, IntIntMap> counts = new HashMap<>();
+        final Map<Integer, int[]> userTracks = new HashMap<>();
+
+        void addUser(Integer userId, int[] tracks, int size) {
+            if (userId == null || size == 0) {
+                return;
+            }
+            userTracks.put(userId, Arrays.copyOf(tracks, size));
+            for (int i = 0; i < size; i++) {
+                listeners.add(tracks[i], 1);
+                IntIntMap row = counts.computeIfAbsent(tracks[i], id -> new IntIntMap());
+                for (int j = 0; j < size; j++) {
+                    if (i != j) {
+                        row.add(tracks[j], 1);
+                    }
+                }
+            }
+        }
+
+        // touched == null - затронутые треки не собираются (снимок строится целиком)
+        void listen(int userId, int trackId, int maxTracks, Set<Integer> touched) {
+            int[] previous = userTracks.getOrDefault(userId, new int[0]);
+            int existing = indexOf(previous, trackId);
+            if (existing >= 0) {
+                // Трек уже учтен - только переносим его в начало, счетчики не меняются
+                System.arraycopy(previous, 0, previous, 1, existing);
+                previous[0] = trackId;
+                return;
+            }
+            int keep = Math.min(previous.length, maxTracks - 1);
+            int[] tracks = new int[keep + 1];
+            tracks[0] = trackId;
+            System.arraycopy(previous, 0, tracks, 1, keep);
+            userTracks.put(userId, tracks);
+
+            listeners.add(trackId, 1);
+            for (int i = 1; i < tracks.length; i++) {
+                addPair(trackId, tracks[i], 1);
+            }
+            // Вытесненные из окна пользователя треки перестают образовывать пары
+            for (int i = keep; i < previous.length; i++) {
+                int evicted = previous[i];
+                listeners.add(evicted, -1);
+                // С новым треком пары не было - он добавлен уже без вытесненного
+                for (int j = 1; j < tracks.length; j++) {
+                    addPair(evicted, tracks[j], -1);
+                }
+                if (touched != null) {
+                    touched.add(evicted);
+                }
+            }
+            if (touched != null) {
+                for (int track : tracks) {
+                    touched.add(track);
+                }
+            }
+        }
+
+        private void addPair(int a, int b, int delta) {
+            addDirected(a, b, delta);
+            addDirected(b, a, delta);
+        }
+
+        private void addDirected(int from, int to, int delta) {
+            IntIntMap row = counts.computeIfAbsent(from, id -> new IntIntMap());
+            row.add(to, delta);
+            if (row.size() == 0) {
+                counts.remove(from);
+            }
+        }
+
+        int[] trackIds() {
+            return counts.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        }
+
+        private static int indexOf(int[] tracks, int trackId) {
+            for (int i = 0; i < tracks.length; i++) {
+                if (tracks[i] == trackId) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    // Счетчики int -> int с открытой адресацией, без упаковки в Integer; id треков всегда > 0
+    static final class IntIntMap {
+        static final int EMPTY = 0;
+
+        int[] keys = new int[16];
+        int[] values = new int[16];
+        private int size;
+
+        // Значение, дошедшее до нуля, удаляется вместе с ключом
+        void add(int key, int delta) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize();
+            }
+            int slot = find(keys, key);
+            if (keys[slot] == EMPTY) {
+                if (delta <= 0) {
+                    return;
+                }
+                keys[slot] = key;
+                size++;
+            }
+            values[slot] += delta;
+            if (values[slot] <= 0) {
+                removeSlot(slot);
+            }
+        }
+
+        int get(int key) {
+            int slot = find(keys, key);
+            return keys[slot] == EMPTY ? 0 : values[slot];
+        }
+
+        int size() {
+            return size;
+        }
+
+        private static int home(int key, int mask) {
+            int hash = key * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+
+        private static int find(int[] keys, int key) {
+            int mask = keys.length - 1;
+            int slot = home(key, mask);
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        // Удаление с обратным сдвигом: следующие ключи цепочки переезжают ближе к своему слоту
+        private void removeSlot(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (keys[next] != EMPTY) {
+                int distance = (next - home(keys[next], mask)) & mask;
+                if (distance >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            keys[hole] = EMPTY;
+            values[hole] = 0;
+            size--;
+        }
+
+        private void resize() {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldValues.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int slot = find(keys, oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
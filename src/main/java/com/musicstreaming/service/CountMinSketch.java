@@ -0,0 +1,75 @@
+package com.musicstreaming.service;
+
+/**
+ * Count-min sketch с вещественными счетчиками: оценка веса ключа сверху с ошибкой
+ * не больше ~e/width от общего веса с вероятностью 1 - e^-depth. Память фиксирована
+ * и не зависит от числа треков в каталоге.
+ * Обновление консервативное: поднимаются только счетчики ниже новой оценки,
+ * что заметно снижает завышение у редких ключей.
+ */
+final class CountMinSketch {
+
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+            0xD6E8FEB86659FD93L, 0xFF51AFD7ED558CCDL, 0xC4CEB93FE51A85F3L
+    };
+
+    private final int depth;
+    private final int mask;
+    private final double[] counters;
+    private double total;
+
+    CountMinSketch(int depth, int width) {
+        if (depth < 1 || depth > SEEDS.length || Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("depth must be 1.." + SEEDS.length + ", width a power of two");
+        }
+        this.depth = depth;
+        this.mask = width - 1;
+        this.counters = new double[depth * width];
+    }
+
+    // Добавляет вес и возвращает новую оценку ключа
+    double add(int key, double weight) {
+        double estimate = estimate(key) + weight;
+        for (int row = 0; row < depth; row++) {
+            int slot = slot(row, key);
+            if (counters[slot] < estimate) {
+                counters[slot] = estimate;
+            }
+        }
+        total += weight;
+        return estimate;
+    }
+
+    double estimate(int key) {
+        double min = Double.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters[slot(row, key)]);
+        }
+        return min;
+    }
+
+    // Перенормировка при сдвиге точки отсчета затухания
+    void scale(double factor) {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] *= factor;
+        }
+        total *= factor;
+    }
+
+    double total() {
+        return total;
+    }
+
+    int sizeInBytes() {
+        return counters.length * Double.BYTES;
+    }
+
+    private int slot(int row, int key) {
+        long h = (key + 1L) * SEEDS[row];
+        h ^= h >>> 32;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 29;
+        return row * (mask + 1) + (int) (h & mask);
+    }
+}
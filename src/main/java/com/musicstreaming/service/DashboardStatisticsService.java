@@ -0,0 +1,222 @@
+package com.musicstreaming.service;
+
+import com.musicstreaming.model.User;
+import com.musicstreaming.repository.AlbumRepository;
+import com.musicstreaming.repository.ArtistRepository;
+import com.musicstreaming.repository.GenreRepository;
+import com.musicstreaming.repository.TrackRepository;
+import com.musicstreaming.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Счетчики для панели администратора: пользователи по ролям, треки по состоянию модерации,
+ * исполнители, альбомы, жанры. Значения лежат в памяти и меняются при записи (после коммита),
+ * поэтому панель не читает таблицы. При старте и периодически счетчики сверяются с базой
+ * агрегирующими запросами; после каскадных удалений и правок с неизвестным прежним состоянием
+ * сверка запускается сразу.
+ */
+@Service
+public class DashboardStatisticsService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DashboardStatisticsService.class);
+
+    private final UserRepository userRepository;
+    private final TrackRepository trackRepository;
+    private final ArtistRepository artistRepository;
+    private final AlbumRepository albumRepository;
+    private final GenreRepository genreRepository;
+    private final TransactionTemplate recountTransaction;
+
+    private final AtomicLongArray usersByRole = new AtomicLongArray(User.UserRole.values().length);
+    private final AtomicLong moderatedTracks = new AtomicLong();
+    private final AtomicLong pendingTracks = new AtomicLong();
+    private final AtomicLong artists = new AtomicLong();
+    private final AtomicLong albums = new AtomicLong();
+    private final AtomicLong genres = new AtomicLong();
+    private volatile long lastRecountAt;
+
+    @Autowired
+    public DashboardStatisticsService(UserRepository userRepository,
+                                      TrackRepository trackRepository,
+                                      ArtistRepository artistRepository,
+                                      AlbumRepository albumRepository,
+                                      GenreRepository genreRepository,
+                                      PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.trackRepository = trackRepository;
+        this.artistRepository = artistRepository;
+        this.albumRepository = albumRepository;
+        this.genreRepository = genreRepository;
+        // Сверка может вызываться из afterCommit чужой транзакции - нужна своя
+        this.recountTransaction = new TransactionTemplate(transactionManager);
+        this.recountTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.recountTransaction.setReadOnly(true);
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void onStartup() {
+        recount();
+    }
+
+    // Страховка от расхождений: откаты после коммита, правки в базе в обход приложения
+    @Scheduled(initialDelayString = "${dashboard.recountIntervalMillis:600000}",
+               fixedDelayString = "${dashboard.recountIntervalMillis:600000}")
+    public void recount() {
+        try {
+            recountTransaction.executeWithoutResult(status -> {
+                long[] roles = new long[usersByRole.length()];
+                for (Object[] row : userRepository.countUsersByRole()) {
+                    roles[((User.UserRole) row[0]).ordinal()] = ((Number) row[1]).longValue();
+                }
+                long moderated = 0;
+                long pending = 0;
+                for (Object[] row : trackRepository.countTracksByModerationState()) {
+                    if ((Boolean) row[0]) {
+                        moderated = ((Number) row[1]).longValue();
+                    } else {
+                        pending = ((Number) row[1]).longValue();
+                    }
+                }
+                for (int i = 0; i < roles.length; i++) {
+                    usersByRole.set(i, roles[i]);
+                }
+                moderatedTracks.set(moderated);
+                pendingTracks.set(pending);
+                artists.set(artistRepository.count());
+                albums.set(albumRepository.count());
+                genres.set(genreRepository.count());
+            });
+            lastRecountAt = System.currentTimeMillis();
+        } catch (RuntimeException e) {
+            // Панель продолжит показывать последние значения
+            logger.error("Failed to recount dashboard statistics", e);
+        }
+    }
+
+    public void userAdded(User.UserRole role) {
+        afterCommit(() -> usersByRole.incrementAndGet(role.ordinal()));
+    }
+
+    public void userRoleChanged(User.UserRole from, User.UserRole to) {
+        if (from == to) {
+            return;
+        }
+        afterCommit(() -> {
+            if (from != null) {
+                usersByRole.decrementAndGet(from.ordinal());
+            }
+            usersByRole.incrementAndGet(to.ordinal());
+        });
+    }
+
+    public void trackAdded(boolean moderated) {
+        afterCommit(() -> (moderated ? moderatedTracks : pendingTracks).incrementAndGet());
+    }
+
+    public void trackApproved() {
+        afterCommit(() -> {
+            pendingTracks.decrementAndGet();
+            moderatedTracks.incrementAndGet();
+        });
+    }
+
+    public void trackRemoved(boolean moderated) {
+        afterCommit(() -> (moderated ? moderatedTracks : pendingTracks).decrementAndGet());
+    }
+
+    public void artistAdded() {
+        afterCommit(artists::incrementAndGet);
+    }
+
+    public void albumAdded() {
+        afterCommit(albums::incrementAndGet);
+    }
+
+    public void genreAdded() {
+        afterCommit(genres::incrementAndGet);
+    }
+
+    // Удаление исполнителя, альбома или жанра каскадно удаляет треки - проще пересчитать
+    public void recountAfterCommit() {
+        afterCommit(this::recount);
+    }
+
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    public long getTotalUsers() {
+        long total = 0;
+        for (int i = 0; i < usersByRole.length(); i++) {
+            total += usersByRole.get(i);
+        }
+        return total;
+    }
+
+    public long getUserCount(User.UserRole role) {
+        return usersByRole.get(role.ordinal());
+    }
+
+    public long getTotalTracks() {
+        return moderatedTracks.get() + pendingTracks.get();
+    }
+
+    public long getPendingTracks() {
+        return pendingTracks.get();
+    }
+
+    public long getTotalArtists() {
+        return artists.get();
+    }
+
+    public long getTotalAlbums() {
+        return albums.get();
+    }
+
+    public long getTotalGenres() {
+        return genres.get();
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> byRole = new LinkedHashMap<>();
+        for (User.UserRole role : User.UserRole.values()) {
+            byRole.put(role.name(), getUserCount(role));
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("users", getTotalUsers());
+        stats.put("usersByRole", byRole);
+        stats.put("tracks", getTotalTracks());
+        stats.put("moderatedTracks", moderatedTracks.get());
+        stats.put("pendingTracks", pendingTracks.get());
+        stats.put("artists", artists.get());
+        stats.put("albums", albums.get());
+        stats.put("genres", genres.get());
+        stats.put("lastRecountAt", lastRecountAt);
+        return stats;
+    }
+}
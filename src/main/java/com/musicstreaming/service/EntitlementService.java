@@ -0,0 +1,170 @@
+package com.musicstreaming.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.musicstreaming.repository.SubscriptionRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Права пользователя по подписке (без рекламы, плейлисты) из памяти: на пользователя хранится
+ * активная подписка и момент ее окончания. Запись живет ровно до окончания подписки, поэтому
+ * проверки на каждой странице не ходят в базу. Создание, активация, отмена и истечение подписки
+ * сбрасывают запись после коммита; отсутствие подписки кэшируется на ограниченное время.
+ * Каждый сброс поднимает версию прав пользователя: пользователь в сессии с другой версией
+ * перечитывается из базы (см. AuthService), а токены, выданные до сброса, отзываются (AuthTokenService).
+ */
+@Service
+public class EntitlementService {
+
+    private final SubscriptionRepository subscriptionRepository;
+    private final AuthTokenService tokenService;
+    private final LoadingCache<Integer, Entitlement> entitlements;
+    private final long negativeTtlNanos;
+    // Версии есть только у пользователей, чьи права менялись; вытесненная запись дает версию 0 -
+    // сессия с ненулевой версией просто перечитается лишний раз
+    private final Cache<Integer, Long> versions;
+    private final AtomicLong versionSequence = new AtomicLong();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    @Autowired
+    public EntitlementService(SubscriptionRepository subscriptionRepository, AuthTokenService tokenService,
+                              @Value("${entitlements.maxEntries:100000}") long maxEntries,
+                              @Value("${entitlements.negativeTtlMillis:600000}") long negativeTtlMillis) {
+        this.subscriptionRepository = subscriptionRepository;
+        this.tokenService = tokenService;
+        this.negativeTtlNanos = Duration.ofMillis(negativeTtlMillis).toNanos();
+        this.entitlements = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfter(new UntilSubscriptionEnds())
+                .recordStats()
+                .build(this::load);
+        this.versions = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .build();
+    }
+
+    public boolean hasActiveSubscription(Integer userId) {
+        return userId != null && getEntitlement(userId).isActive();
+    }
+
+    public Entitlement getEntitlement(Integer userId) {
+        Entitlement entitlement = entitlements.get(userId);
+        // Запись могла пережить окончание на доли секунды - граница проверяется еще раз
+        if (entitlement.isActive() && !entitlement.getExpiresAt().isAfter(LocalDateTime.now())) {
+            entitlements.invalidate(userId);
+            entitlement = entitlements.get(userId);
+        }
+        return entitlement;
+    }
+
+    // Сбрасывается сразу и еще раз по завершении транзакции: чтение между ними могло закэшировать старое состояние
+    public void invalidate(Integer userId) {
+        if (userId == null) {
+            return;
+        }
+        invalidations.increment();
+        reset(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    reset(userId);
+                }
+            });
+        }
+    }
+
+    public long getVersion(Integer userId) {
+        if (userId == null) {
+            return 0;
+        }
+        Long version = versions.getIfPresent(userId);
+        return version != null ? version : 0;
+    }
+
+    private void reset(Integer userId) {
+        entitlements.invalidate(userId);
+        versions.put(userId, versionSequence.incrementAndGet());
+        tokenService.revokeUser(userId);
+    }
+
+    // Самая поздно заканчивающаяся из активных подписок - проекция, без загрузки сущностей
+    private Entitlement load(Integer userId) {
+        List<Object[]> rows = subscriptionRepository.findActiveEntitlements(userId, LocalDateTime.now());
+        if (rows.isEmpty()) {
+            return Entitlement.NONE;
+        }
+        Object[] row = rows.get(0);
+        return new Entitlement((Integer) row[0], (LocalDateTime) row[1]);
+    }
+
+    public Map<String, Object> getStatistics() {
+        CacheStats stats = entitlements.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("entries", entitlements.estimatedSize());
+        result.put("hits", stats.hitCount());
+        result.put("misses", stats.missCount());
+        result.put("hitRatio", stats.hitRate());
+        result.put("loads", stats.loadCount());
+        result.put("evictions", stats.evictionCount());
+        result.put("invalidations", invalidations.sum());
+        result.put("versionedUsers", versions.estimatedSize());
+        result.put("negativeTtlMillis", Duration.ofNanos(negativeTtlNanos).toMillis());
+        return result;
+    }
+
+    public static final class Entitlement {
+        static final Entitlement NONE = new Entitlement(null, null);
+
+        private final Integer subscriptionId;
+        private final LocalDateTime expiresAt;
+
+        Entitlement(Integer subscriptionId, LocalDateTime expiresAt) {
+            this.subscriptionId = subscriptionId;
+            this.expiresAt = expiresAt;
+        }
+
+        public boolean isActive() { return subscriptionId != null; }
+        public Integer getSubscriptionId() { return subscriptionId; }
+        public LocalDateTime getExpiresAt() { return expiresAt; }
+    }
+
+    // Активная запись истекает вместе с подпиской, пустая - через negativeTtl
+    private final class UntilSubscriptionEnds implements Expiry<Integer, Entitlement> {
+        @Override
+        public long expireAfterCreate(Integer userId, Entitlement entitlement, long currentTime) {
+            if (!entitlement.isActive()) {
+                return negativeTtlNanos;
+            }
+            long untilEnd = Duration.between(LocalDateTime.now(), entitlement.getExpiresAt()).toMillis();
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, untilEnd));
+        }
+
+        @Override
+        public long expireAfterUpdate(Integer userId, Entitlement entitlement, long currentTime, long currentDuration) {
+            return expireAfterCreate(userId, entitlement, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(Integer userId, Entitlement entitlement, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
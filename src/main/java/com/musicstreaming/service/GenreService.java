@@ -16,10 +16,12 @@ import java.util.stream.Collectors;
 public class GenreService {
 
     private final GenreRepository genreRepository;
+    private final DashboardStatisticsService dashboardStatistics;
 
     @Autowired
-    public GenreService(GenreRepository genreRepository) {
+    public GenreService(GenreRepository genreRepository, DashboardStatisticsService dashboardStatistics) {
         this.genreRepository = genreRepository;
+        this.dashboardStatistics = dashboardStatistics;
     }
 
     public List<Genre> findAll() {
@@ -46,12 +48,17 @@ public class GenreService {
 
     @Transactional
     public Genre save(Genre genre) {
+        if (genre.getId() == null) {
+            dashboardStatistics.genreAdded();
+        }
         return genreRepository.save(genre);
     }
 
     @Transactional
     public void delete(Integer id) {
         genreRepository.deleteById(id);
+        // Треки жанра удаляются каскадом
+        dashboardStatistics.recountAfterCommit();
     }
 
     public boolean existsByName(String name) {
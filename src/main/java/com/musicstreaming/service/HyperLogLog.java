@@ -0,0 +1,124 @@
+package com.musicstreaming.service;
+
+import java.util.Arrays;
+
+/**
+ * Оценка числа уникальных слушателей (HyperLogLog, 2^11 регистров по байту, погрешность ~2.3%).
+ * Скетчи объединяются поэлементным максимумом, поэтому слушатели за месяц - это слияние
+ * дневных скетчей без повторного чтения сырых событий.
+ * Хранение: плотный формат - ровно 2048 байт регистров; разреженный - тройки
+ * (номер регистра, 2 байта; значение, 1 байт), пока их меньше 2048 байт. Длина разреженного
+ * кратна 3 и не может совпасть с 2048, поэтому формат определяется по длине.
+ */
+final class HyperLogLog {
+
+    static final int PRECISION = 11;
+    static final int REGISTERS = 1 << PRECISION;
+
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+    private static final int SPARSE_ENTRY = 3;
+
+    private final byte[] registers;
+
+    HyperLogLog() {
+        this.registers = new byte[REGISTERS];
+    }
+
+    private HyperLogLog(byte[] registers) {
+        this.registers = registers;
+    }
+
+    // Скетч из сохраненных байт; пустой или поврежденный массив дает пустой скетч
+    static HyperLogLog fromBytes(byte[] bytes) {
+        if (bytes == null) {
+            return new HyperLogLog();
+        }
+        if (bytes.length == REGISTERS) {
+            return new HyperLogLog(Arrays.copyOf(bytes, REGISTERS));
+        }
+        HyperLogLog sketch = new HyperLogLog();
+        if (bytes.length % SPARSE_ENTRY != 0) {
+            return sketch;
+        }
+        for (int i = 0; i < bytes.length; i += SPARSE_ENTRY) {
+            int index = ((bytes[i] & 0xFF) << 8) | (bytes[i + 1] & 0xFF);
+            if (index < REGISTERS) {
+                sketch.registers[index] = bytes[i + 2];
+            }
+        }
+        return sketch;
+    }
+
+    void add(int value) {
+        long hash = mix(value);
+        int index = (int) (hash >>> (64 - PRECISION));
+        // Ранг - позиция первой единицы в оставшихся битах; страж не дает выйти за 64 - PRECISION + 1
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    void merge(HyperLogLog other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        // Малые значения: линейный подсчет по пустым регистрам точнее
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    // Дневной скетч трека обычно держит единицы слушателей - хранится несколько байт, а не 2 КБ
+    byte[] toBytes() {
+        int filled = 0;
+        for (byte register : registers) {
+            if (register != 0) {
+                filled++;
+            }
+        }
+        if (filled == 0) {
+            return null;
+        }
+        if (filled * SPARSE_ENTRY >= REGISTERS) {
+            return Arrays.copyOf(registers, REGISTERS);
+        }
+        byte[] sparse = new byte[filled * SPARSE_ENTRY];
+        int offset = 0;
+        for (int index = 0; index < REGISTERS; index++) {
+            if (registers[index] != 0) {
+                sparse[offset] = (byte) (index >>> 8);
+                sparse[offset + 1] = (byte) index;
+                sparse[offset + 2] = registers[index];
+                offset += SPARSE_ENTRY;
+            }
+        }
+        return sparse;
+    }
+
+    // Финализатор MurmurHash3: последовательные id пользователей расходятся по всем битам
+    private static long mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB93FE51A85F3L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
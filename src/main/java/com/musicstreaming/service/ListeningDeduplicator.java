@@ -0,0 +1,123 @@
+package com.musicstreaming.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Окно "этот трек уже слушали недавно" без запросов к базе.
+ * На пользователя - кольцо последних trackId с временем прослушивания фиксированного размера;
+ * пользователи без активности дольше окна вытесняются периодической очисткой.
+ */
+@Service
+public class ListeningDeduplicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ListeningDeduplicator.class);
+
+    private final long windowMillis;
+    private final int ringSize;
+    private final int maxUsers;
+
+    private final ConcurrentHashMap<Integer, Ring> rings = new ConcurrentHashMap<>();
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder evictedUsers = new LongAdder();
+
+    public ListeningDeduplicator(@Value("${listening.dedupe.windowMillis:300000}") long windowMillis,
+                                 @Value("${listening.dedupe.ringSize:16}") int ringSize,
+                                 @Value("${listening.dedupe.maxUsers:100000}") int maxUsers) {
+        this.windowMillis = windowMillis;
+        this.ringSize = Math.max(1, ringSize);
+        this.maxUsers = Math.max(1, maxUsers);
+    }
+
+    // true - прослушивание новое и запомнено; false - этот трек уже был у пользователя в пределах окна
+    public boolean markIfNew(int userId, int trackId) {
+        long now = System.currentTimeMillis();
+        Ring ring = rings.get(userId);
+        if (ring == null) {
+            if (rings.size() >= maxUsers) {
+                evictStale(now);
+            }
+            ring = rings.computeIfAbsent(userId, id -> new Ring(ringSize));
+        }
+        boolean fresh = ring.markIfNew(trackId, now, now - windowMillis);
+        if (fresh) {
+            accepted.increment();
+        } else {
+            duplicates.increment();
+        }
+        return fresh;
+    }
+
+    @Scheduled(fixedDelayString = "${listening.dedupe.sweepIntervalMillis:60000}")
+    public void sweep() {
+        evictStale(System.currentTimeMillis());
+    }
+
+    private void evictStale(long now) {
+        long cutoff = now - windowMillis;
+        int before = rings.size();
+        rings.values().removeIf(ring -> ring.lastSeen < cutoff);
+
+        // Все пользователи активны, а лимит превышен - жертвуем произвольными кольцами,
+        // чтобы память оставалась ограниченной (в худшем случае пропустим дубль)
+        Iterator<Integer> it = rings.keySet().iterator();
+        while (rings.size() >= maxUsers && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        int removed = before - rings.size();
+        if (removed > 0) {
+            evictedUsers.add(removed);
+            logger.debug("Listening dedupe evicted {} users, {} tracked", removed, rings.size());
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("windowMillis", windowMillis);
+        stats.put("ringSize", ringSize);
+        stats.put("maxUsers", maxUsers);
+        stats.put("trackedUsers", rings.size());
+        stats.put("accepted", accepted.sum());
+        stats.put("duplicates", duplicates.sum());
+        stats.put("evictedUsers", evictedUsers.sum());
+        return stats;
+    }
+
+    private static final class Ring {
+        private final int[] trackIds;
+        private final long[] times;
+        private int next;
+        private volatile long lastSeen;
+
+        Ring(int size) {
+            this.trackIds = new int[size];
+            this.times = new long[size];
+        }
+
+        synchronized boolean markIfNew(int trackId, long now, long cutoff) {
+            lastSeen = now;
+            for (int i = 0; i < trackIds.length; i++) {
+                if (trackIds[i] == trackId && times[i] > cutoff) {
+                    return false;
+                }
+            }
+            // Перезаписываем самую старую ячейку
+            trackIds[next] = trackId;
+            times[next] = now;
+            next = (next + 1) % trackIds.length;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package com.musicstreaming.service;
+
+import com.musicstreaming.model.PlayRollup;
+import com.musicstreaming.repository.PlayRollupRepository;
+import com.musicstreaming.repository.PlaylistTrackRepository;
+import com.musicstreaming.repository.TrackRepository;
+import com.musicstreaming.repository.TrackStatisticsRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Аналитика прослушиваний для кабинета музыканта: часовые, дневные и месячные агрегаты
+ * по трекам, альбомам и исполнителям (PlayRollups), добавления в плейлисты и скетчи
+ * уникальных слушателей (HyperLogLog, см. keepsListeners; окна 7/30 дней - UniqueListenerService).
+ * События приходят из PlayEventAggregator: копятся здесь по (трек, час) и пишутся в той же
+ * транзакции, что и остальной буфер, поэтому после падения восстанавливаются из журнала.
+ */
+@Service
+public class PlayAnalyticsService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlayAnalyticsService.class);
+    private static final PlayRollup.Granularity[] GRANULARITIES = PlayRollup.Granularity.values();
+
+    private final PlayRollupRepository rollupRepository;
+    private final TrackRepository trackRepository;
+    private final TrackStatisticsRepository trackStatisticsRepository;
+    private final PlaylistTrackRepository playlistTrackRepository;
+    private final TransactionTemplate backfillTransaction;
+    private final int hourlyRetentionDays;
+    private final int dailyRetentionDays;
+
+    private final ConcurrentHashMap<HourKey, Delta> pending = new ConcurrentHashMap<>();
+
+    private final LongAdder writtenRows = new LongAdder();
+    private final LongAdder purgedRows = new LongAdder();
+    private volatile int backfilledRows;
+    private volatile long lastWriteMillis;
+
+    @Autowired
+    public PlayAnalyticsService(PlayRollupRepository rollupRepository,
+                                TrackRepository trackRepository,
+                                TrackStatisticsRepository trackStatisticsRepository,
+                                PlaylistTrackRepository playlistTrackRepository,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${analytics.hourlyRetentionDays:14}") int hourlyRetentionDays,
+                                @Value("${analytics.dailyRetentionDays:400}") int dailyRetentionDays) {
+        this.rollupRepository = rollupRepository;
+        this.trackRepository = trackRepository;
+        this.trackStatisticsRepository = trackStatisticsRepository;
+        this.playlistTrackRepository = playlistTrackRepository;
+        this.backfillTransaction = new TransactionTemplate(transactionManager);
+        this.backfillTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.hourlyRetentionDays = hourlyRetentionDays;
+        this.dailyRetentionDays = dailyRetentionDays;
+    }
+
+    // ==================== Прием событий (вызывается из PlayEventAggregator) ====================
+
+    void accumulatePlay(int trackId, LocalDateTime time) {
+        pending.compute(new HourKey(trackId, time), (key, delta) -> {
+            Delta d = delta != null ? delta : new Delta();
+            d.plays++;
+            return d;
+        });
+    }
+
+    void accumulateListener(int trackId, int userId, LocalDateTime time) {
+        pending.compute(new HourKey(trackId, time), (key, delta) -> {
+            Delta d = delta != null ? delta : new Delta();
+            d.listeners.add(userId);
+            return d;
+        });
+    }
+
+    void accumulatePlaylistAdd(int trackId, LocalDateTime time) {
+        pending.compute(new HourKey(trackId, time), (key, delta) -> {
+            Delta d = delta != null ? delta : new Delta();
+            d.playlistAdds++;
+            return d;
+        });
+    }
+
+    int pendingKeys() {
+        return pending.size();
+    }
+
+    // Снимок буфера; вызывающий держит write-lock агрегатора, конкурентных записей нет
+    Map<HourKey, Delta> drain() {
+        Map<HourKey, Delta> batch = new HashMap<>();
+        for (HourKey key : pending.keySet()) {
+            Delta delta = pending.remove(key);
+            if (delta != null) {
+                batch.put(key, delta);
+            }
+        }
+        return batch;
+    }
+
+    void requeue(Map<HourKey, Delta> batch) {
+        batch.forEach((key, delta) -> pending.merge(key, delta, Delta::plus));
+    }
+
+    static long playlistAddEvents(Map<HourKey, Delta> batch) {
+        return batch.values().stream().mapToLong(delta -> delta.playlistAdds).sum();
+    }
+
+    // Пишет снимок в текущей транзакции: каждое (трек, час) раскладывается на час, день и месяц
+    // трека, его альбома и исполнителя; альбомы и исполнители треков пачки - одним запросом
+    void write(Map<HourKey, Delta> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long started = System.currentTimeMillis();
+        Set<Integer> trackIds = new HashSet<>();
+        batch.keySet().forEach(key -> trackIds.add(key.trackId));
+        Map<Integer, Object[]> catalogByTrack = new HashMap<>();
+        for (Object[] row : trackRepository.findArtistAndAlbumIdsByIdIn(trackIds)) {
+            catalogByTrack.put((Integer) row[0], row);
+        }
+
+        Map<RollupKey, Delta> rollups = new HashMap<>();
+        batch.forEach((key, delta) -> {
+            Object[] catalog = catalogByTrack.get(key.trackId);
+            fanOut(rollups, key.trackId, catalog != null ? (Integer) catalog[1] : null,
+                    catalog != null ? (Integer) catalog[2] : null, key.hour, delta, GRANULARITIES);
+        });
+        rollups.forEach(this::upsert);
+        writtenRows.add(rollups.size());
+        lastWriteMillis = System.currentTimeMillis() - started;
+    }
+
+    private static void fanOut(Map<RollupKey, Delta> rollups, int trackId, Integer artistId, Integer albumId,
+                               LocalDateTime time, Delta delta, PlayRollup.Granularity[] granularities) {
+        for (PlayRollup.Granularity granularity : granularities) {
+            LocalDateTime bucket = bucketStart(time, granularity);
+            mergeInto(rollups, new RollupKey(PlayRollup.Scope.Track, trackId, granularity, bucket), delta);
+            if (albumId != null) {
+                mergeInto(rollups, new RollupKey(PlayRollup.Scope.Album, albumId, granularity, bucket), delta);
+            }
+            if (artistId != null) {
+                mergeInto(rollups, new RollupKey(PlayRollup.Scope.Artist, artistId, granularity, bucket), delta);
+            }
+        }
+    }
+
+    private static void mergeInto(Map<RollupKey, Delta> rollups, RollupKey key, Delta delta) {
+        rollups.merge(key, keepsListeners(key.scope, key.granularity) ? delta.copy() : delta.withoutListeners(),
+                Delta::plus);
+    }
+
+    // Скетчи слушателей: дни - на всех уровнях, месяцы - у альбома и исполнителя, часы - нигде
+    static boolean keepsListeners(PlayRollup.Scope scope, PlayRollup.Granularity granularity) {
+        return granularity == PlayRollup.Granularity.Day
+                || (granularity == PlayRollup.Granularity.Month && scope != PlayRollup.Scope.Track);
+    }
+
+    private void upsert(RollupKey key, Delta delta) {
+        // Счетчики - всегда атомарным UPDATE, чтение-изменение-запись теряло бы прибавки других узлов
+        int updated = rollupRepository.increment(key.scope, key.entityId, key.granularity, key.bucket,
+                delta.plays, delta.playlistAdds);
+        if (updated == 0) {
+            PlayRollup rollup = new PlayRollup(key.scope, key.entityId, key.granularity, key.bucket);
+            rollup.setPlays(delta.plays);
+            rollup.setPlaylistAdds(delta.playlistAdds);
+            if (!delta.listeners.isEmpty()) {
+                HyperLogLog sketch = new HyperLogLog();
+                delta.listeners.forEach(sketch::add);
+                rollup.setListeners(sketch.toBytes());
+            }
+            // Параллельная вставка того же ключа упрется в UX_PlayRollups_Bucket - ключ повторится отдельно
+            rollupRepository.save(rollup);
+            return;
+        }
+        if (delta.listeners.isEmpty()) {
+            return;
+        }
+        // Скетч сливается с сохраненным под блокировкой строки до конца транзакции
+        PlayRollup rollup = rollupRepository.findBucketForUpdate(key.scope, key.entityId, key.granularity, key.bucket)
+                .orElseThrow(() -> new IllegalStateException("Play rollup disappeared: " + key.scope + " "
+                        + key.entityId + " " + key.granularity + " " + key.bucket));
+        HyperLogLog sketch = HyperLogLog.fromBytes(rollup.getListeners());
+        delta.listeners.forEach(sketch::add);
+        rollupRepository.updateListeners(rollup.getId(), sketch.toBytes());
+    }
+
+    static LocalDateTime bucketStart(LocalDateTime time, PlayRollup.Granularity granularity) {
+        switch (granularity) {
+            case Hour:
+                return time.truncatedTo(ChronoUnit.HOURS);
+            case Day:
+                return time.toLocalDate().atStartOfDay();
+            default:
+                return time.toLocalDate().withDayOfMonth(1).atStartOfDay();
+        }
+    }
+
+    // ==================== Первичное заполнение и хранение ====================
+
+    // До повтора журнала агрегатором: пустая таблица заполняется из TrackStatistics и PlaylistTracks.
+    // Часовые строки и слушателей восстановить не из чего - они копятся с момента запуска
+    @EventListener(ContextRefreshedEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void backfill() {
+        try {
+            backfillTransaction.executeWithoutResult(status -> {
+                if (rollupRepository.count() > 0) {
+                    return;
+                }
+                Map<RollupKey, Delta> rollups = new HashMap<>();
+                for (Object[] row : trackStatisticsRepository.findAllWithArtist()) {
+                    Delta delta = new Delta();
+                    delta.plays = ((Number) row[4]).longValue();
+                    addBackfillRow(rollups, row, (LocalDateTime) row[3], delta);
+                }
+                for (Object[] row : playlistTrackRepository.findAllAddsWithArtist()) {
+                    Delta delta = new Delta();
+                    delta.playlistAdds = 1;
+                    addBackfillRow(rollups, row, (LocalDateTime) row[3], delta);
+                }
+                rollups.forEach((key, delta) -> {
+                    PlayRollup rollup = new PlayRollup(key.scope, key.entityId, key.granularity, key.bucket);
+                    rollup.setPlays(delta.plays);
+                    rollup.setPlaylistAdds(delta.playlistAdds);
+                    rollupRepository.save(rollup);
+                });
+                backfilledRows = rollups.size();
+            });
+            if (backfilledRows > 0) {
+                logger.info("Backfilled {} play rollup rows from track statistics", backfilledRows);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to backfill play rollups", e);
+        }
+    }
+
+    private static void addBackfillRow(Map<RollupKey, Delta> rollups, Object[] row, LocalDateTime time, Delta delta) {
+        fanOut(rollups, (Integer) row[0], (Integer) row[1], (Integer) row[2], time, delta,
+                new PlayRollup.Granularity[]{PlayRollup.Granularity.Day, PlayRollup.Granularity.Month});
+    }
+
+    // Часовые строки нужны для графиков последних дней, дневные - для скользящих окон
+    @Scheduled(initialDelayString = "${analytics.retentionIntervalMillis:3600000}",
+               fixedDelayString = "${analytics.retentionIntervalMillis:3600000}")
+    public void purgeExpired() {
+        try {
+            Integer purged = backfillTransaction.execute(status -> {
+                LocalDateTime now = LocalDateTime.now();
+                return rollupRepository.deleteOlderThan(PlayRollup.Granularity.Hour, now.minusDays(hourlyRetentionDays))
+                        + rollupRepository.deleteOlderThan(PlayRollup.Granularity.Day, now.minusDays(dailyRetentionDays));
+            });
+            if (purged != null && purged > 0) {
+                purgedRows.add(purged);
+                logger.debug("Purged {} expired play rollup rows", purged);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to purge expired play rollups", e);
+        }
+    }
+
+    // ==================== Чтение ====================
+
+    // Сводка для кабинета: итоги за все время и последние 30 дней - два запроса; слушатели - UniqueListenerService
+    public ArtistSummary getArtistSummary(Collection<Integer> artistIds) {
+        ArtistSummary summary = new ArtistSummary();
+        if (artistIds.isEmpty()) {
+            return summary;
+        }
+        for (Object[] row : rollupRepository.sumAllTime(PlayRollup.Scope.Artist, artistIds)) {
+            summary.totalPlays = ((Number) row[0]).longValue();
+            summary.playlistAdds = ((Number) row[1]).longValue();
+        }
+
+        LocalDateTime monthStart = LocalDateTime.now().toLocalDate().minusDays(29).atStartOfDay();
+        for (PlayRollup rollup : rollupRepository.findSeries(PlayRollup.Scope.Artist, artistIds,
+                PlayRollup.Granularity.Day, monthStart)) {
+            summary.monthlyPlays += rollup.getPlays();
+        }
+        return summary;
+    }
+
+    // Прослушивания по трекам за все время - для сортировки популярных треков
+    public Map<Integer, Long> getTrackPlays(Collection<Integer> trackIds) {
+        Map<Integer, Long> plays = new HashMap<>();
+        if (trackIds.isEmpty()) {
+            return plays;
+        }
+        for (Object[] row : rollupRepository.sumPlaysByEntity(PlayRollup.Scope.Track, trackIds)) {
+            plays.put((Integer) row[0], ((Number) row[1]).longValue());
+        }
+        return plays;
+    }
+
+    // Временной ряд по нескольким трекам или исполнителям, сложенный по интервалам
+    public List<Map<String, Object>> getSeries(PlayRollup.Scope scope, Collection<Integer> entityIds,
+                                               PlayRollup.Granularity granularity, LocalDateTime from) {
+        Map<LocalDateTime, PlayRollup> merged = new TreeMap<>();
+        Map<LocalDateTime, HyperLogLog> listeners = new HashMap<>();
+        if (!entityIds.isEmpty()) {
+            for (PlayRollup rollup : rollupRepository.findSeries(scope, entityIds, granularity, bucketStart(from, granularity))) {
+                PlayRollup point = merged.computeIfAbsent(rollup.getBucketStart(),
+                        bucket -> new PlayRollup(scope, null, granularity, bucket));
+                point.setPlays(point.getPlays() + rollup.getPlays());
+                point.setPlaylistAdds(point.getPlaylistAdds() + rollup.getPlaylistAdds());
+                if (rollup.getListeners() != null) {
+                    listeners.computeIfAbsent(rollup.getBucketStart(), bucket -> new HyperLogLog())
+                            .merge(HyperLogLog.fromBytes(rollup.getListeners()));
+                }
+            }
+        }
+        List<Map<String, Object>> series = new ArrayList<>();
+        for (PlayRollup point : merged.values()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("bucket", point.getBucketStart().toString());
+            item.put("plays", point.getPlays());
+            item.put("playlistAdds", point.getPlaylistAdds());
+            HyperLogLog sketch = listeners.get(point.getBucketStart());
+            if (sketch != null) {
+                item.put("listeners", sketch.estimate());
+            }
+            series.add(item);
+        }
+        return series;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pendingKeys", pending.size());
+        stats.put("writtenRows", writtenRows.sum());
+        stats.put("lastWriteMillis", lastWriteMillis);
+        stats.put("backfilledRows", backfilledRows);
+        stats.put("purgedRows", purgedRows.sum());
+        stats.put("hourlyRetentionDays", hourlyRetentionDays);
+        stats.put("dailyRetentionDays", dailyRetentionDays);
+        return stats;
+    }
+
+    public static class ArtistSummary {
+        private long totalPlays;
+        private long playlistAdds;
+        private long monthlyPlays;
+
+        public long getTotalPlays() { return totalPlays; }
+        public long getPlaylistAdds() { return playlistAdds; }
+        public long getMonthlyPlays() { return monthlyPlays; }
+    }
+
+    static final class HourKey {
+        private final int trackId;
+        private final LocalDateTime hour;
+
+        HourKey(int trackId, LocalDateTime time) {
+            this.trackId = trackId;
+            this.hour = time.truncatedTo(ChronoUnit.HOURS);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof HourKey)) return false;
+            HourKey that = (HourKey) o;
+            return trackId == that.trackId && hour.equals(that.hour);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(trackId, hour);
+        }
+    }
+
+    private static final class RollupKey {
+        private final PlayRollup.Scope scope;
+        private final int entityId;
+        private final PlayRollup.Granularity granularity;
+        private final LocalDateTime bucket;
+
+        RollupKey(PlayRollup.Scope scope, int entityId, PlayRollup.Granularity granularity, LocalDateTime bucket) {
+            this.scope = scope;
+            this.entityId = entityId;
+            this.granularity = granularity;
+            this.bucket = bucket;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RollupKey)) return false;
+            RollupKey that = (RollupKey) o;
+            return entityId == that.entityId && scope == that.scope
+                    && granularity == that.granularity && bucket.equals(that.bucket);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(scope, entityId, granularity, bucket);
+        }
+    }
+
+    // Изменяется только внутри compute() своей корзины или в снимке, который никто больше не видит
+    static final class Delta {
+        private long plays;
+        private long playlistAdds;
+        private final Set<Integer> listeners = new HashSet<>();
+
+        Delta copy() {
+            Delta copy = withoutListeners();
+            copy.listeners.addAll(listeners);
+            return copy;
+        }
+
+        Delta withoutListeners() {
+            Delta copy = new Delta();
+            copy.plays = plays;
+            copy.playlistAdds = playlistAdds;
+            return copy;
+        }
+
+        Delta plus(Delta other) {
+            plays += other.plays;
+            playlistAdds += other.playlistAdds;
+            listeners.addAll(other.listeners);
+            return this;
+        }
+    }
+}
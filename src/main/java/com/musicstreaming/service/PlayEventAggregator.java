@@ -0,0 +1,540 @@
+package com.musicstreaming.service;
+
+import com.musicstreaming.model.AlbumStatistics;
+import com.musicstreaming.model.Recommendation;
+import com.musicstreaming.model.TrackStatistics;
+import com.musicstreaming.repository.AlbumRepository;
+import com.musicstreaming.repository.AlbumStatisticsRepository;
+import com.musicstreaming.repository.RecommendationRepository;
+import com.musicstreaming.repository.TrackRepository;
+import com.musicstreaming.repository.TrackStatisticsRepository;
+import com.musicstreaming.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Буфер прослушиваний: счетчики по (трек, день) и (альбом, день), а также записи истории
+ * для рекомендаций копятся в памяти и пачкой пишутся в базу. Каждое событие сначала
+ * попадает в PlayEventJournal, поэтому при падении JVM несброшенное восстанавливается.
+ * Агрегаты аналитики (PlayAnalyticsService) копятся из тех же событий и пишутся в той же транзакции.
+ * Прослушивания треков сразу же попадают в тренды (TrendingIndex) - они живут только в памяти.
+ * Гарантия - "хотя бы один раз": контрольная точка журнала двигается только после коммита,
+ * и только если ни одна строка не вернулась в буфер. Падение между коммитом и контрольной точкой
+ * (или после сброса, часть строк которого вернулась в буфер) повторит при восстановлении уже
+ * записанные события - счетчики за этот промежуток будут завышены. Запись не идемпотентна.
+ */
+@Service
+public class PlayEventAggregator implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlayEventAggregator.class);
+    private static final int MAX_PENDING_KEYS = 50_000;
+    // Сверх этого предела (база долго недоступна) новые события отбрасываются со счетчиком
+    private static final int HARD_LIMIT_KEYS = 2 * MAX_PENDING_KEYS;
+
+    private final TrackStatisticsRepository statsRepository;
+    private final TrackRepository trackRepository;
+    private final AlbumStatisticsRepository albumStatisticsRepository;
+    private final AlbumRepository albumRepository;
+    private final RecommendationRepository recommendationRepository;
+    private final UserRepository userRepository;
+    private final PlayEventJournal journal;
+    private final PlayAnalyticsService analytics;
+    private final TrendingIndex trending;
+    private final TransactionTemplate transactionTemplate;
+
+    // merge() в ConcurrentHashMap блокирует только свою корзину - это и есть striping
+    private final ConcurrentHashMap<DailyKey, Long> trackCounts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<DailyKey, Long> albumCounts = new ConcurrentHashMap<>();
+    private final Queue<Listen> listens = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingListens = new AtomicInteger();
+    // Несброшенные прослушивания по треку и альбому за все дни - без обхода буфера при чтении счетчика
+    private final ConcurrentHashMap<Integer, Long> pendingTrackTotals = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Long> pendingAlbumTotals = new ConcurrentHashMap<>();
+    // Треки пользователя, прослушивания которых еще не зафиксированы в recommendations: снимаются
+    // после записи пачки, а не при снятии снимка, - иначе на время сброса их не видно ни здесь, ни в базе
+    private final ConcurrentHashMap<Integer, Map<Integer, Integer>> pendingUserListens = new ConcurrentHashMap<>();
+
+    // Внеочередной сброс при переполнении идет в своем потоке, а не в потоке запроса
+    private final ExecutorService flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    // Запись: чтение журнала + буфера под read-lock; снятие снимка при сбросе - под write-lock,
+    // чтобы позиция журнала точно соответствовала содержимому снимка
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    private final LongAdder pendingEvents = new LongAdder();
+    private final LongAdder recordedEvents = new LongAdder();
+    private final LongAdder flushedEvents = new LongAdder();
+    private final LongAdder flushCount = new LongAdder();
+    private final LongAdder failedFlushes = new LongAdder();
+    private final LongAdder droppedEvents = new LongAdder();
+    private final LongAdder rejectedEvents = new LongAdder();
+    private volatile long lastFlushMillis;
+    private volatile long maxFlushMillis;
+    private volatile int lastFlushRows;
+    private volatile int replayedEvents;
+
+    @Autowired
+    public PlayEventAggregator(TrackStatisticsRepository statsRepository,
+                               TrackRepository trackRepository,
+                               AlbumStatisticsRepository albumStatisticsRepository,
+                               AlbumRepository albumRepository,
+                               RecommendationRepository recommendationRepository,
+                               UserRepository userRepository,
+                               PlayEventJournal journal,
+                               PlayAnalyticsService analytics,
+                               TrendingIndex trending,
+                               PlatformTransactionManager transactionManager) {
+        this.statsRepository = statsRepository;
+        this.trackRepository = trackRepository;
+        this.albumStatisticsRepository = albumStatisticsRepository;
+        this.albumRepository = albumRepository;
+        this.recommendationRepository = recommendationRepository;
+        this.userRepository = userRepository;
+        this.journal = journal;
+        this.analytics = analytics;
+        this.trending = trending;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.flusher = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "play-events-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void recordTrackPlay(Integer trackId) {
+        record(PlayEventJournal.TYPE_TRACK_PLAY, trackId, 0, 0, System.currentTimeMillis());
+    }
+
+    public void recordAlbumPlay(Integer albumId, Integer trackId) {
+        record(PlayEventJournal.TYPE_ALBUM_PLAY, trackId != null ? trackId : 0, 0, albumId, System.currentTimeMillis());
+    }
+
+    public void recordListen(Integer userId, Integer trackId) {
+        record(PlayEventJournal.TYPE_LISTEN, trackId, userId, 0, System.currentTimeMillis());
+    }
+
+    public void recordPlaylistAdd(Integer userId, Integer trackId) {
+        record(PlayEventJournal.TYPE_PLAYLIST_ADD, trackId, userId, 0, System.currentTimeMillis());
+    }
+
+    private void record(int type, int trackId, int userId, int albumId, long timestamp) {
+        if (pendingKeys() >= MAX_PENDING_KEYS) {
+            requestFlush();
+            if (pendingKeys() >= HARD_LIMIT_KEYS) {
+                // Сброс не успевает (база недоступна) - поток запроса не ждет, событие теряется
+                rejectedEvents.increment();
+                return;
+            }
+        }
+        snapshotLock.readLock().lock();
+        try {
+            journal.append(type, trackId, userId, albumId, timestamp);
+            apply(type, trackId, userId, albumId, timestamp);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    private void apply(int type, int trackId, int userId, int albumId, long timestamp) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault());
+        switch (type) {
+            case PlayEventJournal.TYPE_TRACK_PLAY:
+                addTrackCount(new DailyKey(trackId, time.toLocalDate()), 1L);
+                analytics.accumulatePlay(trackId, time);
+                trending.recordPlay(trackId, timestamp);
+                break;
+            case PlayEventJournal.TYPE_ALBUM_PLAY:
+                addAlbumCount(new DailyKey(albumId, time.toLocalDate()), 1L);
+                break;
+            case PlayEventJournal.TYPE_LISTEN:
+                Listen listen = new Listen(userId, trackId, time);
+                listens.add(listen);
+                pendingListens.incrementAndGet();
+                addPendingListen(listen);
+                analytics.accumulateListener(trackId, userId, time);
+                break;
+            case PlayEventJournal.TYPE_PLAYLIST_ADD:
+                analytics.accumulatePlaylistAdd(trackId, time);
+                break;
+            default:
+                logger.warn("Unknown play event type {}", type);
+                return;
+        }
+        pendingEvents.increment();
+        recordedEvents.increment();
+    }
+
+    private int pendingKeys() {
+        return Math.max(Math.max(trackCounts.size(), albumCounts.size()),
+                Math.max(pendingListens.get(), analytics.pendingKeys()));
+    }
+
+    // Один внеочередной сброс за раз; пока он идет, повторные запросы игнорируются
+    private void requestFlush() {
+        if (!flushRequested.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            flusher.execute(() -> {
+                try {
+                    flush();
+                } finally {
+                    flushRequested.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            flushRequested.set(false);
+        }
+    }
+
+    private void addTrackCount(DailyKey key, long count) {
+        trackCounts.merge(key, count, Long::sum);
+        addTotal(pendingTrackTotals, key.id, count);
+    }
+
+    private void addAlbumCount(DailyKey key, long count) {
+        albumCounts.merge(key, count, Long::sum);
+        addTotal(pendingAlbumTotals, key.id, count);
+    }
+
+    // Нулевой итог удаляется, чтобы карта не копила сброшенные id
+    private static void addTotal(ConcurrentHashMap<Integer, Long> totals, int id, long delta) {
+        totals.compute(id, (key, total) -> {
+            long value = (total != null ? total : 0) + delta;
+            return value == 0 ? null : value;
+        });
+    }
+
+    // Восстановление после рестарта: все, что есть в журнале после контрольной точки, применяется заново.
+    // Последним из слушателей старта - после заполнения агрегатов и прогрева трендов
+    @EventListener(ContextRefreshedEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void replayJournal() {
+        List<PlayEventJournal.Event> events = journal.readUncommitted();
+        if (events.isEmpty()) {
+            return;
+        }
+        logger.info("Replaying {} play events from journal", events.size());
+        snapshotLock.readLock().lock();
+        try {
+            for (PlayEventJournal.Event event : events) {
+                apply(event.getType(), event.getTrackId(), event.getUserId(), event.getAlbumId(), event.getTimestamp());
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+        replayedEvents = events.size();
+        flush();
+    }
+
+    public long getPendingTrackCount(Integer trackId) {
+        return pendingTrackTotals.getOrDefault(trackId, 0L);
+    }
+
+    // Треки, которые пользователь слушал, но которых еще нет в таблице recommendations
+    public Set<Integer> getPendingListenTrackIds(Integer userId) {
+        Set<Integer> trackIds = new HashSet<>();
+        pendingUserListens.computeIfPresent(userId, (user, tracks) -> {
+            trackIds.addAll(tracks.keySet());
+            return tracks;
+        });
+        return trackIds;
+    }
+
+    public long getPendingAlbumCount(Integer albumId) {
+        return pendingAlbumTotals.getOrDefault(albumId, 0L);
+    }
+
+    @Scheduled(fixedDelayString = "${playEvents.flushIntervalMillis:5000}")
+    public synchronized void flush() {
+        if (trackCounts.isEmpty() && albumCounts.isEmpty() && listens.isEmpty() && analytics.pendingKeys() == 0) {
+            return;
+        }
+        long started = System.currentTimeMillis();
+
+        Map<DailyKey, Long> trackBatch;
+        Map<DailyKey, Long> albumBatch;
+        List<Listen> listenBatch = new ArrayList<>();
+        Map<PlayAnalyticsService.HourKey, PlayAnalyticsService.Delta> analyticsBatch;
+        long mark;
+
+        snapshotLock.writeLock().lock();
+        try {
+            mark = journal.position();
+            trackBatch = drain(trackCounts, pendingTrackTotals);
+            albumBatch = drain(albumCounts, pendingAlbumTotals);
+            Listen listen;
+            while ((listen = listens.poll()) != null) {
+                listenBatch.add(listen);
+            }
+            pendingListens.addAndGet(-listenBatch.size());
+            analyticsBatch = analytics.drain();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+
+        // Прослушивания в аналитике - те же события, что и в trackBatch; отдельно считаются только добавления
+        long analyticsEvents = PlayAnalyticsService.playlistAddEvents(analyticsBatch);
+        long batchEvents = sum(trackBatch) + sum(albumBatch) + listenBatch.size() + analyticsEvents;
+        pendingEvents.add(-batchEvents);
+        int rows = trackBatch.size() + albumBatch.size() + listenBatch.size() + analyticsBatch.size();
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                trackBatch.forEach(this::upsertTrack);
+                albumBatch.forEach(this::upsertAlbum);
+                listenBatch.forEach(this::insertListen);
+                analytics.write(analyticsBatch);
+            });
+            flushedEvents.add(batchEvents);
+            listenBatch.forEach(this::removePendingListen);
+        } catch (DataIntegrityViolationException e) {
+            // Одна битая запись (например, трек уже удален) не должна блокировать весь буфер
+            failedFlushes.increment();
+            logger.warn("Batched flush of {} rows failed, retrying row by row: {}", rows, e.getMessage());
+            boolean requeued = false;
+            for (Map.Entry<DailyKey, Long> entry : trackBatch.entrySet()) {
+                DailyKey key = entry.getKey();
+                Long count = entry.getValue();
+                requeued |= applySingly(() -> upsertTrack(key, count), () -> addTrackCount(key, count), count);
+            }
+            for (Map.Entry<DailyKey, Long> entry : albumBatch.entrySet()) {
+                DailyKey key = entry.getKey();
+                Long count = entry.getValue();
+                requeued |= applySingly(() -> upsertAlbum(key, count), () -> addAlbumCount(key, count), count);
+            }
+            for (Listen listen : listenBatch) {
+                if (applySingly(() -> insertListen(listen), () -> requeueListen(listen), 1)) {
+                    requeued = true;
+                } else {
+                    removePendingListen(listen);
+                }
+            }
+            // Аналитика тоже по ключу (трек, час): одна плохая строка не отбрасывает все агрегаты пачки
+            for (Map.Entry<PlayAnalyticsService.HourKey, PlayAnalyticsService.Delta> entry : analyticsBatch.entrySet()) {
+                Map<PlayAnalyticsService.HourKey, PlayAnalyticsService.Delta> single =
+                        Collections.singletonMap(entry.getKey(), entry.getValue());
+                requeued |= applySingly(() -> analytics.write(single), () -> analytics.requeue(single),
+                        PlayAnalyticsService.playlistAddEvents(single));
+            }
+            if (requeued) {
+                // Вернувшиеся строки есть только в памяти и журнале - контрольную точку не двигаем
+                return;
+            }
+        } catch (RuntimeException e) {
+            // База недоступна - возвращаем снимок в буфер, контрольную точку журнала не двигаем
+            failedFlushes.increment();
+            logger.error("Failed to flush {} play rows, will retry", rows, e);
+            requeue(() -> {
+                trackBatch.forEach(this::addTrackCount);
+                albumBatch.forEach(this::addAlbumCount);
+                listenBatch.forEach(this::requeueListen);
+                analytics.requeue(analyticsBatch);
+            }, batchEvents);
+            return;
+        }
+        flushCount.increment();
+        journal.checkpoint(mark);
+
+        long elapsed = System.currentTimeMillis() - started;
+        lastFlushMillis = elapsed;
+        lastFlushRows = rows;
+        if (elapsed > maxFlushMillis) {
+            maxFlushMillis = elapsed;
+        }
+        logger.debug("Flushed {} play events in {} rows ({} ms)", batchEvents, rows, elapsed);
+    }
+
+    // true, если строка вернулась в буфер из-за временной ошибки
+    private boolean applySingly(Runnable write, Runnable requeue, long events) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> write.run());
+            flushedEvents.add(events);
+        } catch (DataIntegrityViolationException e) {
+            droppedEvents.add(events);
+            logger.error("Dropping {} play events that cannot be written: {}", events, e.getMessage());
+        } catch (RuntimeException e) {
+            requeue(requeue, events);
+            return true;
+        }
+        return false;
+    }
+
+    private void requeue(Runnable requeue, long events) {
+        snapshotLock.readLock().lock();
+        try {
+            requeue.run();
+            pendingEvents.add(events);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    private void requeueListen(Listen listen) {
+        listens.add(listen);
+        pendingListens.incrementAndGet();
+    }
+
+    // Изменения карты пользователя - внутри compute, под блокировкой его корзины
+    private void addPendingListen(Listen listen) {
+        pendingUserListens.compute(listen.userId, (user, tracks) -> {
+            Map<Integer, Integer> result = tracks != null ? tracks : new HashMap<>();
+            result.merge(listen.trackId, 1, Integer::sum);
+            return result;
+        });
+    }
+
+    private void removePendingListen(Listen listen) {
+        pendingUserListens.computeIfPresent(listen.userId, (user, tracks) -> {
+            tracks.computeIfPresent(listen.trackId, (track, count) -> count > 1 ? count - 1 : null);
+            return tracks.isEmpty() ? null : tracks;
+        });
+    }
+
+    private static Map<DailyKey, Long> drain(ConcurrentHashMap<DailyKey, Long> counts,
+                                             ConcurrentHashMap<Integer, Long> totals) {
+        Map<DailyKey, Long> batch = new HashMap<>();
+        for (DailyKey key : counts.keySet()) {
+            Long count = counts.remove(key);
+            if (count != null) {
+                batch.put(key, count);
+                addTotal(totals, key.id, -count);
+            }
+        }
+        return batch;
+    }
+
+    private static long sum(Map<DailyKey, Long> batch) {
+        return batch.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    private void upsertTrack(DailyKey key, Long count) {
+        int updated = statsRepository.incrementDailyListenCount(key.id, key.day.atStartOfDay(), count.intValue());
+        if (updated == 0) {
+            TrackStatistics stats = new TrackStatistics(trackRepository.getReferenceById(key.id));
+            stats.setDate(key.day.atStartOfDay());
+            stats.setListenCount(count.intValue());
+            statsRepository.save(stats);
+        }
+    }
+
+    private void upsertAlbum(DailyKey key, Long count) {
+        int updated = albumStatisticsRepository.incrementDailyListenCount(key.id, key.day.atStartOfDay(), count.intValue());
+        if (updated == 0) {
+            AlbumStatistics stats = new AlbumStatistics(albumRepository.getReferenceById(key.id));
+            stats.setDate(key.day.atStartOfDay());
+            stats.setListenCount(count.intValue());
+            albumStatisticsRepository.save(stats);
+        }
+    }
+
+    private void insertListen(Listen listen) {
+        Recommendation recommendation = new Recommendation(
+                userRepository.getReferenceById(listen.userId),
+                trackRepository.getReferenceById(listen.trackId));
+        recommendation.setDate(listen.date);
+        recommendationRepository.save(recommendation);
+    }
+
+    @Override
+    public void destroy() {
+        flusher.shutdownNow();
+        logger.info("Draining {} pending play events before shutdown", pendingEvents.sum());
+        flush();
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", pendingEvents.sum());
+        stats.put("pendingTrackKeys", trackCounts.size());
+        stats.put("pendingAlbumKeys", albumCounts.size());
+        stats.put("pendingListens", pendingListens.get());
+        stats.put("pendingAnalyticsKeys", analytics.pendingKeys());
+        stats.put("maxPendingKeys", MAX_PENDING_KEYS);
+        stats.put("hardLimitKeys", HARD_LIMIT_KEYS);
+        stats.put("recordedEvents", recordedEvents.sum());
+        stats.put("flushedEvents", flushedEvents.sum());
+        stats.put("droppedEvents", droppedEvents.sum());
+        stats.put("rejectedEvents", rejectedEvents.sum());
+        stats.put("replayedEvents", replayedEvents);
+        stats.put("flushes", flushCount.sum());
+        stats.put("failedFlushes", failedFlushes.sum());
+        stats.put("lastFlushMillis", lastFlushMillis);
+        stats.put("maxFlushMillis", maxFlushMillis);
+        stats.put("lastFlushRows", lastFlushRows);
+        stats.put("journal", journal.getStatistics());
+        return stats;
+    }
+
+    private static final class DailyKey {
+        private final int id;
+        private final LocalDate day;
+
+        DailyKey(int id, LocalDate day) {
+            this.id = id;
+            this.day = day;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof DailyKey)) return false;
+            DailyKey that = (DailyKey) o;
+            return id == that.id && day.equals(that.day);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, day);
+        }
+    }
+
+    private static final class Listen {
+        private final int userId;
+        private final int trackId;
+        private final LocalDateTime date;
+
+        Listen(int userId, int trackId, LocalDateTime date) {
+            this.userId = userId;
+            this.trackId = trackId;
+            this.date = date;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.musicstreaming.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Локальный журнал прослушиваний (append-only, memory-mapped сегменты).
+ * Запись события - только копирование 32 байт в отображенную память; на диск
+ * сегмент сбрасывается фоновым потоком раз в syncIntervalMillis (group commit).
+ * Позиция журнала - (номер сегмента << 32) | смещение.
+ */
+@Service
+public class PlayEventJournal implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlayEventJournal.class);
+
+    public static final int TYPE_TRACK_PLAY = 1;
+    public static final int TYPE_ALBUM_PLAY = 2;
+    public static final int TYPE_LISTEN = 3;
+    public static final int TYPE_PLAYLIST_ADD = 4;
+
+    private static final int MAGIC = 0x504C0000;
+    private static final int RECORD_SIZE = 32;
+    private static final int CHECKSUMMED_BYTES = 24;
+    private static final String SEGMENT_PREFIX = "plays-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentSize;
+    private final ScheduledExecutorService syncer;
+
+    private MappedByteBuffer current;
+    private long currentSegment;
+    private volatile boolean dirty;
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder rotations = new LongAdder();
+    private volatile long checkpoint;
+
+    public static final class Event {
+        private final int type;
+        private final int trackId;
+        private final int userId;
+        private final int albumId;
+        private final long timestamp;
+
+        public Event(int type, int trackId, int userId, int albumId, long timestamp) {
+            this.type = type;
+            this.trackId = trackId;
+            this.userId = userId;
+            this.albumId = albumId;
+            this.timestamp = timestamp;
+        }
+
+        public int getType() { return type; }
+        public int getTrackId() { return trackId; }
+        public int getUserId() { return userId; }
+        public int getAlbumId() { return albumId; }
+        public long getTimestamp() { return timestamp; }
+    }
+
+    public PlayEventJournal(@Value("${journal.enabled:true}") boolean enabled,
+                            @Value("${journal.dir:}") String dir,
+                            @Value("${journal.segmentSize:16777216}") int segmentSize,
+                            @Value("${journal.syncIntervalMillis:100}") long syncIntervalMillis) {
+        this.enabled = enabled;
+        this.directory = dir.isEmpty()
+                ? Paths.get(System.getProperty("user.dir"), "data", "journal")
+                : Paths.get(dir);
+        this.segmentSize = Math.max(RECORD_SIZE * 1024, segmentSize - segmentSize % RECORD_SIZE);
+        this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "play-journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (enabled) {
+            try {
+                Files.createDirectories(directory);
+                checkpoint = readCheckpoint();
+                List<Long> existing = listSegments();
+                long last = existing.isEmpty() ? 0 : existing.get(existing.size() - 1);
+                // Новые события всегда пишутся в свежий сегмент - старые только читаются при восстановлении
+                openSegment(Math.max(last + 1, (checkpoint >>> 32) + 1));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open play event journal in " + directory, e);
+            }
+            syncer.scheduleWithFixedDelay(this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+            logger.info("Play event journal at {} (segment {} bytes, sync every {} ms)",
+                    directory.toAbsolutePath(), this.segmentSize, syncIntervalMillis);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Добавляет событие и возвращает позицию сразу за ним; fsync не выполняется
+    public synchronized long append(int type, int trackId, int userId, int albumId, long timestamp) {
+        if (!enabled) {
+            return 0;
+        }
+        if (current.remaining() < RECORD_SIZE) {
+            rotate();
+        }
+        int start = current.position();
+        current.putInt(MAGIC | type);
+        current.putInt(trackId);
+        current.putInt(userId);
+        current.putInt(albumId);
+        current.putLong(timestamp);
+        current.putInt(checksum(current, start));
+        current.putInt(0);
+        dirty = true;
+        appended.increment();
+        return position();
+    }
+
+    public synchronized long position() {
+        return enabled ? (currentSegment << 32) | current.position() : 0;
+    }
+
+    // Все события до position уже применены к базе - сегменты до нее можно удалить
+    public void checkpoint(long position) {
+        if (!enabled || position <= checkpoint) {
+            return;
+        }
+        try {
+            Path tmp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            buffer.putLong(position);
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, 8);
+            buffer.putLong(crc.getValue());
+            Files.write(tmp, buffer.array());
+            Files.move(tmp, directory.resolve(CHECKPOINT_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            checkpoint = position;
+
+            long segment = position >>> 32;
+            for (Long seq : listSegments()) {
+                if (seq < segment) {
+                    Files.deleteIfExists(segmentPath(seq));
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to write journal checkpoint", e);
+        }
+    }
+
+    // Читает события после контрольной точки; поврежденный или недописанный хвост сегмента отбрасывается
+    public List<Event> readUncommitted() {
+        List<Event> events = new ArrayList<>();
+        if (!enabled) {
+            return events;
+        }
+        long fromSegment = checkpoint >>> 32;
+        int fromOffset = (int) checkpoint;
+        try {
+            for (Long seq : listSegments()) {
+                if (seq < fromSegment || seq == currentSegment) {
+                    continue;
+                }
+                ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(segmentPath(seq)));
+                if (seq == fromSegment) {
+                    data.position(Math.min(fromOffset, data.limit()));
+                }
+                int skipped = readSegment(data, events);
+                if (skipped > 0) {
+                    logger.warn("Journal segment {} ends with {} unreadable bytes", seq, skipped);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to read play event journal", e);
+        }
+        return events;
+    }
+
+    private int readSegment(ByteBuffer data, List<Event> events) {
+        while (data.remaining() >= RECORD_SIZE) {
+            int start = data.position();
+            int header = data.getInt();
+            if ((header & 0xFFFF0000) != MAGIC) {
+                data.position(start);
+                break;
+            }
+            int trackId = data.getInt();
+            int userId = data.getInt();
+            int albumId = data.getInt();
+            long timestamp = data.getLong();
+            int crc = data.getInt();
+            data.getInt();
+            if (crc != checksum(data, start)) {
+                data.position(start);
+                break;
+            }
+            events.add(new Event(header & 0xFFFF, trackId, userId, albumId, timestamp));
+        }
+        int rest = data.remaining();
+        // Нули после последней записи - неиспользованная часть сегмента, а не повреждение
+        for (int i = data.position(); i < data.limit(); i++) {
+            if (data.get(i) != 0) {
+                return rest;
+            }
+        }
+        return 0;
+    }
+
+    private int checksum(ByteBuffer buffer, int start) {
+        CRC32 crc = new CRC32();
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(start).limit(start + CHECKSUMMED_BYTES);
+        crc.update(slice);
+        return (int) crc.getValue();
+    }
+
+    private void sync() {
+        MappedByteBuffer toSync;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            toSync = current;
+        }
+        // force() вне блокировки: запись новых событий не ждет диска
+        toSync.force();
+        syncs.increment();
+    }
+
+    private void rotate() {
+        current.force();
+        rotations.increment();
+        try {
+            openSegment(currentSegment + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot rotate play event journal", e);
+        }
+    }
+
+    private void openSegment(long seq) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(seq),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            current = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        currentSegment = seq;
+    }
+
+    private Path segmentPath(long seq) {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, seq, SEGMENT_SUFFIX));
+    }
+
+    private List<Long> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(p -> p.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buffer.remaining() < 16) {
+            logger.warn("Journal checkpoint is truncated, replaying all segments");
+            return 0;
+        }
+        long position = buffer.getLong();
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, 8);
+        if (buffer.getLong() != crc.getValue()) {
+            logger.warn("Journal checkpoint checksum mismatch, replaying all segments");
+            return 0;
+        }
+        return position;
+    }
+
+    @Override
+    public void destroy() {
+        syncer.shutdownNow();
+        if (enabled) {
+            synchronized (this) {
+                current.force();
+            }
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("directory", directory.toAbsolutePath().toString());
+        stats.put("appended", appended.sum());
+        stats.put("syncs", syncs.sum());
+        stats.put("rotations", rotations.sum());
+        stats.put("position", position());
+        stats.put("checkpoint", checkpoint);
+        return stats;
+    }
+}
@@ -28,6 +28,9 @@ public class PlaylistService {
     @Autowired
     private TrackRepository trackRepository;
 
+    @Autowired
+    private PlayEventAggregator playEventAggregator;
+
     // Создать
     @Transactional
     public Playlist save(Playlist playlist) {
@@ -98,6 +101,9 @@ public class PlaylistService {
 
             playlist.setUpdatedDate(java.time.LocalDateTime.now());
             playlistRepository.save(playlist);
+
+            // Добавление в плейлист - событие для аналитики кабинета музыканта
+            playEventAggregator.recordPlaylistAdd(playlist.getUser().getId(), trackId);
         }
     }
 
@@ -0,0 +1,198 @@
+package com.musicstreaming.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.musicstreaming.model.Track;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+// Готовые рекомендации по userId: TTL + вытеснение по числу пользователей, чтение без общих блокировок.
+// Каждое прослушивание получает номер поколения; результат расчета, начатого до последнего
+// прослушивания пользователя, в кэш не кладется - иначе он затер бы запись, помеченную устаревшей.
+// Проверка поколения и запись атомарны по ключу (compute), а не под общей блокировкой
+@Service
+public class RecommendationCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecommendationCache.class);
+
+    private final long ttlMillis;
+    private final int maxEntries;
+
+    private final Cache<Integer, Entry> entries;
+    // Поколение последнего прослушивания пользователя; расчет длится много меньше TTL
+    private final AtomicLong generation = new AtomicLong();
+    private final Cache<Integer, Long> listenGenerations;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder computations = new LongAdder();
+    private final LongAdder computeNanos = new LongAdder();
+    private final LongAdder savedNanos = new LongAdder();
+    private final LongAdder rejectedPuts = new LongAdder();
+
+    public static final class Entry {
+        private final List<Track> tracks;
+        private final boolean personalized;
+        private final long computedAt;
+        private final long computeNanos;
+        private final boolean stale;
+        private volatile long lastAccess;
+
+        Entry(List<Track> tracks, boolean personalized, long computedAt, long computeNanos, boolean stale) {
+            this.tracks = Collections.unmodifiableList(new ArrayList<>(tracks));
+            this.personalized = personalized;
+            this.computedAt = computedAt;
+            this.computeNanos = computeNanos;
+            this.stale = stale;
+            this.lastAccess = computedAt;
+        }
+
+        public List<Track> getTracks(int limit) {
+            return tracks.size() <= limit ? tracks : tracks.subList(0, limit);
+        }
+
+        public boolean isPersonalized() {
+            return personalized;
+        }
+    }
+
+    public RecommendationCache(@Value("${recommendations.cache.ttlMillis:600000}") long ttlMillis,
+                               @Value("${recommendations.cache.maxEntries:10000}") int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = Math.max(0, maxEntries);
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(this.maxEntries)
+                .expireAfterWrite(Math.max(0, ttlMillis), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        this.listenGenerations = Caffeine.newBuilder()
+                .expireAfterWrite(Math.max(ttlMillis, 60_000), TimeUnit.MILLISECONDS)
+                .build();
+        logger.info("Recommendation cache: ttl={} ms, maxEntries={}", ttlMillis, this.maxEntries);
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0 && ttlMillis > 0;
+    }
+
+    // Устаревшая (после прослушивания) запись тоже отдается - ее пересчитает фоновое обновление
+    public Entry get(Integer userId) {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.getIfPresent(userId);
+        // Запись после прослушивания перезаписана, но срок жизни считается от расчета
+        if (entry != null && now - entry.computedAt > ttlMillis) {
+            entries.asMap().remove(userId, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        savedNanos.add(entry.computeNanos);
+        entry.lastAccess = now;
+        return entry;
+    }
+
+    // Снимается до начала расчета и передается в put
+    public long currentGeneration() {
+        return generation.get();
+    }
+
+    public Entry put(Integer userId, long startedGeneration, List<Track> tracks, boolean personalized,
+                     long elapsedNanos) {
+        Entry entry = new Entry(tracks, personalized, System.currentTimeMillis(), elapsedNanos, false);
+        computations.increment();
+        computeNanos.add(elapsedNanos);
+        if (!isEnabled()) {
+            return entry;
+        }
+        entries.asMap().compute(userId, (key, previous) -> {
+            // onListen поднимает поколение до изменения записи - проверка внутри compute не пропустит его
+            Long listened = listenGenerations.getIfPresent(userId);
+            if (listened != null && listened > startedGeneration) {
+                // Пользователь слушал во время расчета - отдаем результат вызывающему, но не кэшируем
+                rejectedPuts.increment();
+                return previous;
+            }
+            if (previous != null) {
+                // Фоновое обновление не должно сбрасывать признак активности пользователя
+                entry.lastAccess = Math.max(entry.lastAccess, previous.lastAccess);
+                refreshes.increment();
+            }
+            return entry;
+        });
+        return entry;
+    }
+
+    // Новое прослушивание: трек убираем из готового списка сразу, остальное пересчитается в фоне.
+    // Пока рекомендации не персональные, прослушивание может перевести пользователя через порог - сбрасываем
+    public void onListen(Integer userId, Integer trackId) {
+        listenGenerations.put(userId, generation.incrementAndGet());
+        entries.asMap().computeIfPresent(userId, (key, entry) -> {
+            if (!entry.personalized) {
+                return null;
+            }
+            List<Track> remaining = entry.tracks.stream()
+                    .filter(track -> !track.getId().equals(trackId))
+                    .collect(Collectors.toList());
+            Entry updated = new Entry(remaining, true, entry.computedAt, entry.computeNanos, true);
+            updated.lastAccess = entry.lastAccess;
+            return updated;
+        });
+    }
+
+    public void invalidate(Integer userId) {
+        entries.invalidate(userId);
+    }
+
+    // Пользователи, заходившие в пределах TTL, чьи записи устарели или скоро истекут
+    public List<Integer> usersToRefresh() {
+        long now = System.currentTimeMillis();
+        List<Integer> users = new ArrayList<>();
+        for (Map.Entry<Integer, Entry> e : entries.asMap().entrySet()) {
+            Entry entry = e.getValue();
+            boolean active = now - entry.lastAccess < ttlMillis;
+            boolean expiring = now - entry.computedAt > ttlMillis * 3 / 4;
+            if (active && (entry.stale || expiring)) {
+                users.add(e.getKey());
+            }
+        }
+        return users;
+    }
+
+    public Map<String, Object> getStatistics() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long total = hitCount + missCount;
+        long computed = computations.sum();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("ttlMillis", ttlMillis);
+        stats.put("maxEntries", maxEntries);
+        stats.put("entries", entries.estimatedSize());
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", total == 0 ? 0.0 : (double) hitCount / total);
+        stats.put("refreshes", refreshes.sum());
+        stats.put("rejectedPuts", rejectedPuts.sum());
+        stats.put("evictions", entries.stats().evictionCount());
+        stats.put("avgComputeMillis", computed == 0 ? 0.0 : computeNanos.sum() / 1_000_000.0 / computed);
+        stats.put("savedMillis", savedNanos.sum() / 1_000_000);
+        return stats;
+    }
+}
@@ -2,14 +2,18 @@ package com.musicstreaming.service;
 
 import com.musicstreaming.model.*;
 import com.musicstreaming.repository.*;
+import org.hibernate.Hibernate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -19,103 +23,118 @@ public class RecommendationService {
 
     private static final Logger logger = LoggerFactory.getLogger(RecommendationService.class);
     private static final int MIN_LISTENINGS_FOR_PERSONALIZED = 3;
-    private static final int POPULAR_TRACKS_DAYS = 14;
+    // Сколько рекомендаций держим в кэше на пользователя (страницы показывают 10)
+    private static final int CACHED_RECOMMENDATIONS = 20;
 
     private final RecommendationRepository recommendationRepository;
     private final TrackRepository trackRepository;
-    private final UserRepository userRepository;
+    private final PlayEventAggregator playEventAggregator;
+    private final ListeningDeduplicator listeningDeduplicator;
+    private final RecommendationCache recommendationCache;
+    private final CoListeningIndex coListeningIndex;
+    private final TrendingIndex trendingIndex;
+    private final TransactionTemplate readOnlyTransaction;
 
     @Autowired
     public RecommendationService(RecommendationRepository recommendationRepository,
                                  TrackRepository trackRepository,
-                                 UserRepository userRepository) {
+                                 PlayEventAggregator playEventAggregator,
+                                 ListeningDeduplicator listeningDeduplicator,
+                                 RecommendationCache recommendationCache,
+                                 CoListeningIndex coListeningIndex,
+                                 TrendingIndex trendingIndex,
+                                 PlatformTransactionManager transactionManager) {
         this.recommendationRepository = recommendationRepository;
         this.trackRepository = trackRepository;
-        this.userRepository = userRepository;
+        this.playEventAggregator = playEventAggregator;
+        this.listeningDeduplicator = listeningDeduplicator;
+        this.recommendationCache = recommendationCache;
+        this.coListeningIndex = coListeningIndex;
+        this.trendingIndex = trendingIndex;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
     }
 
-    @Transactional
+    // Вызывающий код уже проверил трек и пользователя; база здесь не нужна вовсе
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public void recordListening(Integer userId, Integer trackId) {
-        logger.info("=== recordListening START: userId={}, trackId={} ===", userId, trackId);
-
-        User user = userRepository.findById(userId).orElse(null);
-        Track track = trackRepository.findById(trackId).orElse(null);
-
-        if (user == null) {
-            logger.error("=== User not found: {} ===", userId);
+        if (userId == null || trackId == null) {
             return;
         }
-        if (track == null) {
-            logger.error("=== Track not found: {} ===", trackId);
+        // Повтор того же трека в пределах окна (5 минут) не считается новым прослушиванием
+        if (!listeningDeduplicator.markIfNew(userId, trackId)) {
+            logger.debug("Skipping duplicate listening record for user={}, track={}", userId, trackId);
             return;
         }
 
-        // Проверяем, не было ли такого же прослушивания в последние 5 минут
-        List<Recommendation> recentListenings = recommendationRepository
-                .findByUserIdAndDateAfter(userId, LocalDateTime.now().minusMinutes(5));
+        // Запись попадает в журнал сразу, в таблицу recommendations - при ближайшем сбросе буфера
+        playEventAggregator.recordListen(userId, trackId);
+        recommendationCache.onListen(userId, trackId);
+        coListeningIndex.onListen(userId, trackId);
+        logger.debug("Recorded listening for user={}, track={}", userId, trackId);
+    }
 
-        boolean recentDuplicate = recentListenings.stream()
-                .anyMatch(r -> r.getTrack().getId().equals(trackId));
+    // Рекомендации для главной и пустого поиска; на попадании в кэш база не трогается
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public RecommendationCache.Entry getCachedRecommendations(Integer userId) {
+        RecommendationCache.Entry entry = recommendationCache.get(userId);
+        return entry != null ? entry : computeAndCache(userId);
+    }
 
-        if (recentDuplicate) {
-            logger.info("=== Skipping duplicate listening record for user={}, track={} ===", userId, trackId);
+    // Держим теплыми записи активных пользователей: пересчет после прослушиваний и до истечения TTL
+    @Scheduled(fixedDelayString = "${recommendations.cache.refreshIntervalMillis:30000}")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void refreshActiveUsers() {
+        if (!recommendationCache.isEnabled()) {
             return;
         }
-
-        Recommendation recommendation = new Recommendation(user, track);
-        recommendationRepository.save(recommendation);
-
-        // Проверяем, что запись сохранилась
-        long totalListenings = recommendationRepository.countByUserId(userId);
-        logger.info("=== SUCCESS: Recorded listening - user={}, track={}, title={}. Total listenings for user: {} ===",
-                userId, trackId, track.getTitle(), totalListenings);
-    }
-
-    @Transactional(readOnly = true)
-    public List<Track> getRecommendationsForHome(Integer userId, int limit) {
-        logger.info("=== getRecommendationsForHome: userId={}, limit={} ===", userId, limit);
-
-        if (userId == null) {
-            logger.info("No user, returning popular tracks");
-            return getPopularTracksForPeriod(limit);
+        List<Integer> users = recommendationCache.usersToRefresh();
+        for (Integer userId : users) {
+            try {
+                computeAndCache(userId);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to refresh recommendations for user {}: {}", userId, e.getMessage());
+                recommendationCache.invalidate(userId);
+            }
         }
-
-        long listenCount = recommendationRepository.countByUserId(userId);
-        logger.info("User {} has {} listenings (need {} for personalized)", userId, listenCount, MIN_LISTENINGS_FOR_PERSONALIZED);
-
-        if (listenCount < MIN_LISTENINGS_FOR_PERSONALIZED) {
-            logger.info("Not enough listenings for user {}, showing popular tracks", userId);
-            return getPopularTracksForPeriod(limit);
+        if (!users.isEmpty()) {
+            logger.debug("Refreshed recommendations for {} users", users.size());
         }
-
-        logger.info("Generating personalized recommendations for user {}", userId);
-        List<Track> recommendations = getPersonalizedRecommendations(userId, limit);
-        logger.info("=== Generated {} personalized recommendations for user {} ===", recommendations.size(), userId);
-
-        return recommendations;
     }
 
-    @Transactional(readOnly = true)
-    public List<Track> getRecommendationsForSearch(Integer userId, int limit) {
-        return getRecommendationsForHome(userId, limit);
+    private RecommendationCache.Entry computeAndCache(Integer userId) {
+        long started = System.nanoTime();
+        long generation = recommendationCache.currentGeneration();
+        return readOnlyTransaction.execute(status -> {
+            boolean personalized = recommendationRepository.countByUserId(userId) >= MIN_LISTENINGS_FOR_PERSONALIZED;
+            List<Track> tracks = new ArrayList<>(personalized
+                    ? buildPersonalizedRecommendations(userId, CACHED_RECOMMENDATIONS)
+                    : getPopularTracksForPeriod(CACHED_RECOMMENDATIONS));
+            // Прослушивания из буфера агрегатора в таблицу еще не попали - такие треки убираем сами
+            Set<Integer> pending = playEventAggregator.getPendingListenTrackIds(userId);
+            if (!pending.isEmpty()) {
+                tracks.removeIf(track -> pending.contains(track.getId()));
+            }
+            // Связи, которые показывают шаблоны, загружаем сразу: кэшированные треки читаются из разных потоков
+            for (Track track : tracks) {
+                Hibernate.initialize(track.getArtist());
+                Hibernate.initialize(track.getAlbum());
+                Hibernate.initialize(track.getGenre());
+            }
+            return recommendationCache.put(userId, generation, tracks, personalized, System.nanoTime() - started);
+        });
     }
 
-    @Transactional(readOnly = true)
-    public List<Track> getPersonalizedRecommendations(Integer userId, int limit) {
-        logger.info("=== getPersonalizedRecommendations START: userId={}, limit={} ===", userId, limit);
-
-        // Проверяем количество прослушиваний
-        long totalListens = recommendationRepository.countByUserId(userId);
-        logger.info("Total listenings for user {}: {}", userId, totalListens);
-
-        if (totalListens < MIN_LISTENINGS_FOR_PERSONALIZED) {
-            logger.info("Not enough data for personalized, returning popular");
-            return getPopularTracksForPeriod(limit);
-        }
-
+    private List<Track> buildPersonalizedRecommendations(Integer userId, int limit) {
         List<Track> recommendations = new ArrayList<>();
         Set<Integer> recommendedTrackIds = new HashSet<>();
 
+        // 0. Слушатели похожих треков также слушали (30% от лимита), из матрицы в памяти
+        int coListeningLimit = Math.max(1, limit * 30 / 100);
+        List<Track> coListeningRecs = getCoListeningRecommendations(userId, coListeningLimit * 2);
+        logger.info("Got {} co-listening tracks", coListeningRecs.size());
+        addUniqueTracks(recommendations, coListeningRecs, recommendedTrackIds, coListeningLimit);
+
         // 1. Рекомендации на основе жанров (40% от лимита)
         int genreLimit = Math.max(1, limit * 40 / 100);
         logger.info("Getting genre-based recommendations (limit={})", genreLimit);
@@ -165,54 +184,36 @@ public class RecommendationService {
         return recommendations.stream().limit(limit).collect(Collectors.toList());
     }
 
-    @Transactional(readOnly = true)
+    // Тренд недели из памяти; новинками он дополняется при обновлении снимка
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public List<Track> getPopularTracksForPeriod(int limit) {
-        LocalDateTime since = LocalDateTime.now().minusDays(POPULAR_TRACKS_DAYS);
-        logger.info("Getting popular tracks since {} (limit={})", since, limit);
+        return trendingIndex.getTrending(TrendingIndex.Period.Week, limit);
+    }
 
-        try {
-            List<Object[]> popularTracksData = recommendationRepository
-                    .findPopularTracksSince(since, PageRequest.of(0, limit));
-
-            if (!popularTracksData.isEmpty()) {
-                List<Track> tracks = popularTracksData.stream()
-                        .map(row -> (Track) row[0])
-                        .collect(Collectors.toList());
-                logger.info("Found {} popular tracks in last {} days", tracks.size(), POPULAR_TRACKS_DAYS);
-                return tracks;
-            }
-        } catch (Exception e) {
-            logger.warn("Error getting popular tracks from recommendations: {}", e.getMessage());
+    private List<Track> getCoListeningRecommendations(Integer userId, int limit) {
+        if (!coListeningIndex.isReady()) {
+            return Collections.emptyList();
         }
-
-        // Fallback: если нет данных в recommendations, используем TrackStatistics
-        logger.info("Falling back to TrackStatistics for popular tracks");
         try {
-            List<Track> tracks = trackRepository.findByIsModeratedTrueOrderByIdDesc()
-                    .stream()
-                    .limit(limit)
+            List<Integer> listened = recommendationRepository.findDistinctTrackIdsByUserId(userId);
+            List<Integer> trackIds = coListeningIndex.recommend(listened, limit);
+            if (trackIds.isEmpty()) {
+                return Collections.emptyList();
+            }
+            // Исполнитель, альбом и жанр загружаются сразу: список уходит в общий RecommendationCache
+            Map<Integer, Track> tracks = trackRepository.findModeratedByIdIn(trackIds).stream()
+                    .collect(Collectors.toMap(Track::getId, track -> track));
+            // Сохраняем порядок по близости из матрицы
+            return trackIds.stream()
+                    .map(tracks::get)
+                    .filter(Objects::nonNull)
                     .collect(Collectors.toList());
-            logger.info("Fallback: returning {} recent tracks", tracks.size());
-            return tracks;
         } catch (Exception e) {
-            logger.error("Error getting fallback tracks", e);
+            logger.error("Error getting co-listening recommendations for user {}: {}", userId, e.getMessage(), e);
             return Collections.emptyList();
         }
     }
 
-    @Transactional(readOnly = true)
-    public boolean hasEnoughDataForPersonalized(Integer userId) {
-        if (userId == null) {
-            logger.debug("hasEnoughDataForPersonalized: userId is null");
-            return false;
-        }
-        long count = recommendationRepository.countByUserId(userId);
-        boolean hasEnough = count >= MIN_LISTENINGS_FOR_PERSONALIZED;
-        logger.debug("hasEnoughDataForPersonalized for user {}: {} (count={}, needed={})",
-                userId, hasEnough, count, MIN_LISTENINGS_FOR_PERSONALIZED);
-        return hasEnough;
-    }
-
     private List<Track> getGenreBasedRecommendations(Integer userId, int limit) {
         try {
             List<Object[]> genrePreferences = recommendationRepository.findGenrePreferencesByUserId(userId);
@@ -0,0 +1,104 @@
+package com.musicstreaming.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Приведение текста для поиска: нижний регистр, кириллица -> латиница, без диакритики.
+ * "Кино" и "kino" дают одинаковую строку, поэтому транслитерация работает в обе стороны.
+ */
+final class SearchText {
+
+    private static final String[] CYRILLIC = new String[0x450 - 0x430];
+
+    static {
+        String[] latin = {"a", "b", "v", "g", "d", "e", "zh", "z", "i", "y", "k", "l", "m", "n", "o", "p",
+                "r", "s", "t", "u", "f", "h", "ts", "ch", "sh", "sch", "", "y", "", "e", "yu", "ya"};
+        System.arraycopy(latin, 0, CYRILLIC, 0, latin.length);
+    }
+
+    private SearchText() {
+    }
+
+    static String fold(String text) {
+        if (text == null || text.isEmpty()) {
+            return "";
+        }
+        String lower = text.trim().toLowerCase(Locale.ROOT);
+        StringBuilder out = new StringBuilder(lower.length() + 8);
+        boolean latinMarks = false;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (c >= 0x430 && c < 0x450) {
+                out.append(CYRILLIC[c - 0x430]);
+            } else if (c == '\u0451') {
+                out.append('e');
+            } else {
+                out.append(c);
+                latinMarks |= c > 0x7F;
+            }
+        }
+        if (!latinMarks) {
+            return out.toString();
+        }
+        // é -> e, ü -> u и т.п.
+        return Normalizer.normalize(out, Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+    }
+
+    // Слова уже приведенного текста: последовательности букв и цифр
+    static List<String> tokens(String folded) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean word = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                tokens.add(folded.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // Расстояние Левенштейна, если оно не больше max; иначе max + 1. Считается только полоса шириной 2*max+1
+    static int boundedDistance(String a, String b, int max) {
+        int n = a.length();
+        int m = b.length();
+        if (Math.abs(n - m) > max) {
+            return max + 1;
+        }
+        int[] previous = new int[m + 1];
+        int[] current = new int[m + 1];
+        for (int j = 0; j <= m; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            int from = Math.max(1, i - max);
+            int to = Math.min(m, i + max);
+            current[0] = i;
+            if (from > 1) {
+                current[from - 1] = max + 1;
+            }
+            int rowMin = current[0];
+            for (int j = from; j <= to; j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(previous[j - 1] + cost, Math.min(previous[j], current[j - 1]) + 1);
+                current[j] = Math.min(value, max + 1);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (to < m) {
+                current[to + 1] = max + 1;
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[m], max + 1);
+    }
+}
@@ -0,0 +1,242 @@
+package com.musicstreaming.service;
+
+import com.musicstreaming.model.User;
+import com.musicstreaming.repository.SubscriptionRepository;
+import com.musicstreaming.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Истечение подписок точно в момент окончания. В очереди с задержкой (DelayQueue) лежат только
+ * подписки, заканчивающиеся в ближайшем окне; окно подгружается запросом по диапазону EndDate,
+ * поэтому работа пропорциональна числу истекающих, а не всех активных подписок.
+ * Наступившие окончания забираются пачкой и обрабатываются двумя массовыми UPDATE:
+ * подписки - в expired, подписчики без другой активной подписки - в User.
+ */
+@Service
+public class SubscriptionExpiryService implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubscriptionExpiryService.class);
+
+    private final SubscriptionRepository subscriptionRepository;
+    private final UserRepository userRepository;
+    private final EntitlementService entitlementService;
+    private final DashboardStatisticsService dashboardStatistics;
+    private final TransactionTemplate transactionTemplate;
+    private final long horizonMillis;
+
+    private final DelayQueue<Expiry> queue = new DelayQueue<>();
+    // Id подписки -> момент окончания в очереди: повторная подгрузка окна не дублирует записи
+    private final Map<Integer, Long> scheduled = new ConcurrentHashMap<>();
+    private final ExecutorService worker;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile boolean running = true;
+    // Граница уже подгруженного окна: подписки с окончанием раньше нее ставятся в очередь при создании
+    private volatile long loadedUntil;
+
+    private final LongAdder expiredSubscriptions = new LongAdder();
+    private final LongAdder downgradedUsers = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder staleEntries = new LongAdder();
+    private volatile long lastBatchMillis;
+    private volatile long lastLoadMillis;
+
+    @Autowired
+    public SubscriptionExpiryService(SubscriptionRepository subscriptionRepository,
+                                     UserRepository userRepository,
+                                     EntitlementService entitlementService,
+                                     DashboardStatisticsService dashboardStatistics,
+                                     PlatformTransactionManager transactionManager,
+                                     @Value("${subscriptions.expiry.horizonMillis:7200000}") long horizonMillis) {
+        this.subscriptionRepository = subscriptionRepository;
+        this.userRepository = userRepository;
+        this.entitlementService = entitlementService;
+        this.dashboardStatistics = dashboardStatistics;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.horizonMillis = Math.max(60_000, horizonMillis);
+        this.worker = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "subscription-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // При старте в окно попадают и просроченные, пока приложение не работало: они истекут сразу
+    @EventListener(ContextRefreshedEvent.class)
+    public void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        loadWindow();
+        worker.execute(this::run);
+    }
+
+    // Окно подгружается с запасом: период вдвое меньше окна
+    @Scheduled(initialDelayString = "${subscriptions.expiry.loadIntervalMillis:3600000}",
+               fixedDelayString = "${subscriptions.expiry.loadIntervalMillis:3600000}")
+    public void loadWindow() {
+        long started = System.currentTimeMillis();
+        long until = started + horizonMillis;
+        try {
+            List<Object[]> rows = subscriptionRepository.findExpiringUntil(toLocalDateTime(until));
+            for (Object[] row : rows) {
+                schedule((Integer) row[0], (Integer) row[1], (LocalDateTime) row[2]);
+            }
+            loadedUntil = until;
+            lastLoadMillis = System.currentTimeMillis() - started;
+            logger.debug("Loaded {} subscriptions expiring in the next {} ms", rows.size(), horizonMillis);
+        } catch (RuntimeException e) {
+            logger.error("Failed to load expiring subscriptions", e);
+        }
+    }
+
+    // Новая или продленная подписка; окончание за пределами окна подхватит следующая подгрузка
+    public void schedule(Integer subscriptionId, Integer userId, LocalDateTime endDate) {
+        if (subscriptionId == null || userId == null || endDate == null) {
+            return;
+        }
+        long at = toEpochMillis(endDate);
+        if (at > Math.max(loadedUntil, System.currentTimeMillis() + horizonMillis)) {
+            return;
+        }
+        Long previous = scheduled.put(subscriptionId, at);
+        if (previous == null || previous != at) {
+            queue.add(new Expiry(subscriptionId, userId, at));
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                List<Expiry> batch = new ArrayList<>();
+                batch.add(queue.take());
+                // Все, что уже наступило, - одной пачкой
+                queue.drainTo(batch);
+                expire(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                // Необработанные подписки остались активными - следующая подгрузка окна вернет их в очередь
+                logger.error("Failed to expire subscriptions", e);
+            }
+        }
+    }
+
+    private void expire(List<Expiry> batch) {
+        long started = System.currentTimeMillis();
+        Set<Integer> subscriptionIds = new LinkedHashSet<>();
+        Set<Integer> userIds = new LinkedHashSet<>();
+        for (Expiry expiry : batch) {
+            // Запись устарела, если подписку успели перепланировать на другой момент
+            if (scheduled.remove(expiry.subscriptionId, expiry.at)) {
+                subscriptionIds.add(expiry.subscriptionId);
+                userIds.add(expiry.userId);
+            } else {
+                staleEntries.increment();
+            }
+        }
+        if (subscriptionIds.isEmpty()) {
+            return;
+        }
+
+        List<Integer> downgraded = transactionTemplate.execute(status -> {
+            LocalDateTime now = LocalDateTime.now();
+            // Условие в UPDATE отсекает продленные и уже деактивированные подписки
+            int expired = subscriptionRepository.expire(subscriptionIds, now);
+            expiredSubscriptions.add(expired);
+            List<Integer> users = userRepository.findSubscribersWithoutActiveSubscription(userIds, now);
+            if (!users.isEmpty()) {
+                userRepository.downgradeSubscribers(users);
+                for (int i = 0; i < users.size(); i++) {
+                    dashboardStatistics.userRoleChanged(User.UserRole.Subscriber, User.UserRole.User);
+                }
+            }
+            userIds.forEach(entitlementService::invalidate);
+            return users;
+        });
+
+        downgradedUsers.add(downgraded.size());
+        batches.increment();
+        lastBatchMillis = System.currentTimeMillis() - started;
+        logger.info("Expired {} subscriptions, downgraded {} users to User", subscriptionIds.size(), downgraded.size());
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queued", queue.size());
+        stats.put("horizonMillis", horizonMillis);
+        Expiry next = queue.peek();
+        stats.put("nextExpiryAt", next != null ? toLocalDateTime(next.at).toString() : null);
+        stats.put("expiredSubscriptions", expiredSubscriptions.sum());
+        stats.put("downgradedUsers", downgradedUsers.sum());
+        stats.put("batches", batches.sum());
+        stats.put("staleEntries", staleEntries.sum());
+        stats.put("lastBatchMillis", lastBatchMillis);
+        stats.put("lastLoadMillis", lastLoadMillis);
+        return stats;
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        worker.shutdownNow();
+    }
+
+    private static long toEpochMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    private static final class Expiry implements Delayed {
+        private final int subscriptionId;
+        private final int userId;
+        private final long at;
+
+        Expiry(int subscriptionId, int userId, long at) {
+            this.subscriptionId = subscriptionId;
+            this.userId = userId;
+            this.at = at;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(at - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(at, ((Expiry) other).at);
+        }
+    }
+}
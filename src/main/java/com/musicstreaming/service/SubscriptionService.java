@@ -23,12 +23,21 @@ public class SubscriptionService {
 
     private final SubscriptionRepository subscriptionRepository;
     private final UserRepository userRepository;
+    private final DashboardStatisticsService dashboardStatistics;
+    private final EntitlementService entitlementService;
+    private final SubscriptionExpiryService expiryService;
 
     @Autowired
     public SubscriptionService(SubscriptionRepository subscriptionRepository,
-                               UserRepository userRepository) {
+                               UserRepository userRepository,
+                               DashboardStatisticsService dashboardStatistics,
+                               EntitlementService entitlementService,
+                               SubscriptionExpiryService expiryService) {
         this.subscriptionRepository = subscriptionRepository;
         this.userRepository = userRepository;
+        this.dashboardStatistics = dashboardStatistics;
+        this.entitlementService = entitlementService;
+        this.expiryService = expiryService;
     }
 
     public Optional<Subscription> findById(Integer id) {
@@ -76,12 +85,15 @@ public class SubscriptionService {
 
         // Обновляем роль пользователя
         if (user.getRole() == User.UserRole.User) {
+            dashboardStatistics.userRoleChanged(user.getRole(), User.UserRole.Subscriber);
             user.setRole(User.UserRole.Subscriber);
             userRepository.save(user);
             logger.info("User {} role updated to Subscriber", user.getUsername());
         }
 
         Subscription saved = subscriptionRepository.save(subscription);
+        entitlementService.invalidate(userId);
+        expiryService.schedule(saved.getId(), userId, saved.getEndDate());
         logger.info("Created and activated subscription for user {}: plan={}, endDate={}, id={}",
                 userId, plan, subscription.getEndDate(), saved.getId());
 
@@ -98,7 +110,12 @@ public class SubscriptionService {
 
             // Обновляем роль пользователя при активации
             User user = subscription.getUser();
+            if (user != null) {
+                entitlementService.invalidate(user.getId());
+                expiryService.schedule(subscription.getId(), user.getId(), subscription.getEndDate());
+            }
             if (user != null && user.getRole() == User.UserRole.User) {
+                dashboardStatistics.userRoleChanged(user.getRole(), User.UserRole.Subscriber);
                 user.setRole(User.UserRole.Subscriber);
                 userRepository.save(user);
                 logger.info("User {} role updated to Subscriber during activation", user.getUsername());
@@ -117,6 +134,7 @@ public class SubscriptionService {
             // Проверяем, есть ли другие активные подписки
             User user = subscription.getUser();
             if (user != null) {
+                entitlementService.invalidate(user.getId());
                 checkAndUpdateUserRole(user.getId());
             }
 
@@ -124,53 +142,38 @@ public class SubscriptionService {
         });
     }
 
+    // Возвращает роль пользователя после проверки; null, если пользователя нет
     @Transactional
-    public void checkExpiredSubscriptions() {
-        List<Subscription> activeSubscriptions = subscriptionRepository.findActiveSubscriptions(LocalDateTime.now());
-        LocalDateTime now = LocalDateTime.now();
-
-        for (Subscription sub : activeSubscriptions) {
-            if (sub.getEndDate().isBefore(now)) {
-                sub.setStatus("expired");
-                sub.setActivated(false);
-                subscriptionRepository.save(sub);
-                logger.info("Subscription {} expired", sub.getId());
-
-                // Обновляем роль пользователя
-                User user = sub.getUser();
-                if (user != null) {
-                    checkAndUpdateUserRole(user.getId());
-                }
-            }
-        }
-    }
-
-    @Transactional
-    public void checkAndUpdateUserRole(Integer userId) {
+    public User.UserRole checkAndUpdateUserRole(Integer userId) {
         User user = userRepository.findById(userId).orElse(null);
         if (user == null) {
-            return;
+            return null;
         }
 
         if (user.getRole() == User.UserRole.Admin || user.getRole() == User.UserRole.Musician) {
-            return;
+            return user.getRole();
         }
 
         boolean hasActiveSubscription = findActiveByUserId(userId).isPresent();
 
         if (hasActiveSubscription) {
             if (user.getRole() != User.UserRole.Subscriber) {
+                dashboardStatistics.userRoleChanged(user.getRole(), User.UserRole.Subscriber);
                 user.setRole(User.UserRole.Subscriber);
                 userRepository.save(user);
+                entitlementService.invalidate(userId);
                 logger.info("User {} role restored to Subscriber (has active subscription)", user.getUsername());
             }
         } else {
             if (user.getRole() == User.UserRole.Subscriber) {
+                dashboardStatistics.userRoleChanged(user.getRole(), User.UserRole.User);
                 user.setRole(User.UserRole.User);
                 userRepository.save(user);
+                entitlementService.invalidate(userId);
                 logger.info("User {} role downgraded to User (no active subscription)", user.getUsername());
             }
         }
+        return user.getRole();
     }
 
     @Transactional
@@ -181,6 +184,10 @@ public class SubscriptionService {
             return;
         }
 
-        checkAndUpdateUserRole(user.getId());
+        // Переданный объект получает актуальную роль - вызывающему не нужно перечитывать пользователя
+        User.UserRole role = checkAndUpdateUserRole(user.getId());
+        if (role != null) {
+            user.setRole(role);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,179 @@
+package com.musicstreaming.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.musicstreaming.repository.TrackRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Индекс trackId -> файл на диске: стриминг не делает проверок файловой системы на каждый запрос
+@Service
+public class TrackFileIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrackFileIndex.class);
+
+    private static final long NEGATIVE_TTL_MILLIS = 60_000;
+    private static final int MAX_NEGATIVE_ENTRIES = 10_000;
+
+    private final TrackRepository trackRepository;
+    private final Path uploadDir;
+
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    // Известные промахи с TTL; при переполнении вытесняются отдельные записи, а не весь кэш
+    private final Cache<Integer, Boolean> misses = Caffeine.newBuilder()
+            .maximumSize(MAX_NEGATIVE_ENTRIES)
+            .expireAfterWrite(NEGATIVE_TTL_MILLIS, TimeUnit.MILLISECONDS)
+            .build();
+
+    public static final class Entry {
+        private final Path path;
+        private final String canonicalPath;
+        private final long size;
+        private final long lastModified;
+        private final String contentType;
+
+        Entry(Path path, String canonicalPath, long size, long lastModified, String contentType) {
+            this.path = path;
+            this.canonicalPath = canonicalPath;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+        }
+
+        public Path getPath() { return path; }
+        // Для sendfile: вычисляется при индексации, а не на каждый запрос
+        public String getCanonicalPath() { return canonicalPath; }
+        public long getSize() { return size; }
+        public long getLastModified() { return lastModified; }
+        public String getContentType() { return contentType; }
+    }
+
+    @Autowired
+    public TrackFileIndex(TrackRepository trackRepository) {
+        this.trackRepository = trackRepository;
+        this.uploadDir = Paths.get(System.getProperty("user.dir"), "uploads", "music");
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void rebuild() {
+        try {
+            if (!Files.exists(uploadDir)) {
+                Files.createDirectories(uploadDir);
+                logger.info("Created upload directory: {}", uploadDir.toAbsolutePath());
+            }
+        } catch (IOException e) {
+            logger.error("Failed to create upload directory", e);
+        }
+
+        List<Object[]> rows = trackRepository.findAllFilePaths();
+        int indexed = 0;
+        for (Object[] row : rows) {
+            Integer trackId = (Integer) row[0];
+            Entry entry = resolve((String) row[1]);
+            if (entry != null) {
+                entries.put(trackId, entry);
+                indexed++;
+            }
+        }
+        misses.invalidateAll();
+        logger.info("Track file index built: {} of {} tracks resolved in {}",
+                indexed, rows.size(), uploadDir.toAbsolutePath());
+    }
+
+    public Path getUploadDir() {
+        return uploadDir;
+    }
+
+    // Возвращает запись из индекса; null, если трека или файла нет (промах кэшируется)
+    public Entry lookup(Integer trackId) {
+        Entry entry = entries.get(trackId);
+        if (entry != null) {
+            return entry;
+        }
+        if (misses.getIfPresent(trackId) != null) {
+            return null;
+        }
+
+        String filePath = trackRepository.findFilePathById(trackId);
+        entry = filePath == null || filePath.isEmpty() ? null : resolve(filePath);
+        if (entry == null) {
+            misses.put(trackId, Boolean.TRUE);
+            logger.warn("Audio file for track {} not found (path: {})", trackId, filePath);
+            return null;
+        }
+        entries.put(trackId, entry);
+        return entry;
+    }
+
+    // Вызывается после сохранения загруженного файла
+    public void register(Integer trackId, Path file) {
+        Entry entry = describe(file);
+        if (entry != null) {
+            entries.put(trackId, entry);
+            misses.invalidate(trackId);
+        }
+    }
+
+    public void invalidate(Integer trackId) {
+        entries.remove(trackId);
+        misses.invalidate(trackId);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private Entry resolve(String filePath) {
+        if (filePath == null || filePath.isEmpty()) {
+            return null;
+        }
+        if (filePath.contains("/") || filePath.contains("\\")) {
+            Entry direct = describe(Paths.get(filePath));
+            if (direct != null) {
+                return direct;
+            }
+            return describe(uploadDir.resolve(Paths.get(filePath).getFileName().toString()));
+        }
+        return describe(uploadDir.resolve(filePath));
+    }
+
+    // Один вызов readAttributes дает и существование, и размер, и время изменения
+    private Entry describe(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                return null;
+            }
+            return new Entry(file, file.toFile().getCanonicalPath(), attributes.size(),
+                    attributes.lastModifiedTime().toMillis(), detectContentType(file.getFileName().toString()));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    static String detectContentType(String fileName) {
+        String name = fileName.toLowerCase();
+        if (name.endsWith(".wav")) {
+            return "audio/wav";
+        } else if (name.endsWith(".ogg")) {
+            return "audio/ogg";
+        } else if (name.endsWith(".m4a")) {
+            return "audio/mp4";
+        }
+        return "audio/mpeg";
+    }
+}
@@ -1,12 +1,15 @@
 package com.musicstreaming.service;
 
+import com.musicstreaming.dto.KeysetPage;
 import com.musicstreaming.model.*;
 import com.musicstreaming.repository.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -20,19 +23,34 @@ public class TrackService {
     private final AlbumRepository albumRepository;
     private final GenreRepository genreRepository;
     private final TrackStatisticsRepository trackStatisticsRepository;
+    private final AudioSegmentCache audioSegmentCache;
+    private final TrackFileIndex trackFileIndex;
+    private final PlayEventAggregator playEventAggregator;
+    private final CatalogSearchIndex catalogSearchIndex;
+    private final DashboardStatisticsService dashboardStatistics;
+    private final TrendingIndex trendingIndex;
 
     @Autowired
     public TrackService(TrackRepository trackRepository,
                         ModerationRepository moderationRepository,
                         ArtistRepository artistRepository,
                         AlbumRepository albumRepository,
-                        GenreRepository genreRepository, TrackStatisticsRepository trackStatisticsRepository) {
+                        GenreRepository genreRepository, TrackStatisticsRepository trackStatisticsRepository,
+                        AudioSegmentCache audioSegmentCache, TrackFileIndex trackFileIndex,
+                        PlayEventAggregator playEventAggregator, CatalogSearchIndex catalogSearchIndex,
+                        DashboardStatisticsService dashboardStatistics, TrendingIndex trendingIndex) {
         this.trackRepository = trackRepository;
         this.moderationRepository = moderationRepository;
         this.artistRepository = artistRepository;
         this.albumRepository = albumRepository;
         this.genreRepository = genreRepository;
         this.trackStatisticsRepository = trackStatisticsRepository;
+        this.audioSegmentCache = audioSegmentCache;
+        this.trackFileIndex = trackFileIndex;
+        this.playEventAggregator = playEventAggregator;
+        this.catalogSearchIndex = catalogSearchIndex;
+        this.dashboardStatistics = dashboardStatistics;
+        this.trendingIndex = trendingIndex;
     }
 
     public Optional<Track> findById(Integer id) {
@@ -67,19 +85,32 @@ public class TrackService {
         return trackRepository.findByUploaderId(userId);
     }
 
+    public KeysetPage<Track> findPage(String cursor, Integer size, Boolean moderated, Integer genreId, Integer artistId) {
+        return trackRepository.findPage(cursor, KeysetPage.clampSize(size), moderated, genreId, artistId);
+    }
+
     public List<Track> search(String query) {
-        return trackRepository.search(query);
+        if (!catalogSearchIndex.isReady()) {
+            return trackRepository.search(query);
+        }
+        List<Integer> ids = catalogSearchIndex.searchTracks(query);
+        return ids.isEmpty() ? Collections.emptyList()
+                : CatalogSearchIndex.inRankOrder(ids, trackRepository.findModeratedByIdIn(ids), Track::getId);
     }
 
     public List<Track> findSimilar(Integer genreId, Integer excludeTrackId, int limit) {
         return trackRepository.findSimilar(genreId, excludeTrackId, PageRequest.of(0, limit));
     }
 
+    // Популярное сегодня - из снимка трендов, без запроса к базе
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public List<Track> findPopularTracks(int limit) {
-        return trackRepository.findByIsModeratedTrueOrderByIdDesc()
-                .stream()
-                .limit(limit)
-                .toList();
+        return trendingIndex.getTrending(TrendingIndex.Period.Today, limit);
+    }
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<Track> findTrendingTracks(TrendingIndex.Period period, int limit) {
+        return trendingIndex.getTrending(period, limit);
     }
 
     @Transactional
@@ -94,14 +125,33 @@ public class TrackService {
         if (track.getGenre() != null && track.getGenre().getId() != null) {
             genreRepository.findById(track.getGenre().getId()).ifPresent(track::setGenre);
         }
-        return trackRepository.save(track);
+        boolean created = track.getId() == null;
+        if (!created) {
+            // Файл трека мог быть заменен - сбрасываем закэшированные сегменты
+            audioSegmentCache.invalidate(track.getId());
+            trackFileIndex.invalidate(track.getId());
+        }
+        Track saved = trackRepository.save(track);
+        catalogSearchIndex.refreshTrack(saved.getId());
+        if (created) {
+            dashboardStatistics.trackAdded(saved.isModerated());
+        } else {
+            // Прежний статус модерации неизвестен
+            dashboardStatistics.recountAfterCommit();
+        }
+        return saved;
     }
 
     @Transactional
     public void approveTrack(Integer trackId, Integer moderatorId, String comment) {
+        boolean pending = trackRepository.findById(trackId).map(track -> !track.isModerated()).orElse(false);
         int updated = trackRepository.updateModerationStatus(trackId, true);
 
         if (updated > 0) {
+            if (pending) {
+                dashboardStatistics.trackApproved();
+            }
+            catalogSearchIndex.refreshTrack(trackId);
             trackRepository.findById(trackId).ifPresent(track -> {
                 Moderation moderation = new Moderation();
                 moderation.setTrack(track);
@@ -135,13 +185,16 @@ public class TrackService {
 
     @Transactional
     public void delete(Integer id) {
+        trackRepository.findById(id).ifPresent(track -> dashboardStatistics.trackRemoved(track.isModerated()));
         trackRepository.deleteById(id);
+        audioSegmentCache.invalidate(id);
+        trackFileIndex.invalidate(id);
+        catalogSearchIndex.removeTrack(id);
     }
 
     public long getTotalListenCount(Integer trackId) {
-        return trackStatisticsRepository.findByTrackId(trackId)
-                .stream()
-                .mapToLong(TrackStatistics::getListenCount)
-                .sum();
+        // Сохраненные строки плюс прослушивания, еще не сброшенные из буфера
+        return trackStatisticsRepository.getTotalListenCountByTrackId(trackId)
+                + playEventAggregator.getPendingTrackCount(trackId);
     }
 }
\ No newline at end of file
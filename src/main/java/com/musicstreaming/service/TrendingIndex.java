@@ -0,0 +1,396 @@
+package com.musicstreaming.service;
+
+import com.musicstreaming.model.PlayRollup;
+import com.musicstreaming.model.Track;
+import com.musicstreaming.repository.PlayRollupRepository;
+import com.musicstreaming.repository.TrackRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Тренды для главной: "сейчас", "сегодня" и "за неделю" считаются потоково из прослушиваний.
+ * На каждый период - count-min sketch с экспоненциальным затуханием и min-куча top-K кандидатов.
+ * Затухание "вперед": вес события растет как e^((t - t0) / tau), поэтому старые счетчики
+ * не трогаются, а порядок кандидатов от времени не зависит. Готовые списки треков
+ * пересобираются фоновой задачей; запрос страницы читает только снимок.
+ */
+@Service
+public class TrendingIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrendingIndex.class);
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 4096;
+    // Показатель e^50 далек от переполнения double; дальше точка отсчета сдвигается
+    private static final double RESCALE_EXPONENT = 50;
+    // Трек с затухшим весом меньше половины прослушивания из тренда выпадает
+    private static final double MIN_SCORE = 0.5;
+    private static final int WARMUP_DAYS = 7;
+
+    public enum Period {
+        Now, Today, Week;
+
+        // Из параметра запроса; неизвестное значение - "сегодня"
+        public static Period parse(String value) {
+            for (Period period : values()) {
+                if (period.name().equalsIgnoreCase(value)) {
+                    return period;
+                }
+            }
+            return Today;
+        }
+    }
+
+    private final TrackRepository trackRepository;
+    private final PlayRollupRepository rollupRepository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final int candidates;
+    private final Map<Period, Horizon> horizons = new EnumMap<>(Period.class);
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    private final AtomicBoolean warmedUp = new AtomicBoolean();
+    private final LongAdder recordedPlays = new LongAdder();
+    private volatile long warmedUpPlays;
+    private volatile long lastRefreshMillis;
+    private volatile long lastRefreshedAt;
+
+    @Autowired
+    public TrendingIndex(TrackRepository trackRepository,
+                         PlayRollupRepository rollupRepository,
+                         PlatformTransactionManager transactionManager,
+                         @Value("${trending.candidates:100}") int candidates,
+                         @Value("${trending.halfLifeMinutes.now:60}") long nowHalfLife,
+                         @Value("${trending.halfLifeMinutes.today:360}") long todayHalfLife,
+                         @Value("${trending.halfLifeMinutes.week:2160}") long weekHalfLife) {
+        this.trackRepository = trackRepository;
+        this.rollupRepository = rollupRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.candidates = Math.max(1, candidates);
+        horizons.put(Period.Now, new Horizon(nowHalfLife, this.candidates));
+        horizons.put(Period.Today, new Horizon(todayHalfLife, this.candidates));
+        horizons.put(Period.Week, new Horizon(weekHalfLife, this.candidates));
+    }
+
+    // Из PlayEventAggregator - и для живых событий, и при повторе журнала (время события, а не текущее)
+    void recordPlay(int trackId, long timestamp) {
+        for (Horizon horizon : horizons.values()) {
+            horizon.add(trackId, 1, timestamp);
+        }
+        recordedPlays.increment();
+    }
+
+    // Тренд периода; если треков в нем мало - дополняется более длинными периодами и новинками
+    public List<Track> getTrending(Period period, int limit) {
+        List<Track> tracks = snapshot.tracks.get(period);
+        return tracks.size() <= limit ? tracks : tracks.subList(0, limit);
+    }
+
+    // После рестарта память пуста: прошлая неделя берется из часовых и дневных агрегатов.
+    // Несброшенные события добавит повтор журнала в PlayEventAggregator - он идет строго после прогрева.
+    // Порядок слушателей старта: PlayAnalyticsService.backfill, прогрев, повтор журнала
+    @EventListener(ContextRefreshedEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE + 1)
+    public void warmUp() {
+        if (!warmedUp.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            LocalDateTime hourlyFrom = LocalDate.now().minusDays(1).atStartOfDay();
+            LocalDateTime dailyFrom = hourlyFrom.minusDays(WARMUP_DAYS - 2);
+            long plays = readOnlyTransaction.execute(status ->
+                    warmUpFrom(PlayRollup.Granularity.Day, dailyFrom, hourlyFrom, 12)
+                            + warmUpFrom(PlayRollup.Granularity.Hour, hourlyFrom, LocalDateTime.now().plusHours(1), 0));
+            warmedUpPlays = plays;
+            logger.info("Trending index warmed up from {} plays of the last {} days", plays, WARMUP_DAYS);
+        } catch (RuntimeException e) {
+            logger.error("Failed to warm up trending index", e);
+        }
+        refresh();
+    }
+
+    // Прослушивания агрегата относятся к середине его интервала
+    private long warmUpFrom(PlayRollup.Granularity granularity, LocalDateTime from, LocalDateTime to, int offsetHours) {
+        long plays = 0;
+        for (Object[] row : rollupRepository.findPlaysBetween(PlayRollup.Scope.Track, granularity, from, to)) {
+            long count = ((Number) row[2]).longValue();
+            LocalDateTime time = ((LocalDateTime) row[1]).plusHours(offsetHours).plusMinutes(30);
+            long timestamp = time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            for (Horizon horizon : horizons.values()) {
+                horizon.add((Integer) row[0], count, timestamp);
+            }
+            plays += count;
+        }
+        return plays;
+    }
+
+    // Пересборка снимка: кандидаты всех периодов и новинки - одним запросом к трекам каждый
+    @Scheduled(initialDelayString = "${trending.refreshIntervalMillis:15000}",
+               fixedDelayString = "${trending.refreshIntervalMillis:15000}")
+    public void refresh() {
+        long started = System.currentTimeMillis();
+        try {
+            Map<Period, List<Integer>> ranked = new EnumMap<>(Period.class);
+            Set<Integer> ids = new LinkedHashSet<>();
+            for (Map.Entry<Period, Horizon> entry : horizons.entrySet()) {
+                List<Integer> top = entry.getValue().top(started);
+                ranked.put(entry.getKey(), top);
+                ids.addAll(top);
+            }
+
+            Map<Integer, Track> tracks = new HashMap<>();
+            List<Track> newest = readOnlyTransaction.execute(status -> {
+                if (!ids.isEmpty()) {
+                    // Связи грузятся графом сущности: снимок читается из разных потоков
+                    for (Track track : trackRepository.findModeratedByIdIn(new ArrayList<>(ids))) {
+                        tracks.put(track.getId(), track);
+                    }
+                }
+                return trackRepository.findNewestModerated(PageRequest.of(0, candidates));
+            });
+
+            Map<Period, List<Track>> lists = new EnumMap<>(Period.class);
+            for (Period period : Period.values()) {
+                // Период дополняется более длинными: пустой "сейчас" ночью лучше, чем пустая секция
+                Map<Integer, Track> merged = new LinkedHashMap<>();
+                for (Period source : Period.values()) {
+                    if (source.ordinal() >= period.ordinal()) {
+                        for (Integer id : ranked.get(source)) {
+                            Track track = tracks.get(id);
+                            if (track != null) {
+                                merged.putIfAbsent(id, track);
+                            }
+                        }
+                    }
+                }
+                for (Track track : newest) {
+                    if (merged.size() >= candidates) {
+                        break;
+                    }
+                    merged.putIfAbsent(track.getId(), track);
+                }
+                lists.put(period, Collections.unmodifiableList(new ArrayList<>(merged.values())));
+            }
+            snapshot = new Snapshot(lists, ranked);
+            lastRefreshMillis = System.currentTimeMillis() - started;
+            lastRefreshedAt = System.currentTimeMillis();
+        } catch (RuntimeException e) {
+            // Остается предыдущий снимок
+            logger.error("Failed to refresh trending tracks", e);
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Snapshot current = snapshot;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("recordedPlays", recordedPlays.sum());
+        stats.put("warmedUpPlays", warmedUpPlays);
+        stats.put("candidatesPerPeriod", candidates);
+        for (Map.Entry<Period, Horizon> entry : horizons.entrySet()) {
+            Map<String, Object> horizon = entry.getValue().getStatistics();
+            horizon.put("rankedTracks", current.ranked.getOrDefault(entry.getKey(), List.of()).size());
+            stats.put(entry.getKey().name().toLowerCase(), horizon);
+        }
+        stats.put("lastRefreshMillis", lastRefreshMillis);
+        stats.put("lastRefreshedAt", lastRefreshedAt);
+        return stats;
+    }
+
+    private static final class Snapshot {
+        static final Snapshot EMPTY = empty();
+
+        private final Map<Period, List<Track>> tracks;
+        private final Map<Period, List<Integer>> ranked;
+
+        Snapshot(Map<Period, List<Track>> tracks, Map<Period, List<Integer>> ranked) {
+            this.tracks = tracks;
+            this.ranked = ranked;
+        }
+
+        private static Snapshot empty() {
+            Map<Period, List<Track>> tracks = new EnumMap<>(Period.class);
+            for (Period period : Period.values()) {
+                tracks.put(period, List.of());
+            }
+            return new Snapshot(tracks, new EnumMap<>(Period.class));
+        }
+    }
+
+    // Один период: скетч, куча кандидатов и точка отсчета затухания; обновления короткие, под монитором
+    static final class Horizon {
+        private final double tauMillis;
+        private final long halfLifeMinutes;
+        private final CountMinSketch sketch = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+        private final TopK top;
+        private long landmark = System.currentTimeMillis();
+        private long rescales;
+
+        Horizon(long halfLifeMinutes, int capacity) {
+            this.halfLifeMinutes = Math.max(1, halfLifeMinutes);
+            this.tauMillis = this.halfLifeMinutes * 60_000.0 / Math.log(2);
+            this.top = new TopK(capacity);
+        }
+
+        synchronized void add(int trackId, double weight, long timestamp) {
+            double exponent = (timestamp - landmark) / tauMillis;
+            if (exponent > RESCALE_EXPONENT) {
+                double factor = Math.exp(-exponent);
+                sketch.scale(factor);
+                top.scale(factor);
+                landmark = timestamp;
+                exponent = 0;
+                rescales++;
+            }
+            top.offer(trackId, sketch.add(trackId, weight * Math.exp(exponent)));
+        }
+
+        // Кандидаты по убыванию; вес на текущий момент = вес * e^(-(now - t0) / tau)
+        synchronized List<Integer> top(long now) {
+            double decay = Math.exp(-(now - landmark) / tauMillis);
+            return top.ranked(MIN_SCORE / decay);
+        }
+
+        synchronized Map<String, Object> getStatistics() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("halfLifeMinutes", halfLifeMinutes);
+            stats.put("decayedPlays", sketch.total() * Math.exp(-(System.currentTimeMillis() - landmark) / tauMillis));
+            stats.put("candidates", top.size());
+            stats.put("sketchBytes", sketch.sizeInBytes());
+            stats.put("rescales", rescales);
+            return stats;
+        }
+    }
+
+    // Min-куча фиксированного размера с позициями ключей: вес кандидата только растет, поэтому
+    // обновление - просеивание вниз, а новый ключ вытесняет корень, если он тяжелее
+    static final class TopK {
+        private final int[] ids;
+        private final double[] scores;
+        private final Map<Integer, Integer> positions;
+        private int size;
+
+        TopK(int capacity) {
+            this.ids = new int[capacity];
+            this.scores = new double[capacity];
+            this.positions = new HashMap<>(capacity * 2);
+        }
+
+        void offer(int id, double score) {
+            Integer position = positions.get(id);
+            if (position != null) {
+                if (score > scores[position]) {
+                    scores[position] = score;
+                    siftDown(position);
+                }
+                return;
+            }
+            if (size < ids.length) {
+                set(size, id, score);
+                siftUp(size++);
+                return;
+            }
+            if (score <= scores[0]) {
+                return;
+            }
+            positions.remove(ids[0]);
+            set(0, id, score);
+            siftDown(0);
+        }
+
+        void scale(double factor) {
+            for (int i = 0; i < size; i++) {
+                scores[i] *= factor;
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        List<Integer> ranked(double minScore) {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+            List<Integer> result = new ArrayList<>(size);
+            for (Integer i : order) {
+                if (scores[i] < minScore) {
+                    break;
+                }
+                result.add(ids[i]);
+            }
+            return result;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (scores[parent] <= scores[i]) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && scores[left] < scores[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && scores[right] < scores[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int id = ids[a];
+            double score = scores[a];
+            set(a, ids[b], scores[b]);
+            set(b, id, score);
+        }
+
+        private void set(int i, int id, double score) {
+            ids[i] = id;
+            scores[i] = score;
+            positions.put(id, i);
+        }
+    }
+}
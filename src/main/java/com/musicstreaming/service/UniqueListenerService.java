@@ -0,0 +1,179 @@
+package com.musicstreaming.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.musicstreaming.model.PlayRollup;
+import com.musicstreaming.repository.PlayRollupRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Уникальные слушатели за последние N дней по трекам, альбомам и исполнителям - слиянием
+ * дневных скетчей HyperLogLog из PlayRollups. Закрытые дни (раньше вчерашнего) уже не меняются,
+ * поэтому их слияние кэшируется в компактном виде; из базы читаются только вчера и сегодня.
+ */
+@Service
+public class UniqueListenerService {
+
+    private final PlayRollupRepository rollupRepository;
+    private final Cache<WindowKey, byte[]> closedWindows;
+
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+
+    @Autowired
+    public UniqueListenerService(PlayRollupRepository rollupRepository,
+                                 @Value("${listeners.cacheSize:20000}") long cacheSize) {
+        this.rollupRepository = rollupRepository;
+        this.closedWindows = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(Duration.ofDays(1))
+                .build();
+    }
+
+    // Слушатели нескольких сущностей вместе (все исполнители музыканта): человек считается один раз
+    public long countUnion(PlayRollup.Scope scope, Collection<Integer> entityIds, int days) {
+        LocalDate today = LocalDate.now();
+        return union(window(scope, entityIds, today.minusDays(days - 1), today)).estimate();
+    }
+
+    // Слушали за последние N дней, но не за предыдущие N: |A ∪ B| - |B|
+    public long countNew(PlayRollup.Scope scope, Collection<Integer> entityIds, int days) {
+        LocalDate today = LocalDate.now();
+        HyperLogLog recent = union(window(scope, entityIds, today.minusDays(days - 1), today));
+        HyperLogLog previous = union(window(scope, entityIds, today.minusDays(2L * days - 1), today.minusDays(days)));
+        long before = previous.estimate();
+        previous.merge(recent);
+        return Math.max(0, previous.estimate() - before);
+    }
+
+    // По каждой сущности отдельно - для списков треков и альбомов, не более двух запросов на список
+    public Map<Integer, Long> countEach(PlayRollup.Scope scope, Collection<Integer> entityIds, int days) {
+        LocalDate today = LocalDate.now();
+        Map<Integer, Long> counts = new HashMap<>();
+        window(scope, entityIds, today.minusDays(days - 1), today)
+                .forEach((id, sketch) -> counts.put(id, sketch.estimate()));
+        return counts;
+    }
+
+    // Скетчи по сущностям за дни [from, to]: закрытая часть - из кэша, вчера и сегодня - из базы
+    private Map<Integer, HyperLogLog> window(PlayRollup.Scope scope, Collection<Integer> entityIds,
+                                             LocalDate from, LocalDate to) {
+        Map<Integer, HyperLogLog> sketches = new HashMap<>();
+        if (entityIds.isEmpty()) {
+            return sketches;
+        }
+        LocalDate liveFrom = LocalDate.now().minusDays(1);
+        LocalDate closedTo = to.isBefore(liveFrom) ? to : liveFrom.minusDays(1);
+
+        if (!from.isAfter(closedTo)) {
+            List<Integer> missing = new ArrayList<>();
+            for (Integer id : entityIds) {
+                byte[] cached = closedWindows.getIfPresent(new WindowKey(scope, id, from, closedTo));
+                if (cached != null) {
+                    cacheHits.increment();
+                    sketches.put(id, HyperLogLog.fromBytes(cached));
+                } else {
+                    cacheMisses.increment();
+                    missing.add(id);
+                }
+            }
+            if (!missing.isEmpty()) {
+                Map<Integer, HyperLogLog> loaded = load(scope, missing, from, closedTo);
+                for (Integer id : missing) {
+                    HyperLogLog sketch = loaded.getOrDefault(id, new HyperLogLog());
+                    byte[] bytes = sketch.toBytes();
+                    closedWindows.put(new WindowKey(scope, id, from, closedTo), bytes != null ? bytes : new byte[0]);
+                    sketches.put(id, sketch);
+                }
+            }
+        }
+
+        if (!to.isBefore(liveFrom)) {
+            LocalDate start = from.isAfter(liveFrom) ? from : liveFrom;
+            load(scope, entityIds, start, to).forEach((id, live) ->
+                    sketches.computeIfAbsent(id, key -> new HyperLogLog()).merge(live));
+        }
+        for (Integer id : entityIds) {
+            sketches.computeIfAbsent(id, key -> new HyperLogLog());
+        }
+        return sketches;
+    }
+
+    private Map<Integer, HyperLogLog> load(PlayRollup.Scope scope, Collection<Integer> entityIds,
+                                           LocalDate from, LocalDate to) {
+        queries.increment();
+        Map<Integer, HyperLogLog> sketches = new HashMap<>();
+        for (PlayRollup rollup : rollupRepository.findSeriesBetween(scope, entityIds, PlayRollup.Granularity.Day,
+                from.atStartOfDay(), to.plusDays(1).atStartOfDay())) {
+            if (rollup.getListeners() != null) {
+                sketches.computeIfAbsent(rollup.getEntityId(), id -> new HyperLogLog())
+                        .merge(HyperLogLog.fromBytes(rollup.getListeners()));
+            }
+        }
+        return sketches;
+    }
+
+    private static HyperLogLog union(Map<Integer, HyperLogLog> sketches) {
+        HyperLogLog union = new HyperLogLog();
+        sketches.values().forEach(union::merge);
+        return union;
+    }
+
+    public Map<String, Object> getStatistics() {
+        long hits = cacheHits.sum();
+        long misses = cacheMisses.sum();
+        long cachedBytes = 0;
+        for (byte[] bytes : closedWindows.asMap().values()) {
+            cachedBytes += bytes.length;
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("cachedWindows", closedWindows.estimatedSize());
+        stats.put("cachedBytes", cachedBytes);
+        stats.put("cacheHits", hits);
+        stats.put("cacheMisses", misses);
+        stats.put("cacheHitRatio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        stats.put("queries", queries.sum());
+        return stats;
+    }
+
+    private static final class WindowKey {
+        private final PlayRollup.Scope scope;
+        private final int entityId;
+        private final LocalDate from;
+        private final LocalDate to;
+
+        WindowKey(PlayRollup.Scope scope, int entityId, LocalDate from, LocalDate to) {
+            this.scope = scope;
+            this.entityId = entityId;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof WindowKey)) return false;
+            WindowKey that = (WindowKey) o;
+            return entityId == that.entityId && scope == that.scope && from.equals(that.from) && to.equals(that.to);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(scope, entityId, from, to);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.musicstreaming.service;
 
+import com.musicstreaming.dto.AdminUserDTO;
+import com.musicstreaming.dto.KeysetPage;
 import com.musicstreaming.model.User;
 import com.musicstreaming.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -8,6 +10,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
@@ -16,10 +19,15 @@ public class UserService {
 
     private final UserRepository userRepository;
     private final BCryptPasswordEncoder passwordEncoder;
+    private final DashboardStatisticsService dashboardStatistics;
+    private final EntitlementService entitlementService;
 
     @Autowired
-    public UserService(UserRepository userRepository) {
+    public UserService(UserRepository userRepository, DashboardStatisticsService dashboardStatistics,
+                       EntitlementService entitlementService) {
         this.userRepository = userRepository;
+        this.dashboardStatistics = dashboardStatistics;
+        this.entitlementService = entitlementService;
         this.passwordEncoder = new BCryptPasswordEncoder();
     }
 
@@ -27,6 +35,11 @@ public class UserService {
         return userRepository.findById(id);
     }
 
+    // Ссылка на пользователя для связей (загрузивший трек, владелец плейлиста) без чтения строки
+    public User getReference(Integer id) {
+        return userRepository.getReferenceById(id);
+    }
+
     public Optional<User> findByUsername(String username) {
         return userRepository.findByUsername(username);
     }
@@ -43,6 +56,16 @@ public class UserService {
         return userRepository.findAllOrdered();
     }
 
+    // Страница для админки вместе со счетчиками - один запрос на страницу при любом ее размере
+    public KeysetPage<AdminUserDTO> findAdminPage(String cursor, Integer size, User.UserRole role, String search) {
+        return userRepository.findAdminPage(cursor, KeysetPage.clampSize(size), role, search);
+    }
+
+    // Число пользователей по ролям среди подходящих под фильтры страницы админки
+    public Map<User.UserRole, Long> countAdminUsersByRole(User.UserRole role, String search) {
+        return userRepository.countAdminUsersByRole(role, search);
+    }
+
     public List<User> search(String searchTerm) {
         return userRepository.search(searchTerm);
     }
@@ -60,7 +83,9 @@ public class UserService {
         User user = new User(username, email, hashedPassword);
         user.setRole(User.UserRole.User);
 
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        dashboardStatistics.userAdded(saved.getRole());
+        return saved;
     }
 
     public Optional<User> authenticate(String usernameOrEmail, String password) {
@@ -84,8 +109,11 @@ public class UserService {
     @Transactional
     public void updateRole(Integer userId, User.UserRole newRole) {
         userRepository.findById(userId).ifPresent(user -> {
+            dashboardStatistics.userRoleChanged(user.getRole(), newRole);
             user.setRole(newRole);
             userRepository.save(user);
+            // Сессии пользователя перечитают роль
+            entitlementService.invalidate(userId);
         });
     }
 
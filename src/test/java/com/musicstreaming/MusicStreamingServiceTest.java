@@ -2,15 +2,23 @@ package com.musicstreaming;
 
 import com.musicstreaming.model.*;
 import com.musicstreaming.dto.*;
+import com.musicstreaming.repository.SubscriptionRepository;
+import com.musicstreaming.repository.UserRepository;
 import com.musicstreaming.service.*;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 
 import java.time.LocalDateTime;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
@@ -494,14 +502,15 @@ public class MusicStreamingServiceTest {
     @Order(20)
     @DisplayName("TC020 - Auth Service Login: Should store user in session")
     void testAuthServiceLogin() {
-        AuthService authService = new AuthService();
+        AuthService authService = new AuthService(mock(EntitlementService.class), mock(UserRepository.class),
+                mock(AuthTokenService.class), "session");
 
         when(mockRequest.getSession(true)).thenReturn(mockSession);
 
         authService.login(mockRequest, testUser);
 
         verify(mockRequest, times(1)).getSession(true);
-        verify(mockSession, times(1)).setAttribute(eq("loggedInUser"), eq(testUser));
+        verify(mockSession, times(1)).setAttribute(eq("loggedInUser"), eq(SessionUser.of(testUser, 0)));
         verify(mockSession, times(1)).setMaxInactiveInterval(1800);
     }
 
@@ -509,7 +518,8 @@ public class MusicStreamingServiceTest {
     @Order(21)
     @DisplayName("TC021 - Auth Service Logout: Should invalidate session")
     void testAuthServiceLogout() {
-        AuthService authService = new AuthService();
+        AuthService authService = new AuthService(mock(EntitlementService.class), mock(UserRepository.class),
+                mock(AuthTokenService.class), "session");
 
         when(mockRequest.getSession(false)).thenReturn(mockSession);
 
@@ -523,14 +533,16 @@ public class MusicStreamingServiceTest {
     @Order(22)
     @DisplayName("TC022 - Auth Service Role Check: Should correctly identify admin")
     void testAuthServiceRoleCheck() {
-        AuthService authService = new AuthService();
+        AuthService authService = new AuthService(mock(EntitlementService.class), mock(UserRepository.class),
+                mock(AuthTokenService.class), "session");
 
         when(mockRequest.getSession(false)).thenReturn(mockSession);
 
         User adminUser = new User("admin", "admin@test.com", "hash");
         adminUser.setRole(User.UserRole.Admin);
 
-        when(mockSession.getAttribute("loggedInUser")).thenReturn(adminUser);
+        adminUser.setId(2);
+        when(mockSession.getAttribute("loggedInUser")).thenReturn(SessionUser.of(adminUser, 0));
 
         assertTrue(authService.isAdmin(mockRequest));
         assertTrue(authService.isMusician(mockRequest));
@@ -643,4 +655,165 @@ public class MusicStreamingServiceTest {
         moderation.setStatus(Moderation.ModerationStatus.Rejected);
         assertEquals(Moderation.ModerationStatus.Rejected, moderation.getStatus());
     }
-}
\ No newline at end of file
+
+    @Test
+    @Order(27)
+    @DisplayName("TC027 - Session User: Should round-trip through compact binary form")
+    void testSessionUserSerialization() throws Exception {
+        testUser.setRole(User.UserRole.Subscriber);
+        SessionUser sessionUser = SessionUser.of(testUser, 42L);
+
+        byte[] bytes = sessionUser.toBytes();
+        assertEquals(16 + "testuser".length(), bytes.length);
+        assertEquals(sessionUser, SessionUser.fromBytes(bytes));
+        assertThrows(IllegalArgumentException.class,
+                () -> SessionUser.fromBytes(Arrays.copyOf(bytes, bytes.length - 1)));
+
+        // Java-сериализация сессии идет через тот же бинарный формат
+        java.io.ByteArrayOutputStream buffer = new java.io.ByteArrayOutputStream();
+        try (java.io.ObjectOutputStream out = new java.io.ObjectOutputStream(buffer)) {
+            out.writeObject(sessionUser);
+        }
+        try (java.io.ObjectInputStream in = new java.io.ObjectInputStream(
+                new java.io.ByteArrayInputStream(buffer.toByteArray()))) {
+            SessionUser restored = (SessionUser) in.readObject();
+            assertEquals(1, restored.getId());
+            assertEquals("testuser", restored.getUsername());
+            assertEquals(User.UserRole.Subscriber, restored.getRole());
+            assertEquals(42L, restored.getEntitlementVersion());
+        }
+    }
+
+    @Test
+    @Order(28)
+    @DisplayName("TC028 - Auth Token: Should verify signature, key rotation and revocation")
+    void testAuthTokenService() {
+        String key1 = Base64.getEncoder().encodeToString(new byte[32]);
+        byte[] secret2 = new byte[32];
+        Arrays.fill(secret2, (byte) 7);
+        String key2 = Base64.getEncoder().encodeToString(secret2);
+
+        AuthTokenService oldNode = new AuthTokenService("1:" + key1, -1, 1800000, false);
+        AuthTokenService rotated = new AuthTokenService("1:" + key1 + ",2:" + key2, 2, 1800000, false);
+        SessionUser user = SessionUser.of(testUser, 5L);
+
+        // Токен старого ключа принимается после ротации, но подлежит перевыпуску
+        String token = oldNode.issue(user);
+        AuthTokenService.Token verified = rotated.verify(token);
+        assertNotNull(verified);
+        assertEquals(user, verified.getUser());
+        assertTrue(rotated.needsRenewal(verified));
+        assertFalse(rotated.needsRenewal(rotated.verify(rotated.issue(user))));
+
+        // Подмена любого символа ломает подпись; ключ, которого нет на узле, не принимается
+        char[] chars = token.toCharArray();
+        chars[20] = chars[20] == 'A' ? 'B' : 'A';
+        assertNull(rotated.verify(new String(chars)));
+        assertNull(oldNode.verify(rotated.issue(user)));
+        assertNull(rotated.verify("not-a-token"));
+
+        // Отозванный токен отклоняется до истечения
+        rotated.revoke(verified);
+        assertNull(rotated.verify(token));
+        assertEquals(1L, rotated.getStatistics().get("revoked"));
+    }
+
+    @Test
+    @Order(31)
+    @DisplayName("TC031 - Auth Token: Should reject tokens issued before the user's rights changed")
+    void testAuthTokenUserRevocation() throws Exception {
+        AuthTokenService tokenService = new AuthTokenService("", -1, 1800000, false);
+        EntitlementService entitlementService = new EntitlementService(
+                mock(SubscriptionRepository.class), tokenService, 100, 600000);
+        String adminToken = tokenService.issue(new SessionUser(1, "admin", User.UserRole.Admin, 0));
+        String otherToken = tokenService.issue(new SessionUser(2, "other", User.UserRole.User, 0));
+        Thread.sleep(5);
+
+        // Смена роли сбрасывает права - все выданные раньше токены пользователя отклоняются
+        entitlementService.invalidate(1);
+        assertNull(tokenService.verify(adminToken));
+        assertNotNull(tokenService.verify(otherToken));
+        assertEquals(1, tokenService.getStatistics().get("revokedUsers"));
+
+        // Токен, выданный после смены прав (повторный вход), принимается
+        String renewed = tokenService.issue(new SessionUser(1, "admin", User.UserRole.User, 0));
+        assertEquals(User.UserRole.User, tokenService.verify(renewed).getUser().getRole());
+    }
+
+    @Test
+    @Order(29)
+    @DisplayName("TC029 - Play Event Journal: Should replay events after the checkpoint on restart")
+    void testPlayEventJournalReplay(@TempDir Path dir) {
+        long now = System.currentTimeMillis();
+        PlayEventJournal writer = new PlayEventJournal(true, dir.toString(), 0, 60000);
+        writer.append(PlayEventJournal.TYPE_TRACK_PLAY, 10, 0, 0, now);
+        writer.append(PlayEventJournal.TYPE_LISTEN, 11, 7, 0, now + 1);
+        long mark = writer.position();
+        writer.append(PlayEventJournal.TYPE_ALBUM_PLAY, 12, 0, 3, now + 2);
+        writer.destroy();
+
+        // После рестарта читаются все события незакрытого сегмента
+        PlayEventJournal restarted = new PlayEventJournal(true, dir.toString(), 0, 60000);
+        List<PlayEventJournal.Event> events = restarted.readUncommitted();
+        assertEquals(3, events.size());
+        assertEquals(PlayEventJournal.TYPE_LISTEN, events.get(1).getType());
+        assertEquals(11, events.get(1).getTrackId());
+        assertEquals(7, events.get(1).getUserId());
+        assertEquals(now + 1, events.get(1).getTimestamp());
+        assertEquals(3, events.get(2).getAlbumId());
+
+        // Контрольная точка после второго события: повторяется только третье
+        restarted.checkpoint(mark);
+        restarted.destroy();
+        PlayEventJournal afterCheckpoint = new PlayEventJournal(true, dir.toString(), 0, 60000);
+        events = afterCheckpoint.readUncommitted();
+        afterCheckpoint.destroy();
+        assertEquals(1, events.size());
+        assertEquals(12, events.get(0).getTrackId());
+    }
+
+    @Test
+    @Order(30)
+    @DisplayName("TC030 - Play Event Journal: Should stop at a torn tail or a checksum mismatch")
+    void testPlayEventJournalCorruption(@TempDir Path dir) throws Exception {
+        Path torn = Files.createDirectory(dir.resolve("torn"));
+        writeJournal(torn, 3);
+        // Недописанная запись: до диска дошли только первые 12 байт третьего события
+        corruptSegment(torn, 64 + 12, new byte[20]);
+        PlayEventJournal tornJournal = new PlayEventJournal(true, torn.toString(), 0, 60000);
+        List<PlayEventJournal.Event> events = tornJournal.readUncommitted();
+        tornJournal.destroy();
+        assertEquals(2, events.size());
+        assertEquals(101, events.get(1).getTrackId());
+
+        Path flipped = Files.createDirectory(dir.resolve("flipped"));
+        writeJournal(flipped, 3);
+        // Измененный trackId второй записи не сходится с CRC - чтение останавливается перед ней
+        corruptSegment(flipped, 32 + 4, new byte[]{0x7F});
+        PlayEventJournal flippedJournal = new PlayEventJournal(true, flipped.toString(), 0, 60000);
+        events = flippedJournal.readUncommitted();
+        flippedJournal.destroy();
+        assertEquals(1, events.size());
+        assertEquals(100, events.get(0).getTrackId());
+    }
+
+    // События с trackId 100, 101, ... в первом сегменте; по 32 байта на запись
+    private static void writeJournal(Path dir, int count) {
+        PlayEventJournal journal = new PlayEventJournal(true, dir.toString(), 0, 60000);
+        for (int i = 0; i < count; i++) {
+            journal.append(PlayEventJournal.TYPE_TRACK_PLAY, 100 + i, 0, 0, 1000L + i);
+        }
+        journal.destroy();
+    }
+
+    private static void corruptSegment(Path dir, long offset, byte[] bytes) throws Exception {
+        Path segment;
+        try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+            segment = files.filter(path -> path.getFileName().toString().startsWith("plays-"))
+                    .sorted().findFirst().orElseThrow(IllegalStateException::new);
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes), offset);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.musicstreaming.repository;
+
+import com.musicstreaming.dto.AdminUserDTO;
+import com.musicstreaming.dto.KeysetPage;
+import com.musicstreaming.model.*;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Регрессия N+1 на странице /admin/users: число SQL-запросов на страницу не зависит
+ * от количества пользователей на ней. Схема поднимается в H2 по сущностям проекта.
+ */
+public class AdminUserPageQueryTest {
+
+    private H2Persistence persistence;
+    private EntityManagerFactory entityManagerFactory;
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        persistence = new H2Persistence("admin-users", true);
+        entityManagerFactory = persistence.getEntityManagerFactory();
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @AfterEach
+    void tearDown() {
+        persistence.close();
+    }
+
+    @Test
+    @DisplayName("Admin users page: statement count does not grow with the number of users")
+    void testAdminPageStatementCountIsConstant() throws Exception {
+        createUsers("small", 3);
+        long smallPage = countStatements("small", 3);
+
+        createUsers("large", 40);
+        long largePage = countStatements("large", 40);
+
+        assertEquals(1, smallPage);
+        assertEquals(smallPage, largePage);
+    }
+
+    @Test
+    @DisplayName("Admin users page: playlist, upload and subscription columns come from the projection")
+    void testAdminPageCounters() throws Exception {
+        createUsers("user", 2);
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            KeysetPage<AdminUserDTO> page = repository(entityManager).findAdminPage(null, 10, null, "user");
+
+            assertEquals(2, page.getItems().size());
+            assertNull(page.getNextCursor());
+            AdminUserDTO first = page.getItems().get(0);
+            assertEquals("user0", first.getUsername());
+            assertEquals(0, first.getPlaylistCount());
+            assertEquals(0, first.getUploadedTrackCount());
+            assertFalse(first.hasActiveSubscription());
+            AdminUserDTO second = page.getItems().get(1);
+            assertEquals("user1", second.getUsername());
+            assertEquals(2, second.getPlaylistCount());
+            assertEquals(1, second.getUploadedTrackCount());
+            assertTrue(second.hasActiveSubscription());
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Admin users page: role totals follow the active search filter")
+    void testAdminRoleTotalsWithFilter() throws Exception {
+        createUsers("alpha", 3);
+        createUsers("beta", 2);
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            UserRepositoryImpl repository = repository(entityManager);
+            assertEquals(Long.valueOf(3), repository.countAdminUsersByRole(null, "alpha").get(User.UserRole.User));
+            assertEquals(Long.valueOf(5), repository.countAdminUsersByRole(User.UserRole.User, null).get(User.UserRole.User));
+            assertTrue(repository.countAdminUsersByRole(User.UserRole.Admin, "alpha").isEmpty());
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    // Читает страницу заново в чистом контексте и возвращает число выполненных запросов
+    private long countStatements(String prefix, int expectedUsers) throws Exception {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            statistics.clear();
+            KeysetPage<AdminUserDTO> page = repository(entityManager).findAdminPage(null, 50, null, prefix);
+            assertEquals(expectedUsers, page.getItems().size());
+            return statistics.getPrepareStatementCount();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    // У пользователей с нечетным номером - два плейлиста, загруженный трек и активная подписка
+    private void createUsers(String prefix, int count) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            Genre genre = new Genre(prefix + " genre");
+            Artist artist = new Artist(prefix + " artist", "");
+            entityManager.persist(genre);
+            entityManager.persist(artist);
+            for (int i = 0; i < count; i++) {
+                User user = new User(prefix + i, prefix + i + "@test.com", "hash");
+                user.setRole(User.UserRole.User);
+                entityManager.persist(user);
+                if (i % 2 == 1) {
+                    entityManager.persist(new Playlist("First", user));
+                    entityManager.persist(new Playlist("Second", user));
+
+                    Track track = new Track(prefix + " track " + i, prefix + i + ".mp3", 180, genre, artist);
+                    track.setUploadedByUser(user);
+                    entityManager.persist(track);
+
+                    Subscription subscription = new Subscription(user);
+                    subscription.setActivated(true);
+                    subscription.setEndDate(LocalDateTime.now().plusMonths(1));
+                    entityManager.persist(subscription);
+                }
+            }
+            entityManager.getTransaction().commit();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private UserRepositoryImpl repository(EntityManager entityManager) throws Exception {
+        return H2Persistence.inject(new UserRepositoryImpl(), entityManager);
+    }
+}
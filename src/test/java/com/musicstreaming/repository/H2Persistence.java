@@ -0,0 +1,55 @@
+package com.musicstreaming.repository;
+
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Схема по сущностям проекта в отдельной базе H2 (режим MySQL) для тестов репозиториев
+ * и внедрение EntityManager в реализации *RepositoryImpl без контекста Spring.
+ */
+final class H2Persistence implements AutoCloseable {
+
+    private final LocalContainerEntityManagerFactoryBean factoryBean;
+
+    H2Persistence(String name, boolean statistics) {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + name + "-" + System.nanoTime() + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("hibernate.hbm2ddl.auto", "create-drop");
+        properties.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        properties.put("hibernate.generate_statistics", String.valueOf(statistics));
+        properties.put("hibernate.session.events.log", "false");
+
+        factoryBean = new LocalContainerEntityManagerFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setPackagesToScan("com.musicstreaming.model");
+        factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factoryBean.setJpaPropertyMap(properties);
+        factoryBean.afterPropertiesSet();
+    }
+
+    EntityManagerFactory getEntityManagerFactory() {
+        return factoryBean.getObject();
+    }
+
+    // Поле с @PersistenceContext заполняется так же, как это делает контейнер
+    static <T> T inject(T repository, EntityManager entityManager) throws Exception {
+        Field field = repository.getClass().getDeclaredField("entityManager");
+        field.setAccessible(true);
+        field.set(repository, entityManager);
+        return repository;
+    }
+
+    @Override
+    public void close() {
+        factoryBean.destroy();
+    }
+}
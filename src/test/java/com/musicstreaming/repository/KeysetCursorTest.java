@@ -0,0 +1,170 @@
+package com.musicstreaming.repository;
+
+import com.musicstreaming.dto.KeysetPage;
+import com.musicstreaming.model.*;
+import org.junit.jupiter.api.*;
+
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Keyset-пагинация альбомов и истории модерации: кодирование курсора туда и обратно
+ * и полный обход страниц без пропусков и повторов при совпадающих значениях ключа.
+ */
+public class KeysetCursorTest {
+
+    private H2Persistence persistence;
+    private Artist firstArtist;
+    private List<Album> albums;
+    private List<Moderation> moderations;
+
+    @BeforeEach
+    void setUp() {
+        persistence = new H2Persistence("keyset", false);
+        createCatalog();
+    }
+
+    @AfterEach
+    void tearDown() {
+        persistence.close();
+    }
+
+    @Test
+    @DisplayName("Keyset cursor: key values survive an encode/decode round trip")
+    void testRoundTrip() {
+        LocalDateTime date = LocalDateTime.of(2020, 1, 2, 3, 4, 5);
+        Object[] decoded = KeysetCursor.decode(KeysetCursor.encode(date, 42), 2,
+                values -> new Object[]{LocalDateTime.parse(values[0]), Integer.valueOf(values[1])});
+        assertEquals(date, decoded[0]);
+        assertEquals(42, decoded[1]);
+
+        String[] values = KeysetCursor.decode(KeysetCursor.encode("Back in Black", 7), 2, parts -> parts);
+        assertArrayEquals(new String[]{"Back in Black", "7"}, values);
+    }
+
+    @Test
+    @DisplayName("Keyset cursor: corrupted or foreign cursors restart from the first page")
+    void testInvalidCursor() {
+        assertNull(KeysetCursor.decode(null, 1, parts -> parts));
+        assertNull(KeysetCursor.decode("", 1, parts -> parts));
+        assertNull(KeysetCursor.decode("not base64!", 1, parts -> parts));
+        assertNull(KeysetCursor.decode(KeysetCursor.encode("a", 1), 1, parts -> parts));
+        assertNull(KeysetCursor.decode(KeysetCursor.encode("x", 1), 2, parts -> LocalDateTime.parse(parts[0])));
+    }
+
+    @Test
+    @DisplayName("Album pages: every album once, by title and then by id")
+    void testAlbumPages() throws Exception {
+        List<Integer> expected = albums.stream()
+                .sorted(Comparator.comparing(Album::getTitle).thenComparing(Album::getId))
+                .map(Album::getId).collect(Collectors.toList());
+        assertEquals(expected, readAllPages(cursor -> albums(cursor, null), Album::getId));
+
+        List<Integer> filtered = albums.stream()
+                .filter(album -> album.getArtist().getId().equals(firstArtist.getId()))
+                .sorted(Comparator.comparing(Album::getTitle).thenComparing(Album::getId))
+                .map(Album::getId).collect(Collectors.toList());
+        assertEquals(filtered, readAllPages(cursor -> albums(cursor, firstArtist.getId()), Album::getId));
+    }
+
+    @Test
+    @DisplayName("Moderation history pages: every decision once, newest first, ties by id")
+    void testModerationHistoryPages() throws Exception {
+        Comparator<Moderation> newestFirst = Comparator.comparing(Moderation::getModerationDate)
+                .thenComparing(Moderation::getId).reversed();
+        List<Integer> expected = moderations.stream().sorted(newestFirst)
+                .map(Moderation::getId).collect(Collectors.toList());
+        assertEquals(expected, readAllPages(cursor -> history(cursor, null), Moderation::getId));
+
+        List<Integer> approved = moderations.stream()
+                .filter(moderation -> moderation.getStatus() == Moderation.ModerationStatus.Approved)
+                .sorted(newestFirst).map(Moderation::getId).collect(Collectors.toList());
+        assertEquals(approved, readAllPages(
+                cursor -> history(cursor, Moderation.ModerationStatus.Approved), Moderation::getId));
+    }
+
+    private interface PageReader<T> {
+        KeysetPage<T> read(String cursor) throws Exception;
+    }
+
+    // Страницы читаются, пока есть курсор следующей
+    private <T> List<Integer> readAllPages(PageReader<T> reader, Function<T, Integer> id) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            KeysetPage<T> page = reader.read(cursor);
+            page.getItems().forEach(item -> ids.add(id.apply(item)));
+            cursor = page.getNextCursor();
+            assertTrue(++pages <= 20, "pagination does not terminate");
+        } while (cursor != null);
+        return ids;
+    }
+
+    private KeysetPage<Album> albums(String cursor, Integer artistId) throws Exception {
+        EntityManager entityManager = persistence.getEntityManagerFactory().createEntityManager();
+        try {
+            return H2Persistence.inject(new AlbumRepositoryImpl(), entityManager).findPage(cursor, 2, artistId);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private KeysetPage<Moderation> history(String cursor, Moderation.ModerationStatus status) throws Exception {
+        EntityManager entityManager = persistence.getEntityManagerFactory().createEntityManager();
+        try {
+            return H2Persistence.inject(new ModerationRepositoryImpl(), entityManager)
+                    .findHistoryPage(cursor, 2, status);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    // Повторяющиеся названия и даты вперемешку по id: порядок внутри равных задает только id
+    private void createCatalog() {
+        String[] titles = {"Kino", "Aria", "Kino", "Zemfira", "Aria", "Kino", "Bi-2"};
+        int[] dayOffsets = {0, 2, 0, 1, 2, 0, 3};
+        EntityManager entityManager = persistence.getEntityManagerFactory().createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            Genre genre = new Genre("rock");
+            firstArtist = new Artist("first", "");
+            Artist secondArtist = new Artist("second", "");
+            User moderator = new User("moderator", "moderator@test.com", "hash");
+            moderator.setRole(User.UserRole.Admin);
+            entityManager.persist(genre);
+            entityManager.persist(firstArtist);
+            entityManager.persist(secondArtist);
+            entityManager.persist(moderator);
+
+            LocalDateTime start = LocalDateTime.of(2024, 3, 1, 12, 0);
+            albums = new ArrayList<>();
+            moderations = new ArrayList<>();
+            for (int i = 0; i < titles.length; i++) {
+                Artist artist = i % 2 == 0 ? firstArtist : secondArtist;
+                Album album = new Album(titles[i], artist);
+                entityManager.persist(album);
+                albums.add(album);
+
+                Track track = new Track("track" + i, "track" + i + ".mp3", 180, genre, artist);
+                entityManager.persist(track);
+                Moderation moderation = new Moderation(track, moderator);
+                moderation.setModerationDate(start.plusDays(dayOffsets[i]));
+                moderation.setStatus(i % 3 == 0 ? Moderation.ModerationStatus.Rejected
+                        : Moderation.ModerationStatus.Approved);
+                entityManager.persist(moderation);
+                moderations.add(moderation);
+            }
+            entityManager.getTransaction().commit();
+        } finally {
+            entityManager.close();
+        }
+    }
+}
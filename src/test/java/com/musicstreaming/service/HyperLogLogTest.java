@@ -0,0 +1,107 @@
+package com.musicstreaming.service;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Оценка уникальных слушателей: точность на разных объемах, слияние и хранение
+ * в разреженном и плотном форматах.
+ */
+public class HyperLogLogTest {
+
+    @Test
+    @DisplayName("HyperLogLog: estimates stay within a few standard errors")
+    void testAccuracy() {
+        for (int count : new int[]{1, 10, 100, 1000, 10000, 100000}) {
+            HyperLogLog sketch = new HyperLogLog();
+            for (int id = 1; id <= count; id++) {
+                sketch.add(id);
+            }
+            // Стандартная ошибка ~2.3%; на малых объемах линейный подсчет почти точен
+            double error = Math.abs(sketch.estimate() - count) / (double) count;
+            assertTrue(error < 0.07, "count " + count + " estimated as " + sketch.estimate());
+        }
+        assertEquals(0, new HyperLogLog().estimate());
+    }
+
+    @Test
+    @DisplayName("HyperLogLog: repeated listeners are counted once and merge is a union")
+    void testDuplicatesAndMerge() {
+        HyperLogLog monday = new HyperLogLog();
+        HyperLogLog tuesday = new HyperLogLog();
+        for (int round = 0; round < 5; round++) {
+            for (int id = 0; id < 3000; id++) {
+                monday.add(id);
+                tuesday.add(id + 1500);
+            }
+        }
+        assertEquals(3000, monday.estimate(), 3000 * 0.07);
+
+        monday.merge(tuesday);
+        assertEquals(4500, monday.estimate(), 4500 * 0.07);
+    }
+
+    @Test
+    @DisplayName("HyperLogLog: a few listeners are stored sparse and restored exactly")
+    void testSparseRoundTrip() {
+        assertNull(new HyperLogLog().toBytes());
+
+        HyperLogLog sketch = new HyperLogLog();
+        for (int id = 0; id < 50; id++) {
+            sketch.add(id);
+        }
+        byte[] bytes = sketch.toBytes();
+        assertTrue(bytes.length < HyperLogLog.REGISTERS);
+        assertEquals(0, bytes.length % 3);
+
+        HyperLogLog restored = HyperLogLog.fromBytes(bytes);
+        assertEquals(sketch.estimate(), restored.estimate());
+        assertArrayEquals(bytes, restored.toBytes());
+    }
+
+    @Test
+    @DisplayName("HyperLogLog: a filled sketch switches to the dense format and restores exactly")
+    void testDenseRoundTrip() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int id = 0; id < 20000; id++) {
+            sketch.add(id);
+        }
+        byte[] bytes = sketch.toBytes();
+        assertEquals(HyperLogLog.REGISTERS, bytes.length);
+
+        HyperLogLog restored = HyperLogLog.fromBytes(bytes);
+        assertEquals(sketch.estimate(), restored.estimate());
+        assertArrayEquals(bytes, restored.toBytes());
+
+        // Восстановленный скетч не делит массив с сохраненными байтами
+        bytes[0] = 0;
+        assertEquals(sketch.estimate(), restored.estimate());
+    }
+
+    @Test
+    @DisplayName("HyperLogLog: merging sparse sketches equals the sketch of the union")
+    void testSparseMergeMatchesUnion() {
+        HyperLogLog first = new HyperLogLog();
+        HyperLogLog second = new HyperLogLog();
+        HyperLogLog union = new HyperLogLog();
+        for (int id = 0; id < 40; id++) {
+            first.add(id);
+            second.add(id + 1000);
+            union.add(id);
+            union.add(id + 1000);
+        }
+        HyperLogLog merged = HyperLogLog.fromBytes(first.toBytes());
+        merged.merge(HyperLogLog.fromBytes(second.toBytes()));
+        assertArrayEquals(union.toBytes(), merged.toBytes());
+    }
+
+    @Test
+    @DisplayName("HyperLogLog: damaged bytes give an empty sketch")
+    void testDamagedBytes() {
+        assertEquals(0, HyperLogLog.fromBytes(null).estimate());
+        assertEquals(0, HyperLogLog.fromBytes(new byte[]{1, 2}).estimate());
+        // Номер регистра за пределами массива пропускается
+        assertEquals(0, HyperLogLog.fromBytes(new byte[]{(byte) 0xFF, (byte) 0xFF, 5}).estimate());
+    }
+}
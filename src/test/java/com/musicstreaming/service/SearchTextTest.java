@@ -0,0 +1,90 @@
+package com.musicstreaming.service;
+
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Приведение текста и ограниченное расстояние Левенштейна, на которых стоит нечеткий поиск каталога.
+ */
+public class SearchTextTest {
+
+    @Test
+    @DisplayName("Search text: case, Cyrillic and diacritics fold to the same string")
+    void testFold() {
+        assertEquals("kino", SearchText.fold("  Кино "));
+        assertEquals(SearchText.fold("kino"), SearchText.fold("КИНО"));
+        assertEquals("schelkunchik", SearchText.fold("Щелкунчик"));
+        assertEquals("eel", SearchText.fold("Ёёl"));
+        assertEquals("beyonce", SearchText.fold("Beyoncé"));
+        assertEquals("motorhead", SearchText.fold("Motörhead"));
+        assertEquals("", SearchText.fold(null));
+        assertEquals("", SearchText.fold(""));
+    }
+
+    @Test
+    @DisplayName("Search text: tokens are runs of letters and digits")
+    void testTokens() {
+        assertEquals(Arrays.asList("ac", "dc", "back", "in", "black", "1980"),
+                SearchText.tokens(SearchText.fold("AC/DC - Back in Black (1980)")));
+        assertEquals(Collections.singletonList("a"), SearchText.tokens("a"));
+        assertTrue(SearchText.tokens("  -- ").isEmpty());
+        assertTrue(SearchText.tokens("").isEmpty());
+    }
+
+    @Test
+    @DisplayName("Search text: bounded distance finds typos within the limit")
+    void testBoundedDistance() {
+        assertEquals(0, SearchText.boundedDistance("metallica", "metallica", 2));
+        assertEquals(1, SearchText.boundedDistance("metalica", "metallica", 2));
+        assertEquals(1, SearchText.boundedDistance("metallika", "metallica", 2));
+        assertEquals(2, SearchText.boundedDistance("mteallica", "metallica", 2));
+        assertEquals(3, SearchText.boundedDistance("kitten", "sitting", 3));
+        assertEquals(3, SearchText.boundedDistance("", "abc", 3));
+        // Превышение предела - всегда max + 1, в том числе по разнице длин
+        assertEquals(2, SearchText.boundedDistance("kitten", "sitting", 1));
+        assertEquals(3, SearchText.boundedDistance("abc", "abcdefg", 2));
+        assertEquals(2, SearchText.boundedDistance("abcd", "dcba", 1));
+    }
+
+    @Test
+    @DisplayName("Search text: bounded distance agrees with the full Levenshtein matrix")
+    void testBoundedDistanceMatchesFullDistance() {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            String a = randomWord(random);
+            String b = randomWord(random);
+            int max = random.nextInt(4);
+            int expected = Math.min(distance(a, b), max + 1);
+            assertEquals(expected, SearchText.boundedDistance(a, b, max), a + " / " + b + " / " + max);
+        }
+    }
+
+    // Короткие слова из трех букв, чтобы совпадения и близкие пары встречались часто
+    private static String randomWord(Random random) {
+        char[] chars = new char[random.nextInt(8)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(3));
+        }
+        return new String(chars);
+    }
+
+    private static int distance(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            for (int j = 0; j <= b.length(); j++) {
+                if (i == 0 || j == 0) {
+                    d[i][j] = i + j;
+                } else {
+                    int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                    d[i][j] = Math.min(d[i - 1][j - 1] + cost, Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+}
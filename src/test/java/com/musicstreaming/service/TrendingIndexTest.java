@@ -0,0 +1,124 @@
+package com.musicstreaming.service;
+
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тренды: count-min sketch, куча кандидатов и ранжирование с прямым затуханием
+ * (forward decay) в окне заданного периода полураспада.
+ */
+public class TrendingIndexTest {
+
+    private static final long MINUTE = 60_000L;
+
+    @Test
+    @DisplayName("Count-min sketch: estimates never undercount and stay within the error bound")
+    void testCountMinSketchError() {
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+        double[] exact = new double[5000];
+        Random random = new Random(7);
+        for (int i = 0; i < 50000; i++) {
+            // Перекос как у реальных прослушиваний: малые id играют намного чаще
+            int key = (int) Math.min(exact.length - 1, Math.abs(random.nextGaussian()) * 300);
+            exact[key] += 1;
+            sketch.add(key, 1);
+        }
+        assertEquals(50000, sketch.total(), 1e-6);
+
+        double bound = Math.E / 1024 * sketch.total();
+        int outside = 0;
+        for (int key = 0; key < exact.length; key++) {
+            double estimate = sketch.estimate(key);
+            assertTrue(estimate >= exact[key] - 1e-9, "undercount for key " + key);
+            if (estimate - exact[key] > bound) {
+                outside++;
+            }
+        }
+        // Граница нарушается с вероятностью не больше e^-4 ~ 2%
+        assertTrue(outside < exact.length * 0.02, outside + " keys outside the bound");
+    }
+
+    @Test
+    @DisplayName("Count-min sketch: scaling keeps relative weights and rejects bad sizes")
+    void testCountMinSketchScale() {
+        CountMinSketch sketch = new CountMinSketch(2, 64);
+        assertEquals(3.0, sketch.add(5, 3));
+        assertEquals(4.0, sketch.add(5, 1));
+        sketch.scale(0.5);
+        assertEquals(2.0, sketch.estimate(5), 1e-9);
+        assertEquals(2.0, sketch.total(), 1e-9);
+        assertEquals(2 * 64 * Double.BYTES, sketch.sizeInBytes());
+
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(0, 64));
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(7, 64));
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(4, 100));
+    }
+
+    @Test
+    @DisplayName("Top-K: keeps the heaviest candidates and ranks them by score")
+    void testTopK() {
+        TrendingIndex.TopK top = new TrendingIndex.TopK(3);
+        top.offer(1, 5);
+        top.offer(2, 1);
+        top.offer(3, 3);
+        top.offer(4, 2);
+        assertEquals(Arrays.asList(1, 3, 4), top.ranked(0));
+
+        // Вес уже известного кандидата растет - он поднимается в выдаче
+        top.offer(4, 10);
+        assertEquals(Arrays.asList(4, 1, 3), top.ranked(0));
+        // Легче самого слабого - не попадает
+        top.offer(5, 1);
+        assertEquals(3, top.size());
+        assertEquals(Arrays.asList(4, 1), top.ranked(4));
+
+        top.scale(0.1);
+        assertEquals(Collections.singletonList(4), top.ranked(0.6));
+    }
+
+    @Test
+    @DisplayName("Forward decay: recent plays outrank older ones after a few half-lives")
+    void testForwardDecayRanking() {
+        TrendingIndex.Horizon horizon = new TrendingIndex.Horizon(60, 10);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            horizon.add(1, 1, start);
+        }
+        for (int i = 0; i < 6; i++) {
+            horizon.add(2, 1, start + 30 * MINUTE);
+        }
+        // Через полчаса: 10 * 0.71 = 7.1 против 6
+        assertEquals(Arrays.asList(1, 2), horizon.top(start + 30 * MINUTE));
+
+        for (int i = 0; i < 5; i++) {
+            horizon.add(3, 1, start + 120 * MINUTE);
+        }
+        // Через два часа: 10 * 0.25 = 2.5, 6 * 0.35 = 2.1, свежие 5
+        assertEquals(Arrays.asList(3, 1, 2), horizon.top(start + 120 * MINUTE));
+        // Через пять часов: 0.31 и 0.27 ниже порога 0.5 и выпадают, у свежих 5 * 0.125 = 0.63
+        assertEquals(Collections.singletonList(3), horizon.top(start + 300 * MINUTE));
+    }
+
+    @Test
+    @DisplayName("Forward decay: rescaling the landmark keeps the ranking")
+    void testForwardDecayRescale() {
+        TrendingIndex.Horizon horizon = new TrendingIndex.Horizon(1, 10);
+        long start = System.currentTimeMillis();
+        horizon.add(1, 4, start);
+        horizon.add(2, 2, start);
+        assertEquals(Arrays.asList(1, 2), horizon.top(start));
+
+        // Сто периодов полураспада спустя множитель e^(t / tau) превышает порог - точка отсчета сдвигается
+        long later = start + 100 * MINUTE;
+        horizon.add(2, 3, later);
+        horizon.add(1, 1, later);
+        assertEquals(1L, horizon.getStatistics().get("rescales"));
+        assertEquals(Arrays.asList(2, 1), horizon.top(later));
+        assertTrue(Double.isFinite((Double) horizon.getStatistics().get("decayedPlays")));
+    }
+}